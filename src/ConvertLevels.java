@@ -0,0 +1,67 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import engine.core.MarioLevel;
+
+/**
+ * Compiles text levels into the binary level format, every .txt file of the input
+ * folder and its subfolders becomes a .lvl file at the same place in the output
+ * folder. Then it reports how long the text levels take to parse against the
+ * compiled levels to load.
+ * Usage: ConvertLevels [input folder] [output folder]
+ */
+public class ConvertLevels {
+    public static void main(String[] args) throws IOException {
+        Path input = Paths.get(args.length > 0 ? args[0] : "levels");
+        Path output = Paths.get(args.length > 1 ? args[1] : "compiledLevels");
+        List<Path> files;
+        try (Stream<Path> paths = Files.walk(input)) {
+            files = paths.filter(p -> p.toString().endsWith(".txt") && Files.isRegularFile(p)).sorted()
+                    .collect(Collectors.toList());
+        }
+
+        int converted = 0;
+        long textBytes = 0;
+        long binaryBytes = 0;
+        long parseNanos = 0;
+        for (Path file : files) {
+            String text = new String(Files.readAllBytes(file));
+            MarioLevel level;
+            long start = System.nanoTime();
+            try {
+                level = new MarioLevel(text, false);
+            } catch (RuntimeException e) {
+                System.err.println("Error parsing level " + file + ": " + e);
+                continue;
+            }
+            parseNanos += System.nanoTime() - start;
+            byte[] binary = level.toBinary();
+            String name = input.relativize(file).toString();
+            Path target = output.resolve(name.substring(0, name.length() - ".txt".length()) + ".lvl");
+            Files.createDirectories(target.toAbsolutePath().getParent());
+            Files.write(target, binary);
+            converted += 1;
+            textBytes += text.length();
+            binaryBytes += binary.length;
+        }
+
+        long loadNanos = 0;
+        try (Stream<Path> paths = Files.walk(output)) {
+            for (Path file : (Iterable<Path>) paths.filter(p -> p.toString().endsWith(".lvl"))::iterator) {
+                ByteBuffer buffer = MarioLevel.map(file);
+                long start = System.nanoTime();
+                new MarioLevel(buffer, false);
+                loadNanos += System.nanoTime() - start;
+            }
+        }
+        System.out.println("Converted " + converted + " of " + files.size() + " levels into " + output +
+                ", " + textBytes + " bytes of text to " + binaryBytes + " bytes");
+        System.out.println(String.format("Text parsing: %.1f ms, compiled loading: %.1f ms", parseNanos / 1e6, loadNanos / 1e6));
+    }
+}
@@ -0,0 +1,114 @@
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import agents.ea.Agent;
+import engine.core.MarioBatchRunner;
+
+/**
+ * Runs independent seeded EA runs on the original levels in one JVM and writes the
+ * statistics of every generation to one CSV file per level. Several runs evolve
+ * at the same time and all their games share one batch runner, so the cores that
+ * a run leaves idle at the end of a generation play the games of the other runs.
+ * Run r of level l uses the seed base + l * 1000 + r, so every run is repeatable.
+ * Usage: EAExperiments [runs] [concurrent runs] [first level] [last level] [output folder] [base seed]
+ */
+public class EAExperiments {
+    public static String getLevel(String filepath) {
+        String content = "";
+        try {
+            content = new String(Files.readAllBytes(Paths.get(filepath)));
+        } catch (IOException e) {
+            System.err.println("Error reading level file: " + e.getMessage());
+        }
+        return content;
+    }
+
+    // Evolve one run and return the best fitness, best completion, average fitness and average
+    // completion of every generation
+    private static double[][] runEvolution(String levelContent, long seed, MarioBatchRunner batchRunner,
+                                           long checkpointMemory) {
+        Agent agent = new Agent();
+        agent.setSeed(seed);
+        agent.setBatchRunner(batchRunner);
+        agent.setCheckpointMemory(checkpointMemory);
+        agent.setCSVFile(null);
+        agent.setVerbose(false);
+        agent.evolve(levelContent);
+        double[][] stats = new double[agent.getGenerations()][];
+        for (int gen = 0; gen < stats.length; gen++) {
+            stats[gen] = new double[]{agent.getBestFitness(gen), agent.getBestCompletion(gen),
+                    agent.getAverageFitness(gen), agent.getAverageCompletion(gen)};
+        }
+        return stats;
+    }
+
+    private static void writeResults(File file, List<Future<double[][]>> runs) throws IOException, InterruptedException, ExecutionException {
+        try (FileWriter writer = new FileWriter(file)) {
+            writer.append("run,generation,best_fitness,best_completion,average_fitness,average_completion\n");
+            for (int run = 0; run < runs.size(); run++) {
+                double[][] stats = runs.get(run).get();
+                for (int gen = 0; gen < stats.length; gen++) {
+                    writer.append((run + 1) + "," + (gen + 1) + "," + stats[gen][0] + "," + stats[gen][1] + "," +
+                            stats[gen][2] + "," + stats[gen][3] + "\n");
+                }
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int runs = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        int concurrentRuns = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        int firstLevel = args.length > 2 ? Integer.parseInt(args[2]) : 1;
+        int lastLevel = args.length > 3 ? Integer.parseInt(args[3]) : 15;
+        File output = new File(args.length > 4 ? args[4] : "openloopResults");
+        long baseSeed = args.length > 5 ? Long.parseLong(args[5]) : 0;
+        output.mkdirs();
+
+        MarioBatchRunner batchRunner = new MarioBatchRunner();
+        // every concurrent run keeps its own replay checkpoints, together they get a quarter of the heap
+        long checkpointMemory = Runtime.getRuntime().maxMemory() / 4 / Math.max(1, concurrentRuns);
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, concurrentRuns));
+        List<List<Future<double[][]>>> levels = new ArrayList<>();
+        long startTime = System.nanoTime();
+        for (int level = firstLevel; level <= lastLevel; level++) {
+            String levelContent = getLevel("./levels/original/lvl-" + level + ".txt");
+            List<Future<double[][]>> levelRuns = new ArrayList<>();
+            for (int run = 1; run <= runs; run++) {
+                int l = level;
+                int r = run;
+                long seed = baseSeed + level * 1000L + run;
+                levelRuns.add(pool.submit(() -> {
+                    long runStart = System.nanoTime();
+                    double[][] stats = runEvolution(levelContent, seed, batchRunner, checkpointMemory);
+                    System.out.println("Level " + l + " run " + r + "/" + runs + " - Best: " + stats[stats.length - 1][0] +
+                            ", Best Completion: " + stats[stats.length - 1][1] + " in " +
+                            String.format("%.1f", (System.nanoTime() - runStart) / 1e9) + " s");
+                    return stats;
+                }));
+            }
+            levels.add(levelRuns);
+        }
+        try {
+            for (int i = 0; i < levels.size(); i++) {
+                File file = new File(output, "level" + (firstLevel + i) + "_results.csv");
+                writeResults(file, levels.get(i));
+                System.out.println("Results saved to " + file);
+            }
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Experiment run failed", e.getCause());
+        } finally {
+            pool.shutdownNow();
+            batchRunner.shutdown();
+        }
+        System.out.println("All runs completed in " + String.format("%.1f", (System.nanoTime() - startTime) / 1e9) + " s");
+    }
+}
@@ -0,0 +1,115 @@
+package agents.ea;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import engine.core.MarioReplay;
+import engine.helper.MarioActions;
+
+/**
+ * A fixed length sequence of mario actions packed as bits. Each tick uses
+ * MarioReplay.BITS_PER_STEP bits (bit a is the action with value a) and every
+ * long holds MarioReplay.STEPS_PER_WORD ticks, the same layout MarioReplay
+ * plays, so a sequence is about 20 times smaller than a boolean[length][5] and
+ * copies, crossovers and mutations work on whole words.
+ */
+class ActionSequence {
+    private static final int BITS_PER_TICK = MarioReplay.BITS_PER_STEP;
+    private static final int TICKS_PER_WORD = MarioReplay.STEPS_PER_WORD;
+    private static final long TICK_MASK = (1L << BITS_PER_TICK) - 1;
+    // one shared boolean[] for each combination of actions
+    private static final boolean[][] ACTIONS = new boolean[1 << BITS_PER_TICK][MarioActions.numberOfActions()];
+    // spreads one bit per tick to a mask that covers all the bits of the tick
+    private static final long[] TICK_SPREAD = new long[1 << TICKS_PER_WORD];
+
+    static {
+        for (int bits = 0; bits < ACTIONS.length; bits++) {
+            for (int a = 0; a < ACTIONS[bits].length; a++) {
+                ACTIONS[bits][a] = (bits & (1 << a)) != 0;
+            }
+        }
+        for (int ticks = 0; ticks < TICK_SPREAD.length; ticks++) {
+            for (int t = 0; t < TICKS_PER_WORD; t++) {
+                if ((ticks & (1 << t)) != 0) {
+                    TICK_SPREAD[ticks] |= TICK_MASK << (BITS_PER_TICK * t);
+                }
+            }
+        }
+    }
+
+    private final int length;
+    private final long[] words;
+
+    ActionSequence(int length) {
+        this.length = length;
+        this.words = new long[(length + TICKS_PER_WORD - 1) / TICKS_PER_WORD];
+    }
+
+    int length() {
+        return this.length;
+    }
+
+    /**
+     * The packed ticks in the MarioReplay layout, changing the array changes the sequence
+     */
+    long[] getWords() {
+        return this.words;
+    }
+
+    void copyFrom(ActionSequence other) {
+        System.arraycopy(other.words, 0, this.words, 0, this.words.length);
+    }
+
+    void clear() {
+        Arrays.fill(this.words, 0);
+    }
+
+    boolean get(int tick, int action) {
+        return (this.words[tick / TICKS_PER_WORD] & (1L << (BITS_PER_TICK * (tick % TICKS_PER_WORD) + action))) != 0;
+    }
+
+    void set(int tick, int action, boolean value) {
+        long bit = 1L << (BITS_PER_TICK * (tick % TICKS_PER_WORD) + action);
+        if (value) {
+            this.words[tick / TICKS_PER_WORD] |= bit;
+        } else {
+            this.words[tick / TICKS_PER_WORD] &= ~bit;
+        }
+    }
+
+    void flip(int tick, int action) {
+        this.words[tick / TICKS_PER_WORD] ^= 1L << (BITS_PER_TICK * (tick % TICKS_PER_WORD) + action);
+    }
+
+    /**
+     * Get all the actions of a tick as bits
+     */
+    int getTick(int tick) {
+        return (int) ((this.words[tick / TICKS_PER_WORD] >>> (BITS_PER_TICK * (tick % TICKS_PER_WORD))) & TICK_MASK);
+    }
+
+    void setTick(int tick, int bits) {
+        int shift = BITS_PER_TICK * (tick % TICKS_PER_WORD);
+        long word = this.words[tick / TICKS_PER_WORD] & ~(TICK_MASK << shift);
+        this.words[tick / TICKS_PER_WORD] = word | ((bits & TICK_MASK) << shift);
+    }
+
+    /**
+     * Get the actions of a tick without allocating. The array is shared between
+     * all sequences and must not be modified.
+     */
+    boolean[] getActions(int tick) {
+        return ACTIONS[this.getTick(tick)];
+    }
+
+    /**
+     * Make this sequence a uniform crossover of two parents, each tick comes
+     * from either parent with the same probability
+     */
+    void uniformCrossover(ActionSequence parent1, ActionSequence parent2, Random random) {
+        for (int i = 0; i < this.words.length; i++) {
+            long mask = TICK_SPREAD[random.nextInt(TICK_SPREAD.length)];
+            this.words[i] = (parent1.words[i] & mask) | (parent2.words[i] & ~mask);
+        }
+    }
+}
@@ -1,17 +1,39 @@
 package agents.ea;
 
 import engine.core.MarioAgent;
+import engine.core.MarioBatchRunner;
 import engine.core.MarioForwardModel;
-import engine.core.MarioGame;
 import engine.core.MarioResult;
 import engine.core.MarioTimer;
 import engine.helper.GameStatus;
 import engine.helper.MarioActions;
-import java.io.FileWriter;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class Agent implements MarioAgent {
     // EA parameters
@@ -21,26 +43,81 @@ public class Agent implements MarioAgent {
     private static final double CROSSOVER_RATE = 0.3;
     private static final int TOURNAMENT_SIZE = 4;
     private static final int MAX_ACTIONS_SEQUENCE = 1000; // Maximum action sequence length
+    private static final int FITNESS_CACHE_SIZE = 20000; // Evaluations kept in memory
+    private static final int CHECKPOINT_MAGIC = 0x4D454133;
     
     // For storing results
     private static final String CSV_FILE_PATH = "evolutionary_mario_results.csv";
     
     // Current state of the EA
-    private int currentGeneration = 0;
-    private Chromosome[] population = new Chromosome[POPULATION_SIZE];
+    private Island[] islands;
     private Chromosome bestChromosome;
-    private Random random = new Random();
+    private LcgRandom random = new LcgRandom();
+    private long seed = random.nextLong(); // Seeds the random generator of every island
+    private MarioBatchRunner batchRunner; // Created on the first game unless setBatchRunner shares one
+    // Shared by the islands. Which island plays a sequence first depends on the timing of their
+    // threads, so the results are only the same on every run while a cached game always scores
+    // like a new one, that is with fitness bound pruning and the truncated horizon off. The
+    // cache hit counts depend on the timing either way.
+    private FitnessCache fitnessCache = new FitnessCache(FITNESS_CACHE_SIZE);
+    private String fitnessCachePath = null;
+    private String csvPath = CSV_FILE_PATH; // null doesn't write the CSV log
+    private boolean verbose = true; // Print the progress of the evolution
+    
+    // Statistics output, the sinks write on their own threads so a generation never waits for it
+    private MetricsSink csvSink;
+    private MetricsSink consoleSink;
+    private List<MetricsSink> metricsSinks = new ArrayList<>();
+    private MetricsSink.Record metrics = new MetricsSink.Record();
+    private long lastLogTime;
+    private long lastLogEvaluations;
+    private int lastLogHits;
+    private int lastLogMisses;
+    private ChromosomeEvaluator evaluator; // Plays and scores the chromosomes on the evolved level
+    private long checkpointMemory = ChromosomeEvaluator.CHECKPOINT_MEMORY;
+    
+    // Early termination of evaluation games, all off by default because a stopped game scores
+    // differently than the full game and changes the logged fitness and completion
+    private int stallTicks = 0; // Stop after this many ticks without getting further right, 0 disables it
+    private boolean fitnessBoundPruning = false; // Stop when the best reachable fitness can't pass the tournament threshold
+    private int horizonTicks = 0; // Ticks played in the first generation, 0 plays full games from the start
+    private int horizonGenerations = 0; // Generations until the horizon reaches the full game
+    
+    // Island model, a single island is one panmictic population
+    private int islandCount = 1;
+    private int migrationInterval = 10; // Generations between two migrations
+    private int migrants = 2; // Best chromosomes each island sends at a migration
+    private boolean randomTopology = false; // Send the migrants to a random island instead of the next one on the ring
+    private LcgRandom migrationRandom;
+    private CyclicBarrier migrationBarrier;
+    private int loggedGenerations = 0;
+    
+    // Steady state mode, workers breed, evaluate and insert one chromosome at a time
+    private int steadyStateThreads = 0; // 0 runs the generational EA
+    private AtomicLong evaluations = new AtomicLong(); // Chromosomes evaluated, with cache hits
+    private AtomicLong gamesPlayed = new AtomicLong();
+    
+    // Checkpoints, the state after each generation is written to a file that resume continues from
+    private String checkpointPath = null;
+    private ExecutorService checkpointWriter;
+    private int startGeneration = 0; // First generation of the current run, after the checkpoint it resumed
+    
+    // Evaluation farm, worker processes play the games instead of the batch runner
+    private EvaluationFarm evaluationFarm;
+    private int farmLevel;
     
     // To measure improvement over generations
     private double[] generationBestFitness = new double[MAX_GENERATIONS];
     private double[] generationAvgFitness = new double[MAX_GENERATIONS];
     private double[] generationAvgCompletion = new double[MAX_GENERATIONS];
+    private double[] generationEvaluationsPerSecond = new double[MAX_GENERATIONS];
+    private double[] generationCacheHitRate = new double[MAX_GENERATIONS];
     
     // Current action being executed from the chromosome
     private int currentActionIndex = 0;
     
     // For real-time play (this will hold our best evolved sequence)
-    private boolean[][] actionSequence;
+    private ActionSequence actionSequence;
     
     @Override
     public void initialize(MarioForwardModel model, MarioTimer timer) {
@@ -48,7 +125,7 @@ public class Agent implements MarioAgent {
         currentActionIndex = 0;
         
         // If we haven't evolved yet, create a population
-        if (population[0] == null) {
+        if (islands == null) {
             initializePopulation();
         }
     }
@@ -56,8 +133,8 @@ public class Agent implements MarioAgent {
     @Override
     public boolean[] getActions(MarioForwardModel model, MarioTimer timer) {
         // If we have an evolved sequence, use it
-        if (actionSequence != null && currentActionIndex < actionSequence.length) {
-            return actionSequence[currentActionIndex++];
+        if (actionSequence != null && currentActionIndex < actionSequence.length()) {
+            return actionSequence.getActions(currentActionIndex++);
         }
         
         // If no evolved sequence yet or exhausted it, return a default action (move right)
@@ -75,167 +152,516 @@ public class Agent implements MarioAgent {
         return "EvolutionaryAgent";
     }
     
-    // Initialize population with random chromosomes
+    // Initialize population with random chromosomes, split over the islands
     private void initializePopulation() {
-        for (int i = 0; i < POPULATION_SIZE; i++) {
-            population[i] = new Chromosome(MAX_ACTIONS_SEQUENCE);
-            population[i].randomize(random);
+        islands = new Island[islandCount];
+        for (int i = 0; i < islandCount; i++) {
+            // Every island has its own seeded generator so a run only depends on the seed
+            int size = POPULATION_SIZE / islandCount + (i < POPULATION_SIZE % islandCount ? 1 : 0);
+            islands[i] = new Island(size, new LcgRandom(seed + i * 0x9E3779B97F4A7C15L));
+            for (Chromosome chromosome : islands[i].population) {
+                chromosome.randomize(islands[i].random);
+            }
         }
+        migrationRandom = new LcgRandom(seed + islandCount * 0x9E3779B97F4A7C15L);
     }
     
     // Evolve the population for the specified number of generations
     public void evolve(String levelContent) {
         // Initialize population if not done already
-        if (population[0] == null) {
+        if (islands == null) {
             initializePopulation();
         }
         
-        initializeCSV();
+        startGeneration = 0;
+        openMetrics();
+        loadFitnessCache();
+        loggedGenerations = 0;
+        evaluations.set(0);
+        gamesPlayed.set(0);
+        run(levelContent);
+    }
+    
+    // Continue the run that wrote a checkpoint file, the evolution is the same as if that run
+    // had not stopped, as long as that run was repeatable itself (see fitnessCache). The level and
+    // the settings of the run are taken from the checkpoint and the new checkpoints replace the file.
+    public void resume(String path) {
+        if (steadyStateThreads > 0) {
+            throw new IllegalStateException("The steady state mode doesn't use checkpoints");
+        }
+        String levelContent;
+        try {
+            levelContent = loadCheckpoint(new File(path));
+        } catch (IOException e) {
+            throw new RuntimeException("Loading the checkpoint failed", e);
+        }
+        checkpointPath = path;
+        // The log restarts with the generations of the checkpoint
+        openMetrics();
+        for (int gen = 0; gen < loggedGenerations; gen++) {
+            publishGeneration(gen);
+        }
+        if (verbose) {
+            System.out.println("Resuming from generation " + (startGeneration + 1) + "/" + MAX_GENERATIONS);
+        }
+        run(levelContent);
+    }
+    
+    private void run(String levelContent) {
+        prepareLevel(levelContent);
+        if (evaluationFarm != null) {
+            farmLevel = evaluationFarm.addChromosomeLevel(levelContent, stallTicks);
+        }
+        if (checkpointPath != null) {
+            checkpointWriter = Executors.newSingleThreadExecutor();
+        }
+        long startTime = System.nanoTime();
+        lastLogTime = startTime;
+        lastLogEvaluations = evaluations.get();
+        lastLogHits = fitnessCache.getHits();
+        lastLogMisses = fitnessCache.getMisses();
         
-        for (int gen = 0; gen < MAX_GENERATIONS; gen++) {
-            currentGeneration = gen;
-            System.out.println("Generation " + (gen + 1) + "/" + MAX_GENERATIONS);
-            
-            // Evaluate fitness of each chromosome by actually playing the game
-            evaluatePopulation(levelContent);
-            
-            // Sort population by fitness (descending)
-            Arrays.sort(population, Comparator.comparing((Chromosome c) -> c.fitness).reversed());
-            
-            // Store the best chromosome
-            bestChromosome = new Chromosome(population[0]);
-            
-            // Record statistics
-            recordGenerationStats(gen);
-
-            //ensureDiversity();
-            
-            // Create new population through selection, crossover, and mutation
-            Chromosome[] newPopulation = new Chromosome[POPULATION_SIZE];
-            
-            // Elitism: Keep the best chromosome
-            newPopulation[0] = new Chromosome(bestChromosome);
-            
-            // Generate the rest of the population
-            for (int i = 1; i < POPULATION_SIZE; i++) {
-                // Selection
-                Chromosome parent1 = tournamentSelection();
-                Chromosome parent2 = tournamentSelection();
-                
-                // Crossover
-                Chromosome child;
-                if (random.nextDouble() < CROSSOVER_RATE) {
-                    child = uniformCrossover(parent1, parent2);
-                } else {
-                    child = new Chromosome(parent1); // Just copy parent1
+        try {
+            if (steadyStateThreads > 0) {
+                if (islands.length > 1) {
+                    throw new IllegalStateException("The steady state mode needs a single island");
                 }
-                // if (random.nextDouble() < CROSSOVER_RATE) {
-                //     child = jumpAwareCrossover(parent1, parent2);
-                // } else {
-                //     child = new Chromosome(parent1); // Just copy parent1
-                // }
-                
-                // Mutation
-                if (random.nextDouble() < MUTATION_RATE) {
-                    mutate(child);
-                }
-                
-                newPopulation[i] = child;
+                islands[0].evolveSteadyState(levelContent, steadyStateThreads);
+            } else if (islands.length == 1) {
+                islands[0].evolve(levelContent);
+            } else {
+                evolveIslands(levelContent);
             }
-            
-            // Replace old population
-            population = newPopulation;
-            
-            // Log to CSV
-            logGenerationToCSV(gen);
+            logGenerations(MAX_GENERATIONS - 1);
+        } finally {
+            finishCheckpoints();
+            closeMetrics();
         }
+        double seconds = (System.nanoTime() - startTime) / 1e9;
         
         // Set the best chromosome for final run
-        Arrays.sort(population, Comparator.comparing((Chromosome c) -> c.fitness).reversed());
-        bestChromosome = new Chromosome(population[0]);
+        Chromosome best = islands[0].population[0];
+        for (Island island : islands) {
+            if (island.population[0].fitness > best.fitness) {
+                best = island.population[0];
+            }
+        }
+        bestChromosome = new Chromosome(best);
         
         // Store the evolved action sequence for playback
         actionSequence = bestChromosome.sequence;
         currentActionIndex = 0;
         
-        System.out.println("Evolution complete!");
-        System.out.println("Best fitness: " + bestChromosome.fitness);
+        if (verbose) {
+            System.out.println("Evolution complete!");
+            System.out.println("Best fitness: " + bestChromosome.fitness);
+            System.out.println("Fitness cache hits: " + fitnessCache.getHits() + ", misses: " + fitnessCache.getMisses());
+            System.out.println("Replay steps played: " + evaluator.getReplay().getPlayedSteps() + ", resumed from checkpoints: " + evaluator.getReplay().getResumedSteps());
+            System.out.println((steadyStateThreads > 0 ? "Steady state" : "Generational") + " evaluations: " + evaluations.get() +
+                               " (" + gamesPlayed.get() + " games played) in " + String.format("%.2f", seconds) + " s, " +
+                               String.format("%.1f", evaluations.get() / seconds) + " per second");
+        }
+        saveFitnessCache();
+    }
+    
+    // Set up the replay and the fitness bound of the level that is evaluated
+    private void prepareLevel(String levelContent) {
+        evaluator = new ChromosomeEvaluator(levelContent, stallTicks, checkpointMemory);
     }
     
-    // Evaluate the fitness of each chromosome in the population
-    private void evaluatePopulation(String levelContent) {
-        Arrays.stream(population).parallel().forEach(chromosome -> {
-            MarioResult result = evaluateChromosome(chromosome, levelContent);
-            chromosome.fitness = calculateFitness(result);
-            chromosome.result = result;
+    // Evolve every island on its own thread, they only wait for each other when migrants are exchanged
+    private void evolveIslands(String levelContent) {
+        migrationBarrier = new CyclicBarrier(islands.length, () -> {
+            logGenerations(islands[0].generation);
+            migrate();
+            saveCheckpoint(islands[0].generation, levelContent);
         });
-
-        // Optionally print every 10th chromosome — but outside the parallel block
-        for (int i = 0; i < POPULATION_SIZE; i += 10) {
-            System.out.println("Evaluated " + (i + 1) + "/" + POPULATION_SIZE +
-                            " - Fitness: " + population[i].fitness +
-                            " - Completion: " + population[i].result.getCompletionPercentage());
+        ExecutorService pool = Executors.newFixedThreadPool(islands.length);
+        try {
+            List<Future<?>> runs = new ArrayList<>();
+            for (Island island : islands) {
+                runs.add(pool.submit(() -> {
+                    try {
+                        island.evolve(levelContent);
+                    } catch (RuntimeException e) {
+                        // Release the islands that wait for this one at the next migration
+                        migrationBarrier.reset();
+                        throw e;
+                    }
+                }));
+            }
+            for (Future<?> run : runs) {
+                run.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Island evolution was interrupted", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Island evolution failed", e.getCause());
+        } finally {
+            pool.shutdown();
         }
     }
     
-    // Run Mario simulation with the given chromosome and return the result
-    private MarioResult evaluateChromosome(Chromosome chromosome, String levelContent) {
-        MarioGame game = new MarioGame();
-        EARunnerAgent runner = new EARunnerAgent(chromosome.sequence);
-        return game.runGame(runner, levelContent, 20, 0, false);  // Set visualization to false for speed
+    // Called by every island after it evaluated a generation, the islands only have a common state
+    // to checkpoint when they meet for a migration
+    private void finishGeneration(int generation, String levelContent) {
+        if (islands.length == 1) {
+            logGenerations(generation);
+            if (generation + 1 < MAX_GENERATIONS) {
+                saveCheckpoint(generation, levelContent);
+            }
+            return;
+        }
+        if ((generation + 1) % migrationInterval != 0 || generation + 1 >= MAX_GENERATIONS) {
+            return;
+        }
+        try {
+            migrationBarrier.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Island evolution was interrupted", e);
+        } catch (BrokenBarrierException e) {
+            throw new RuntimeException("Another island failed", e);
+        }
     }
     
-    // Calculate fitness based on the given criteria
-    private double calculateFitness(MarioResult result) {
-        double fitness = 0.0;
-        double complete_score = 0.0;
-        double time_score = 0.0;
-        double kill_score = 0.0;
-        double coin_score = 0.0;
-        double mushroom_score = 0.0;
-        double hit_score = 0.0;
-        double game_win = 0.0;
-
-        if (result.getGameStatus() == GameStatus.WIN) {
-            game_win = 2;
+    // Copy the best chromosomes of every island over the worst ones of another island,
+    // all the islands are sorted and waiting when this runs
+    private void migrate() {
+        Chromosome[][] emigrants = new Chromosome[islands.length][];
+        for (int i = 0; i < islands.length; i++) {
+            int count = Math.min(migrants, islands[i].population.length / 2);
+            emigrants[i] = new Chromosome[count];
+            for (int j = 0; j < count; j++) {
+                emigrants[i][j] = new Chromosome(islands[i].population[j]);
+            }
         }
-        
-        // Completion percentage - most important
-        complete_score += (result.getCompletionPercentage() * 4000);
-
-        if (result.getCompletionPercentage() > 0.7) {
-            complete_score *= 1.75;
-        } else if (result.getCompletionPercentage() > 0.5) {
-            complete_score *= 1.5;
-        } else {
-            complete_score *= 0.5;
+        int[] replaced = new int[islands.length];
+        for (int i = 0; i < islands.length; i++) {
+            int destination = (i + 1) % islands.length;
+            if (randomTopology) {
+                destination = migrationRandom.nextInt(islands.length - 1);
+                if (destination >= i) {
+                    destination++;
+                }
+            }
+            Chromosome[] population = islands[destination].population;
+            for (Chromosome emigrant : emigrants[i]) {
+                // Never replace more than half of an island when several send to it
+                if (replaced[destination] < population.length / 2) {
+                    population[population.length - 1 - replaced[destination]].copyFrom(emigrant);
+                    replaced[destination]++;
+                }
+            }
         }
-        
-        // Time remaining - important
-        time_score += (result.getRemainingTime() / 1000) * 20 * game_win;
-        
-        // Kills - medium importance
-        kill_score += result.getKillsTotal() * 1.5;
-
-        hit_score += result.getMarioNumHurts() * 3;
-        
-        // Mushrooms - medium-high importance
-        mushroom_score += result.getNumCollectedMushrooms() * 1.5;
-        
-        // Coins - medium importance
-        coin_score += result.getCurrentCoins() * 1.25;
-        
-        fitness += complete_score + time_score + kill_score + mushroom_score + coin_score - hit_score;
-
-        if (game_win == 2) {
-            fitness *= 2;
-        } else {
-            fitness /= 2;
+        for (Island island : islands) {
+            island.sortPopulation();
         }
-
-        return fitness;
     }
-
+    
+    // Split the population into islands that evolve in parallel and exchange their best chromosomes,
+    // 1 island keeps one panmictic population
+    public void setIslandModel(int islands, int migrationInterval, int migrants, boolean randomTopology) {
+        this.islandCount = Math.max(1, Math.min(islands, POPULATION_SIZE / 10));
+        this.migrationInterval = Math.max(1, migrationInterval);
+        this.migrants = Math.max(0, migrants);
+        this.randomTopology = randomTopology;
+        this.islands = null;
+    }
+    
+    // Replace the generations with a steady state EA, the given number of workers each breed a child,
+    // play it and put it back in the population by replacing the worst of a tournament if it is
+    // better, so no worker waits for the slowest game of a generation. 0 threads keeps the
+    // generational EA. The order in which children are inserted depends on the timing of the
+    // threads, so a seeded steady state run is only repeatable with 1 thread.
+    public void setSteadyState(int threads) {
+        steadyStateThreads = Math.max(0, threads);
+    }
+    
+    // Play the evaluation games on the workers of a farm, null plays them in this process. The
+    // workers use the same fitness and early termination as this agent.
+    public void setEvaluationFarm(EvaluationFarm farm) {
+        evaluationFarm = farm;
+    }
+    
+    // Write the statistics of every generation to the given CSV file, null doesn't write them
+    public void setCSVFile(String path) {
+        csvPath = path;
+    }
+    
+    // Also send the statistics of every generation to the sink, the caller closes it
+    public void addMetricsSink(MetricsSink sink) {
+        metricsSinks.add(sink);
+    }
+    
+    // Print the progress of the evolution to the standard output (on by default)
+    public void setVerbose(boolean verbose) {
+        this.verbose = verbose;
+    }
+    
+    // Play the games on a batch runner that is shared with other agents, so agents that evolve at
+    // the same time don't each start a thread for every processor
+    public void setBatchRunner(MarioBatchRunner batchRunner) {
+        this.batchRunner = batchRunner;
+    }
+    
+    // Estimated bytes of heap for the replay checkpoints of this agent, agents that evolve at the
+    // same time each keep their own checkpoints
+    public void setCheckpointMemory(long bytes) {
+        checkpointMemory = Math.max(0, bytes);
+    }
+    
+    // The batch runner starts a thread for every processor, so an agent that never plays a
+    // batch itself (a farm worker level, a shared runner) doesn't create its own
+    private synchronized MarioBatchRunner getBatchRunner() {
+        if (batchRunner == null) {
+            batchRunner = new MarioBatchRunner();
+        }
+        return batchRunner;
+    }
+    
+    // Number of generations of an evolution
+    public int getGenerations() {
+        return MAX_GENERATIONS;
+    }
+    
+    // Statistics of a generation of the last evolution
+    public double getBestFitness(int generation) {
+        return generationBestFitness[generation];
+    }
+    
+    public double getBestCompletion(int generation) {
+        return getBestIsland(generation).bestResult[generation].getCompletionPercentage();
+    }
+    
+    public double getAverageFitness(int generation) {
+        return generationAvgFitness[generation];
+    }
+    
+    public double getAverageCompletion(int generation) {
+        return generationAvgCompletion[generation];
+    }
+    
+    // Make the evolution repeatable, every island derives its generator from the seed. Several
+    // islands with fitness bound pruning or a truncated horizon are not repeatable, see fitnessCache
+    public void setSeed(long seed) {
+        this.seed = seed;
+        this.random.setSeed(seed);
+        this.islands = null;
+    }
+    
+    // Keep the evaluated sequences in a file so later runs on the same level skip them
+    public void setFitnessCacheFile(String path) {
+        fitnessCachePath = path;
+    }
+    
+    private void loadFitnessCache() {
+        if (fitnessCachePath == null) {
+            return;
+        }
+        try {
+            fitnessCache.load(new File(fitnessCachePath));
+        } catch (IOException e) {
+            System.err.println("Error loading fitness cache: " + e.getMessage());
+        }
+    }
+    
+    // Stop evaluation games once mario didn't get further right for the given ticks, 0 (the default) disables it
+    public void setStallTicks(int ticks) {
+        stallTicks = Math.max(0, ticks);
+    }
+    
+    // Stop evaluation games once their best reachable fitness is below the median of the last generation,
+    // off by default. A cached full game can score higher than the same game stopped now, so with
+    // several islands the results depend on which island played a sequence first.
+    public void setFitnessBoundPruning(boolean enabled) {
+        fitnessBoundPruning = enabled;
+    }
+    
+    // Only play the first ticks of each game in the early generations, the horizon grows
+    // linearly from the given ticks to the full game over the given generations. Like fitness
+    // bound pruning, it makes runs with several islands depend on the timing of their threads.
+    public void setTruncatedHorizon(int ticks, int generations) {
+        horizonTicks = Math.max(0, ticks);
+        horizonGenerations = Math.max(0, generations);
+    }
+    
+    private void saveFitnessCache() {
+        if (fitnessCachePath == null) {
+            return;
+        }
+        try {
+            fitnessCache.save(new File(fitnessCachePath));
+        } catch (IOException e) {
+            System.err.println("Error saving fitness cache: " + e.getMessage());
+        }
+    }
+    
+    // Write the checkpoint files of the current run to the given path, generational runs only
+    public void setCheckpointFile(String path) {
+        checkpointPath = path;
+    }
+    
+    // Write the state after the given generation to the checkpoint file. The state is copied on this
+    // thread and written to the disk by the checkpoint thread, so the next generation doesn't wait for it.
+    private void saveCheckpoint(int generation, String levelContent) {
+        if (checkpointWriter == null) {
+            return;
+        }
+        ByteArrayOutputStream state = new ByteArrayOutputStream();
+        FitnessCache cache;
+        try (DataOutputStream out = new DataOutputStream(state)) {
+            out.writeInt(CHECKPOINT_MAGIC);
+            out.writeInt(generation);
+            byte[] level = levelContent.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(level.length);
+            out.write(level);
+            // Settings that change the evolution
+            out.writeLong(seed);
+            out.writeInt(stallTicks);
+            out.writeBoolean(fitnessBoundPruning);
+            out.writeInt(horizonTicks);
+            out.writeInt(horizonGenerations);
+            out.writeInt(migrationInterval);
+            out.writeInt(migrants);
+            out.writeBoolean(randomTopology);
+            out.writeLong(random.getState());
+            out.writeLong(migrationRandom.getState());
+            out.writeInt(loggedGenerations);
+            out.writeLong(evaluations.get());
+            out.writeLong(gamesPlayed.get());
+            for (int gen = 0; gen <= generation; gen++) {
+                out.writeDouble(generationBestFitness[gen]);
+                out.writeDouble(generationAvgFitness[gen]);
+                out.writeDouble(generationAvgCompletion[gen]);
+                out.writeDouble(generationEvaluationsPerSecond[gen]);
+                out.writeDouble(generationCacheHitRate[gen]);
+            }
+            out.writeInt(islands.length);
+            for (Island island : islands) {
+                out.writeInt(island.population.length);
+            }
+            for (Island island : islands) {
+                island.write(out, generation);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Writing the checkpoint failed", e);
+        }
+        // The cached evaluations decide where the fitness bound stops a game, so they are part of the state
+        synchronized (fitnessCache) {
+            cache = fitnessCache.copy();
+        }
+        File file = new File(checkpointPath);
+        checkpointWriter.submit(() -> {
+            File temp = new File(file.getPath() + ".tmp");
+            try {
+                try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+                    state.writeTo(out);
+                    cache.write(out);
+                }
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                System.err.println("Error saving checkpoint: " + e.getMessage());
+            }
+        });
+    }
+    
+    // Wait until the last checkpoint is on the disk
+    private void finishCheckpoints() {
+        if (checkpointWriter == null) {
+            return;
+        }
+        checkpointWriter.shutdown();
+        try {
+            checkpointWriter.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        checkpointWriter = null;
+    }
+    
+    // Restore the state of a checkpoint and return the level it was evolved on
+    private String loadCheckpoint(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != CHECKPOINT_MAGIC) {
+                throw new IOException("Not an EA checkpoint file: " + file);
+            }
+            int generation = in.readInt();
+            if (generation < 0) {
+                throw new IOException("Invalid generation in the checkpoint: " + file);
+            }
+            if (generation + 1 >= MAX_GENERATIONS) {
+                throw new IOException("The checkpoint is at the last generation: " + file);
+            }
+            // The sizes are checked before they are allocated, so a broken file fails with an IOException
+            int levelLength = in.readInt();
+            if (levelLength < 0 || levelLength > file.length()) {
+                throw new IOException("Invalid level length in the checkpoint: " + file);
+            }
+            byte[] level = new byte[levelLength];
+            in.readFully(level);
+            seed = in.readLong();
+            stallTicks = in.readInt();
+            fitnessBoundPruning = in.readBoolean();
+            horizonTicks = in.readInt();
+            horizonGenerations = in.readInt();
+            migrationInterval = in.readInt();
+            migrants = in.readInt();
+            randomTopology = in.readBoolean();
+            random.setState(in.readLong());
+            migrationRandom = new LcgRandom();
+            migrationRandom.setState(in.readLong());
+            loggedGenerations = in.readInt();
+            evaluations.set(in.readLong());
+            gamesPlayed.set(in.readLong());
+            for (int gen = 0; gen <= generation; gen++) {
+                generationBestFitness[gen] = in.readDouble();
+                generationAvgFitness[gen] = in.readDouble();
+                generationAvgCompletion[gen] = in.readDouble();
+                generationEvaluationsPerSecond[gen] = in.readDouble();
+                generationCacheHitRate[gen] = in.readDouble();
+            }
+            int count = in.readInt();
+            if (count < 1 || count > POPULATION_SIZE) {
+                throw new IOException("Invalid island count in the checkpoint: " + file);
+            }
+            int[] sizes = new int[count];
+            int total = 0;
+            for (int i = 0; i < count; i++) {
+                sizes[i] = in.readInt();
+                if (sizes[i] < 1 || sizes[i] > POPULATION_SIZE - total) {
+                    throw new IOException("Invalid island sizes in the checkpoint: " + file);
+                }
+                total += sizes[i];
+            }
+            if (total != POPULATION_SIZE) {
+                throw new IOException("Invalid island sizes in the checkpoint: " + file);
+            }
+            islandCount = count;
+            islands = new Island[islandCount];
+            for (int i = 0; i < islandCount; i++) {
+                islands[i] = new Island(sizes[i], null);
+            }
+            for (Island island : islands) {
+                island.read(in, generation);
+            }
+            fitnessCache = new FitnessCache(FITNESS_CACHE_SIZE);
+            fitnessCache.read(in);
+            startGeneration = generation + 1;
+            return new String(level, StandardCharsets.UTF_8);
+        }
+    }
+    
+    // Number of ticks played in the given generation, 0 for full games
+    private int getHorizon(int generation) {
+        if (horizonTicks <= 0 || generation >= horizonGenerations) {
+            return 0;
+        }
+        int fullTicks = ChromosomeEvaluator.GAME_TIMER * 1000 / 30;
+        return horizonTicks + (fullTicks - horizonTicks) * generation / horizonGenerations;
+    }
+    
     // Add this method to your Agent class
 private void injectJumpPatterns(Chromosome chromosome, Random random) {
     int position = random.nextInt(MAX_ACTIONS_SEQUENCE - 20); // Ensure enough space
@@ -245,77 +671,63 @@ private void injectJumpPatterns(Chromosome chromosome, Random random) {
         // Short hop (good for small gaps)
         int jumpDuration = 3;
         // First run a bit
-        chromosome.sequence[position][MarioActions.RIGHT.getValue()] = true;
+        chromosome.sequence.set(position, MarioActions.RIGHT.getValue(), true);
         position++;
         
         // Then jump briefly
         for (int i = 0; i < jumpDuration; i++) {
-            chromosome.sequence[position + i][MarioActions.RIGHT.getValue()] = true;
-            chromosome.sequence[position + i][MarioActions.JUMP.getValue()] = true;
+            chromosome.sequence.set(position + i, MarioActions.RIGHT.getValue(), true);
+            chromosome.sequence.set(position + i, MarioActions.JUMP.getValue(), true);
         }
     }
     else if (patternType == 1) {
         // Medium jump (good for medium gaps)
         // Run first to build momentum
         for (int i = 0; i < 2; i++) {
-            chromosome.sequence[position + i][MarioActions.RIGHT.getValue()] = true;
-            chromosome.sequence[position + i][MarioActions.SPEED.getValue()] = true;
+            chromosome.sequence.set(position + i, MarioActions.RIGHT.getValue(), true);
+            chromosome.sequence.set(position + i, MarioActions.SPEED.getValue(), true);
         }
         position += 2;
         
         // Then jump with precise timing
         for (int i = 0; i < 5; i++) {
-            chromosome.sequence[position + i][MarioActions.RIGHT.getValue()] = true;
-            chromosome.sequence[position + i][MarioActions.JUMP.getValue()] = (i < 4); // Release jump before landing
-            chromosome.sequence[position + i][MarioActions.SPEED.getValue()] = true;
+            chromosome.sequence.set(position + i, MarioActions.RIGHT.getValue(), true);
+            chromosome.sequence.set(position + i, MarioActions.JUMP.getValue(), (i < 4)); // Release jump before landing
+            chromosome.sequence.set(position + i, MarioActions.SPEED.getValue(), true);
         }
     }
     else if (patternType == 2) {
         // Delayed jump (jump after running off edge slightly)
         for (int i = 0; i < 3; i++) {
-            chromosome.sequence[position + i][MarioActions.RIGHT.getValue()] = true;
+            chromosome.sequence.set(position + i, MarioActions.RIGHT.getValue(), true);
         }
         position += 3;
         
         // Jump after running slightly
         for (int i = 0; i < 5; i++) {
-            chromosome.sequence[position + i][MarioActions.RIGHT.getValue()] = true;
-            chromosome.sequence[position + i][MarioActions.JUMP.getValue()] = true;
+            chromosome.sequence.set(position + i, MarioActions.RIGHT.getValue(), true);
+            chromosome.sequence.set(position + i, MarioActions.JUMP.getValue(), true);
         }
     }
     else {
         // Gap-clearing precision jump
         // Run to build speed
         for (int i = 0; i < 3; i++) {
-            chromosome.sequence[position + i][MarioActions.RIGHT.getValue()] = true;
-            chromosome.sequence[position + i][MarioActions.SPEED.getValue()] = true;
+            chromosome.sequence.set(position + i, MarioActions.RIGHT.getValue(), true);
+            chromosome.sequence.set(position + i, MarioActions.SPEED.getValue(), true);
         }
         position += 3;
         
         // Jump with early release for precise control
         for (int i = 0; i < 4; i++) {
-            chromosome.sequence[position + i][MarioActions.RIGHT.getValue()] = true;
+            chromosome.sequence.set(position + i, MarioActions.RIGHT.getValue(), true);
             // Only hold jump for first 2-3 frames for more controlled height
-            chromosome.sequence[position + i][MarioActions.JUMP.getValue()] = (i < 2 + random.nextInt(2));
-            chromosome.sequence[position + i][MarioActions.SPEED.getValue()] = true;
+            chromosome.sequence.set(position + i, MarioActions.JUMP.getValue(), (i < 2 + random.nextInt(2)));
+            chromosome.sequence.set(position + i, MarioActions.SPEED.getValue(), true);
         }
     }
 }
     
-    // Tournament selection
-    private Chromosome tournamentSelection() {
-        Chromosome best = population[random.nextInt(POPULATION_SIZE)];
-        
-        for (int i = 1; i < TOURNAMENT_SIZE; i++) {
-            Chromosome contender = population[random.nextInt(POPULATION_SIZE)];
-            if (contender.fitness > best.fitness) {
-                best = contender;
-            }
-        }
-        
-        return best;
-    }
-    
     private Chromosome jumpAwareCrossover(Chromosome parent1, Chromosome parent2) {
         Chromosome child = new Chromosome(MAX_ACTIONS_SEQUENCE);
         
@@ -329,14 +741,14 @@ private void injectJumpPatterns(Chromosome chromosome, Random random) {
             if ((isJumpSequence1[i] && parent1.fitness > parent2.fitness) ||
                 (isJumpSequence2[i] && parent2.fitness > parent1.fitness)) {
                 // Keep jump sequence from fitter parent
-                child.sequence[i] = (parent1.fitness > parent2.fitness) ?
-                                    Arrays.copyOf(parent1.sequence[i], MarioActions.numberOfActions()) :
-                                    Arrays.copyOf(parent2.sequence[i], MarioActions.numberOfActions());
+                child.sequence.setTick(i, (parent1.fitness > parent2.fitness) ?
+                                       parent1.sequence.getTick(i) :
+                                       parent2.sequence.getTick(i));
             } else {
                 // Regular uniform crossover for non-jump sequences
-                child.sequence[i] = random.nextBoolean() ?
-                                   Arrays.copyOf(parent1.sequence[i], MarioActions.numberOfActions()) :
-                                   Arrays.copyOf(parent2.sequence[i], MarioActions.numberOfActions());
+                child.sequence.setTick(i, random.nextBoolean() ?
+                                       parent1.sequence.getTick(i) :
+                                       parent2.sequence.getTick(i));
             }
         }
         
@@ -344,13 +756,13 @@ private void injectJumpPatterns(Chromosome chromosome, Random random) {
     }
     
     // Helper method to identify jump sequences
-    private boolean[] findJumpSequences(boolean[][] sequence) {
-        boolean[] isJumpSequence = new boolean[sequence.length];
+    private boolean[] findJumpSequences(ActionSequence sequence) {
+        boolean[] isJumpSequence = new boolean[sequence.length()];
         
         // Look for sequences of at least 3 frames where JUMP is pressed
         int jumpCounter = 0;
-        for (int i = 0; i < sequence.length; i++) {
-            if (sequence[i][MarioActions.JUMP.getValue()]) {
+        for (int i = 0; i < sequence.length(); i++) {
+            if (sequence.get(i, MarioActions.JUMP.getValue())) {
                 jumpCounter++;
                 
                 if (jumpCounter >= 3) {
@@ -367,51 +779,77 @@ private void injectJumpPatterns(Chromosome chromosome, Random random) {
         return isJumpSequence;
     }
 
-    // Uniform crossover
-    private Chromosome uniformCrossover(Chromosome parent1, Chromosome parent2) {
-        Chromosome child = new Chromosome(MAX_ACTIONS_SEQUENCE);
-        
-        for (int i = 0; i < MAX_ACTIONS_SEQUENCE; i++) {
-            // For each position, randomly choose from either parent
-            if (random.nextBoolean()) {
-                child.sequence[i] = Arrays.copyOf(parent1.sequence[i], MarioActions.numberOfActions());
-            } else {
-                child.sequence[i] = Arrays.copyOf(parent2.sequence[i], MarioActions.numberOfActions());
-            }
-        }
-        
-        return child;
-    }
     
-    //Mutation operator
-    private void mutate(Chromosome chromosome) {
-        // Randomly select a few positions to mutate
-        int mutationPoints = random.nextInt(MAX_ACTIONS_SEQUENCE / 10) + 1; // Mutate 1-10% of the sequence
-        
-        for (int i = 0; i < mutationPoints; i++) {
-            int position = random.nextInt(MAX_ACTIONS_SEQUENCE);
-            int actionIndex = random.nextInt(MarioActions.numberOfActions());
-            
-            // Flip the action at the position
-            chromosome.sequence[position][actionIndex] = !chromosome.sequence[position][actionIndex];
+    // Add this field to the Agent class
+
+
+// Log the generations that every island finished since the last log
+private void logGenerations(int lastGeneration) {
+    if (loggedGenerations > lastGeneration) {
+        return;
+    }
+    // The rates are measured over all the generations of this log
+    long now = System.nanoTime();
+    long evaluated = evaluations.get();
+    int hits;
+    int misses;
+    synchronized (fitnessCache) {
+        hits = fitnessCache.getHits();
+        misses = fitnessCache.getMisses();
+    }
+    double evaluationsPerSecond = (evaluated - lastLogEvaluations) / Math.max(1e-9, (now - lastLogTime) / 1e9);
+    int lookups = hits - lastLogHits + misses - lastLogMisses;
+    double cacheHitRate = lookups > 0 ? (double) (hits - lastLogHits) / lookups : 0;
+    lastLogTime = now;
+    lastLogEvaluations = evaluated;
+    lastLogHits = hits;
+    lastLogMisses = misses;
+    for (; loggedGenerations <= lastGeneration; loggedGenerations++) {
+        recordGenerationStats(loggedGenerations);
+        generationEvaluationsPerSecond[loggedGenerations] = evaluationsPerSecond;
+        generationCacheHitRate[loggedGenerations] = cacheHitRate;
+        publishGeneration(loggedGenerations);
+    }
+}
+
+// The island with the best chromosome of a generation
+private Island getBestIsland(int generation) {
+    Island best = islands[0];
+    for (Island island : islands) {
+        if (island.bestFitness[generation] > best.bestFitness[generation]) {
+            best = island;
         }
     }
+    return best;
+}
 
-    
-    // Add this field to the Agent class
+// Total over the islands of the games a termination policy stopped in a generation
+private int getStoppedGames(int generation, int policy) {
+    int games = 0;
+    for (Island island : islands) {
+        games += island.stoppedGames[generation][policy];
+    }
+    return games;
+}
 
+// Total over the islands of the ticks a termination policy cut in a generation
+private long getTicksCut(int generation, int policy) {
+    long ticks = 0;
+    for (Island island : islands) {
+        ticks += island.ticksCut[generation][policy];
+    }
+    return ticks;
+}
 
 // Modify the recordGenerationStats method to also track average completion
 private void recordGenerationStats(int generation) {
     double totalFitness = 0.0;
     double totalCompletion = 0.0;
-    double bestFitness = population[0].fitness;
-    double bestCompletion = population[0].result.getCompletionPercentage();
-    
-    for (Chromosome c : population) {
-        totalFitness += c.fitness;
-        totalCompletion += c.result.getCompletionPercentage();
+    for (Island island : islands) {
+        totalFitness += island.totalFitness[generation];
+        totalCompletion += island.totalCompletion[generation];
     }
+    double bestFitness = getBestIsland(generation).bestFitness[generation];
     
     double avgFitness = totalFitness / POPULATION_SIZE;
     double avgCompletion = totalCompletion / POPULATION_SIZE;
@@ -419,94 +857,105 @@ private void recordGenerationStats(int generation) {
     generationBestFitness[generation] = bestFitness;
     generationAvgFitness[generation] = avgFitness;
     generationAvgCompletion[generation] = avgCompletion;
-    
-    System.out.println("Generation " + (generation + 1) + 
-                       " - Best: " + bestFitness +
-                       ", Avg: " + avgFitness +
-                       ", Best Completion: " + bestCompletion +
-                       ", Avg Completion: " + avgCompletion);
 }
 
-// Modify the initializeCSV method to include the completion columns
-private void initializeCSV() {
-    try (FileWriter writer = new FileWriter(CSV_FILE_PATH)) {
-        writer.append("Generation,BestFitness,AvgFitness,BestCompletion,AvgCompletion,RemainingTime,KillsTotal," +
-                      "CollectedMushrooms,CollectedCoins,GameStatus\n");
-    } catch (IOException e) {
-        System.err.println("Error creating CSV file: " + e.getMessage());
+// Open the CSV log and the console output of a run, they are written by their own threads
+private void openMetrics() {
+    if (csvPath != null) {
+        try {
+            csvSink = new MetricsSink(new File(csvPath), MetricsSink.CSV);
+        } catch (IOException e) {
+            System.err.println("Error creating CSV file: " + e.getMessage());
+        }
+    }
+    if (verbose) {
+        consoleSink = new MetricsSink(System.out, MetricsSink.TEXT, 1024);
     }
 }
 
-// Modify the logGenerationToCSV method to include the completion data
-private void logGenerationToCSV(int generation) {
-    try (FileWriter writer = new FileWriter(CSV_FILE_PATH, true)) {
-        // Find the best chromosome
-        Chromosome best = population[0];
-        MarioResult result = best.result;
-        
-        writer.append(String.format("%d,%f,%f,%f,%f,%d,%d,%d,%d,%s\n",
-            generation + 1,
-            generationBestFitness[generation],
-            generationAvgFitness[generation],
-            result.getCompletionPercentage(),
-            generationAvgCompletion[generation],
-            result.getRemainingTime(),
-            result.getKillsTotal(),
-            result.getNumCollectedMushrooms(),
-            result.getNumCollectedTileCoins(),
-            result.getGameStatus().toString()
-        ));
-    } catch (IOException e) {
-        System.err.println("Error writing to CSV file: " + e.getMessage());
+// Wait until the statistics of the run are written
+private void closeMetrics() {
+    if (csvSink != null) {
+        csvSink.close();
+        csvSink = null;
+    }
+    if (consoleSink != null) {
+        consoleSink.close();
+        consoleSink = null;
+    }
+}
+
+// Hand the statistics of a generation to the sinks, this never waits for their output
+private void publishGeneration(int generation) {
+    // Find the best chromosome
+    FitnessCache.Entry result = getBestIsland(generation).bestResult[generation];
+    metrics.setFitness(generation + 1, generationBestFitness[generation], generationAvgFitness[generation]);
+    metrics.setCompletion(result.getCompletionPercentage(), generationAvgCompletion[generation]);
+    metrics.setBestGame(result.getGameStatus(), result.getRemainingTime(), result.getKillsTotal(),
+                        result.getNumCollectedMushrooms(), result.getNumCollectedTileCoins());
+    for (int policy = 0; policy < 3; policy++) {
+        metrics.setEarlyStops(policy, getStoppedGames(generation, policy), getTicksCut(generation, policy));
+    }
+    metrics.setRates(generationEvaluationsPerSecond[generation], generationCacheHitRate[generation]);
+    if (csvSink != null) {
+        csvSink.offer(metrics);
+    }
+    if (consoleSink != null) {
+        consoleSink.offer(metrics);
+    }
+    for (MetricsSink sink : metricsSinks) {
+        sink.offer(metrics);
     }
 }
-    
     // Chromosome class representing a sequence of actions
     private static class Chromosome {
-        boolean[][] sequence; // Sequence of actions
+        ActionSequence sequence; // Sequence of actions, packed as bits
         double fitness = 0.0;
-        MarioResult result = null;
+        FitnessCache.Entry result = null;
         
         public Chromosome(int length) {
-            sequence = new boolean[length][MarioActions.numberOfActions()];
+            sequence = new ActionSequence(length);
         }
         
         public Chromosome(Chromosome other) {
             // Deep copy
-            sequence = new boolean[other.sequence.length][MarioActions.numberOfActions()];
-            for (int i = 0; i < other.sequence.length; i++) {
-                sequence[i] = Arrays.copyOf(other.sequence[i], other.sequence[i].length);
-            }
+            sequence = new ActionSequence(other.sequence.length());
+            copyFrom(other);
+        }
+        
+        // Overwrite this chromosome with another one of the same length without allocating
+        public void copyFrom(Chromosome other) {
+            sequence.copyFrom(other.sequence);
             fitness = other.fitness;
             result = other.result;
         }
         
         public void randomize(Random random) {
-            for (int i = 0; i < sequence.length; i++) {
-                for (int j = 0; j < sequence[i].length; j++) {
-                    sequence[i][j] = random.nextDouble() < 0.2; // 20% chance of action being true
+            for (int i = 0; i < sequence.length(); i++) {
+                for (int j = 0; j < MarioActions.numberOfActions(); j++) {
+                    sequence.set(i, j, random.nextDouble() < 0.2); // 20% chance of action being true
                 }
                 
                 // Don't press left and right at the same time
-                if (sequence[i][MarioActions.LEFT.getValue()] && sequence[i][MarioActions.RIGHT.getValue()]) {
-                    sequence[i][random.nextBoolean() ? MarioActions.LEFT.getValue() : MarioActions.RIGHT.getValue()] = false;
+                if (sequence.get(i, MarioActions.LEFT.getValue()) && sequence.get(i, MarioActions.RIGHT.getValue())) {
+                    sequence.set(i, random.nextBoolean() ? MarioActions.LEFT.getValue() : MarioActions.RIGHT.getValue(), false);
                 }
                 
                 // Higher chance of moving right
-                if (!sequence[i][MarioActions.LEFT.getValue()] && !sequence[i][MarioActions.RIGHT.getValue()] && !sequence[i][MarioActions.JUMP.getValue()]) {
-                    sequence[i][MarioActions.RIGHT.getValue()] = random.nextDouble() < 0.7; // 70% chance of moving right
+                if (!sequence.get(i, MarioActions.LEFT.getValue()) && !sequence.get(i, MarioActions.RIGHT.getValue()) && !sequence.get(i, MarioActions.JUMP.getValue())) {
+                    sequence.set(i, MarioActions.RIGHT.getValue(), random.nextDouble() < 0.7); // 70% chance of moving right
                 }
                 
                 // Occasionally create a high jump sequence
-                if (random.nextDouble() < 0.3 && i < sequence.length - 10) { // 5% chance, ensure enough space
+                if (random.nextDouble() < 0.3 && i < sequence.length() - 10) { // 5% chance, ensure enough space
                     int jumpDuration = random.nextInt(3) + 5; // Jump held for 5-7 frames
                     
                     for (int j = 0; j < jumpDuration; j++) {
-                        if (i + j < sequence.length) {
+                        if (i + j < sequence.length()) {
                             // Press jump and speed for multiple frames
-                            sequence[i + j][MarioActions.JUMP.getValue()] = true;
-                            sequence[i + j][MarioActions.SPEED.getValue()] = true;
-                            sequence[i + j][MarioActions.RIGHT.getValue()] = true; // Keep moving right while jumping
+                            sequence.set(i + j, MarioActions.JUMP.getValue(), true);
+                            sequence.set(i + j, MarioActions.SPEED.getValue(), true);
+                            sequence.set(i + j, MarioActions.RIGHT.getValue(), true); // Keep moving right while jumping
                         }
                     }
                     
@@ -527,13 +976,13 @@ private void logGenerationToCSV(int generation) {
             int holdFrames = random.nextInt(2) + 1; // Hold jump for 1-2 frames
             
             for (int j = 0; j < holdFrames; j++) {
-                sequence[position + j][MarioActions.JUMP.getValue()] = true;
-                sequence[position + j][MarioActions.RIGHT.getValue()] = true;
+                sequence.set(position + j, MarioActions.JUMP.getValue(), true);
+                sequence.set(position + j, MarioActions.RIGHT.getValue(), true);
             }
             
             // Continue moving right after releasing jump
             for (int j = holdFrames; j < holdFrames + 2; j++) {
-                sequence[position + j][MarioActions.RIGHT.getValue()] = true;
+                sequence.set(position + j, MarioActions.RIGHT.getValue(), true);
             }
         }
         else if (jumpStyle == 1) {
@@ -541,31 +990,421 @@ private void logGenerationToCSV(int generation) {
             int holdFrames = random.nextInt(2) + 3; // Hold jump for 3-4 frames
             
             for (int j = 0; j < holdFrames; j++) {
-                sequence[position + j][MarioActions.JUMP.getValue()] = true;
-                sequence[position + j][MarioActions.RIGHT.getValue()] = true;
+                sequence.set(position + j, MarioActions.JUMP.getValue(), true);
+                sequence.set(position + j, MarioActions.RIGHT.getValue(), true);
             }
         }
         else {
             // Delayed jump (run a bit first)
             for (int j = 0; j < 2; j++) {
-                sequence[position + j][MarioActions.RIGHT.getValue()] = true;
+                sequence.set(position + j, MarioActions.RIGHT.getValue(), true);
             }
             
             for (int j = 2; j < 5; j++) {
-                sequence[position + j][MarioActions.JUMP.getValue()] = true;
-                sequence[position + j][MarioActions.RIGHT.getValue()] = true;
+                sequence.set(position + j, MarioActions.JUMP.getValue(), true);
+                sequence.set(position + j, MarioActions.RIGHT.getValue(), true);
             }
         }
     }
         }
     }
     
+    // A population that evolves on its own thread, it only meets the other islands at migrations
+    private class Island {
+        private Chromosome[] population;
+        private Chromosome[] nextPopulation; // Reused for the offspring of each generation
+        private LcgRandom random;
+        private int generation = 0;
+        private double tournamentThreshold = Double.NEGATIVE_INFINITY;
+        
+        // Statistics of each generation, they are combined over the islands in the log
+        private double[] bestFitness = new double[MAX_GENERATIONS];
+        private FitnessCache.Entry[] bestResult = new FitnessCache.Entry[MAX_GENERATIONS];
+        private double[] totalFitness = new double[MAX_GENERATIONS];
+        private double[] totalCompletion = new double[MAX_GENERATIONS];
+        private int[][] stoppedGames = new int[MAX_GENERATIONS][3]; // Games each policy stopped
+        private long[][] ticksCut = new long[MAX_GENERATIONS][3]; // Ticks that were left on the game timer when they stopped
+        
+        public Island(int size, LcgRandom random) {
+            this.random = random;
+            population = new Chromosome[size];
+            nextPopulation = new Chromosome[size];
+            for (int i = 0; i < size; i++) {
+                population[i] = new Chromosome(MAX_ACTIONS_SEQUENCE);
+                nextPopulation[i] = new Chromosome(MAX_ACTIONS_SEQUENCE);
+            }
+        }
+        
+        // Write the evaluated population and the statistics up to the given generation
+        private void write(DataOutputStream out, int lastGeneration) throws IOException {
+            out.writeLong(random.getState());
+            out.writeDouble(tournamentThreshold);
+            for (Chromosome chromosome : population) {
+                for (long word : chromosome.sequence.getWords()) {
+                    out.writeLong(word);
+                }
+                chromosome.result.write(out);
+            }
+            for (int gen = 0; gen <= lastGeneration; gen++) {
+                out.writeDouble(bestFitness[gen]);
+                bestResult[gen].write(out);
+                out.writeDouble(totalFitness[gen]);
+                out.writeDouble(totalCompletion[gen]);
+                for (int policy = 0; policy < 3; policy++) {
+                    out.writeInt(stoppedGames[gen][policy]);
+                    out.writeLong(ticksCut[gen][policy]);
+                }
+            }
+        }
+        
+        private void read(DataInputStream in, int lastGeneration) throws IOException {
+            random = new LcgRandom();
+            random.setState(in.readLong());
+            tournamentThreshold = in.readDouble();
+            for (Chromosome chromosome : population) {
+                long[] words = chromosome.sequence.getWords();
+                for (int i = 0; i < words.length; i++) {
+                    words[i] = in.readLong();
+                }
+                chromosome.result = FitnessCache.Entry.read(in);
+                chromosome.fitness = chromosome.result.getFitness();
+            }
+            for (int gen = 0; gen <= lastGeneration; gen++) {
+                bestFitness[gen] = in.readDouble();
+                bestResult[gen] = FitnessCache.Entry.read(in);
+                totalFitness[gen] = in.readDouble();
+                totalCompletion[gen] = in.readDouble();
+                for (int policy = 0; policy < 3; policy++) {
+                    stoppedGames[gen][policy] = in.readInt();
+                    ticksCut[gen][policy] = in.readLong();
+                }
+            }
+            generation = lastGeneration;
+        }
+        
+        public void evolve(String levelContent) {
+            if (startGeneration == 0) {
+                tournamentThreshold = Double.NEGATIVE_INFINITY;
+            } else {
+                // The checkpoint was written before the children of its generation were made
+                reproduce();
+            }
+            for (int gen = startGeneration; gen < MAX_GENERATIONS; gen++) {
+                // Evaluate fitness of each chromosome by actually playing the game
+                evaluatePopulation(levelContent, gen);
+                
+                // Sort population by fitness (descending)
+                sortPopulation();
+                
+                // Chromosomes below the median rarely win a tournament, the next generation stops
+                // playing games that can't reach it anymore
+                if (fitnessBoundPruning) {
+                    tournamentThreshold = population[population.length / 2].fitness;
+                }
+                
+                // Record statistics
+                bestFitness[gen] = population[0].fitness;
+                bestResult[gen] = population[0].result;
+                totalFitness[gen] = 0;
+                totalCompletion[gen] = 0;
+                for (Chromosome c : population) {
+                    totalFitness[gen] += c.fitness;
+                    totalCompletion[gen] += c.result.getCompletionPercentage();
+                }
+                generation = gen;
+                finishGeneration(gen, levelContent);
+                
+                //ensureDiversity();
+                
+                if (gen + 1 < MAX_GENERATIONS) {
+                    reproduce();
+                }
+            }
+            sortPopulation();
+        }
+        
+        public void sortPopulation() {
+            Arrays.sort(population, Comparator.comparing((Chromosome c) -> c.fitness).reversed());
+        }
+        
+        // Create new population through selection, crossover, and mutation,
+        // the children overwrite the chromosomes of the previous generation
+        private void reproduce() {
+            Chromosome[] newPopulation = nextPopulation;
+            
+            // Elitism: Keep the best chromosome
+            newPopulation[0].copyFrom(population[0]);
+            
+            // Generate the rest of the population
+            for (int i = 1; i < newPopulation.length; i++) {
+                // Selection
+                Chromosome parent1 = tournamentSelection();
+                Chromosome parent2 = tournamentSelection();
+                
+                // Crossover
+                Chromosome child = newPopulation[i];
+                if (random.nextDouble() < CROSSOVER_RATE) {
+                    uniformCrossover(parent1, parent2, child);
+                } else {
+                    child.copyFrom(parent1); // Just copy parent1
+                }
+                // if (random.nextDouble() < CROSSOVER_RATE) {
+                //     child = jumpAwareCrossover(parent1, parent2);
+                // } else {
+                //     child = new Chromosome(parent1); // Just copy parent1
+                // }
+                
+                // Mutation
+                if (random.nextDouble() < MUTATION_RATE) {
+                    mutate(child);
+                }
+            }
+            
+            // Replace old population
+            nextPopulation = population;
+            population = newPopulation;
+        }
+        
+        // Evaluate the fitness of each chromosome in the population
+        private void evaluatePopulation(String levelContent, int gen) {
+            long levelId = FitnessCache.getLevelId(levelContent, ChromosomeEvaluator.GAME_TIMER, 0, stallTicks);
+            ArrayList<MarioBatchRunner.Job> jobs = new ArrayList<>();
+            ArrayList<Chromosome> played = new ArrayList<>();
+            ArrayList<ChromosomeEvaluator.EarlyStop> stops = new ArrayList<>();
+            ArrayList<CompletableFuture<EvaluationFarm.ChromosomeResult>> farmResults = new ArrayList<>();
+            int horizon = getHorizon(gen);
+            for (Chromosome chromosome : population) {
+                // Elites and unchanged copies reuse the evaluation of the same actions
+                if (loadCachedResult(levelId, chromosome)) {
+                    continue;
+                }
+                if (evaluationFarm != null) {
+                    played.add(chromosome);
+                    farmResults.add(evaluationFarm.submit(farmLevel, chromosome.sequence, horizon, tournamentThreshold));
+                    continue;
+                }
+                ChromosomeEvaluator.EarlyStop stop = evaluator.new EarlyStop(horizon, tournamentThreshold);
+                played.add(chromosome);
+                stops.add(stop);
+                jobs.add(evaluator.newJob(chromosome.sequence, stop));
+            }
+            // The farm splits the games into batches for its workers
+            for (int i = 0; i < farmResults.size(); i++) {
+                gamesPlayed.incrementAndGet();
+                recordResult(levelId, gen, played.get(i), EvaluationFarm.await(farmResults.get(i)));
+            }
+            // Each game is scheduled on its own so short games don't leave threads idle, the
+            // games of all the islands share the threads of the batch runner
+            // The jobs are replays, they only keep the result counters whatever the retention of the
+            // runner is, so a runner shared with other users keeps its setting
+            MarioResult[] results = getBatchRunner().run(jobs);
+            // The results go into the fitness cache in population order, not in the order the
+            // games finished, so the cache evicts the same entries on every run
+            for (int i = 0; i < results.length; i++) {
+                setResult(levelId, gen, played.get(i), stops.get(i), results[i]);
+            }
+
+        }
+        
+        // Use the cached evaluation of the chromosome actions if there is one
+        private boolean loadCachedResult(long levelId, Chromosome chromosome) {
+            evaluations.incrementAndGet();
+            FitnessCache.Entry cached;
+            synchronized (fitnessCache) {
+                cached = fitnessCache.get(levelId, chromosome.sequence);
+            }
+            if (cached == null) {
+                return false;
+            }
+            chromosome.fitness = cached.getFitness();
+            chromosome.result = cached;
+            return true;
+        }
+        
+        // Set the fitness of a chromosome from the game it played, result is null if its actions ran out
+        private void setResult(long levelId, int gen, Chromosome chromosome, ChromosomeEvaluator.EarlyStop stop,
+                               MarioResult result) {
+            gamesPlayed.incrementAndGet();
+            recordResult(levelId, gen, chromosome, evaluator.score(chromosome.sequence, stop, result));
+        }
+        
+        // Set the fitness of a chromosome from its evaluation, played here or on a farm worker
+        private void recordResult(long levelId, int gen, Chromosome chromosome, EvaluationFarm.ChromosomeResult evaluation) {
+            FitnessCache.Entry entry = evaluation.getEntry();
+            chromosome.fitness = entry.getFitness();
+            chromosome.result = entry;
+            int policy = evaluation.getPolicy();
+            if (entry.getGameStatus() == GameStatus.RUNNING && policy >= 0) {
+                synchronized (this) {
+                    stoppedGames[gen][policy]++;
+                    ticksCut[gen][policy] += (entry.getRemainingTime() + 29) / 30;
+                }
+            }
+            // The game only read the actions up to the tick it ended, stalls depend on nothing else
+            // but the other policies change between generations
+            boolean cacheable = entry.getGameStatus() != GameStatus.RUNNING || policy == ChromosomeEvaluator.STOP_STALL;
+            if (cacheable && evaluation.getSteps() <= chromosome.sequence.length()) {
+                synchronized (fitnessCache) {
+                    fitnessCache.put(levelId, chromosome.sequence, evaluation.getSteps(), entry);
+                }
+            }
+        }
+        
+        // Steady state evolution with the same number of evaluations as the generational EA, every
+        // population size children that are evaluated count as a generation in the log
+        public void evolveSteadyState(String levelContent, int threads) {
+            long levelId = FitnessCache.getLevelId(levelContent, ChromosomeEvaluator.GAME_TIMER, 0, stallTicks);
+            tournamentThreshold = Double.NEGATIVE_INFINITY;
+            evaluatePopulation(levelContent, 0);
+            recordStats(0);
+            
+            AtomicInteger started = new AtomicInteger(population.length);
+            AtomicInteger finished = new AtomicInteger(0);
+            int total = population.length * MAX_GENERATIONS;
+            ExecutorService pool = Executors.newFixedThreadPool(threads);
+            try {
+                List<Future<?>> workers = new ArrayList<>();
+                for (int t = 0; t < threads; t++) {
+                    workers.add(pool.submit(() -> {
+                        Chromosome child = new Chromosome(MAX_ACTIONS_SEQUENCE);
+                        int index;
+                        while ((index = started.getAndIncrement()) < total) {
+                            int gen = index / population.length;
+                            ChromosomeEvaluator.EarlyStop stop;
+                            synchronized (this) {
+                                breed(child);
+                                stop = evaluator.new EarlyStop(getHorizon(gen), tournamentThreshold);
+                            }
+                            if (!loadCachedResult(levelId, child)) {
+                                if (evaluationFarm != null) {
+                                    // The worker thread waits for a farm worker instead of playing the game
+                                    gamesPlayed.incrementAndGet();
+                                    recordResult(levelId, gen, child, EvaluationFarm.await(
+                                            evaluationFarm.submit(farmLevel, child.sequence, stop.getHorizon(), stop.getThreshold())));
+                                } else {
+                                    MarioResult result = evaluator.getReplay().play(child.sequence.getWords(), child.sequence.length(), stop);
+                                    setResult(levelId, gen, child, stop, result);
+                                }
+                            }
+                            synchronized (this) {
+                                insert(child);
+                                if (finished.incrementAndGet() % population.length == 0) {
+                                    recordStats(finished.get() / population.length);
+                                }
+                            }
+                        }
+                    }));
+                }
+                for (Future<?> worker : workers) {
+                    worker.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Steady state evolution was interrupted", e);
+            } catch (ExecutionException e) {
+                throw new RuntimeException("Steady state evolution failed", e.getCause());
+            } finally {
+                pool.shutdown();
+            }
+            sortPopulation();
+        }
+        
+        // Statistics of the population at the end of a generation, steady state mode only
+        private void recordStats(int gen) {
+            double[] fitness = new double[population.length];
+            Chromosome best = population[0];
+            totalFitness[gen] = 0;
+            totalCompletion[gen] = 0;
+            for (int i = 0; i < population.length; i++) {
+                Chromosome c = population[i];
+                fitness[i] = c.fitness;
+                totalFitness[gen] += c.fitness;
+                totalCompletion[gen] += c.result.getCompletionPercentage();
+                if (c.fitness > best.fitness) {
+                    best = c;
+                }
+            }
+            bestFitness[gen] = best.fitness;
+            bestResult[gen] = best.result;
+            // Chromosomes below the median rarely win a tournament
+            if (fitnessBoundPruning) {
+                Arrays.sort(fitness);
+                tournamentThreshold = fitness[(fitness.length - 1) / 2];
+            }
+            logGenerations(gen);
+        }
+        
+        // Make a child from two parents of the current population
+        private void breed(Chromosome child) {
+            Chromosome parent1 = tournamentSelection();
+            Chromosome parent2 = tournamentSelection();
+            if (random.nextDouble() < CROSSOVER_RATE) {
+                uniformCrossover(parent1, parent2, child);
+            } else {
+                child.copyFrom(parent1);
+            }
+            if (random.nextDouble() < MUTATION_RATE) {
+                mutate(child);
+            }
+        }
+        
+        // Tournament replacement, the child takes the place of the worst contender if it is better
+        private void insert(Chromosome child) {
+            Chromosome worst = population[random.nextInt(population.length)];
+            for (int i = 1; i < TOURNAMENT_SIZE; i++) {
+                Chromosome contender = population[random.nextInt(population.length)];
+                if (contender.fitness < worst.fitness) {
+                    worst = contender;
+                }
+            }
+            if (child.fitness > worst.fitness) {
+                worst.copyFrom(child);
+            }
+        }
+        
+        // Tournament selection
+        private Chromosome tournamentSelection() {
+            Chromosome best = population[random.nextInt(population.length)];
+            
+            for (int i = 1; i < TOURNAMENT_SIZE; i++) {
+                Chromosome contender = population[random.nextInt(population.length)];
+                if (contender.fitness > best.fitness) {
+                    best = contender;
+                }
+            }
+            
+            return best;
+        }
+        
+        // Uniform crossover into an existing child
+        private void uniformCrossover(Chromosome parent1, Chromosome parent2, Chromosome child) {
+            // For each position, randomly choose from either parent, a whole word of positions at a time
+            child.sequence.uniformCrossover(parent1.sequence, parent2.sequence, random);
+            child.fitness = 0.0;
+            child.result = null;
+        }
+        
+        //Mutation operator
+        private void mutate(Chromosome chromosome) {
+            // Randomly select a few positions to mutate
+            int mutationPoints = random.nextInt(MAX_ACTIONS_SEQUENCE / 10) + 1; // Mutate 1-10% of the sequence
+            
+            for (int i = 0; i < mutationPoints; i++) {
+                int position = random.nextInt(MAX_ACTIONS_SEQUENCE);
+                int actionIndex = random.nextInt(MarioActions.numberOfActions());
+                
+                // Flip the action at the position
+                chromosome.sequence.flip(position, actionIndex);
+            }
+        }
+    }
+    
     // Agent that runs a predefined sequence of actions
-    private static class EARunnerAgent implements MarioAgent {
-        private boolean[][] actionSequence;
+    static class EARunnerAgent implements MarioAgent {
+        private ActionSequence actionSequence;
         private int currentAction = 0;
         
-        public EARunnerAgent(boolean[][] actionSequence) {
+        public EARunnerAgent(ActionSequence actionSequence) {
             this.actionSequence = actionSequence;
         }
         
@@ -576,8 +1415,8 @@ private void logGenerationToCSV(int generation) {
         
         @Override
         public boolean[] getActions(MarioForwardModel model, MarioTimer timer) {
-            if (currentAction < actionSequence.length) {
-                return actionSequence[currentAction++];
+            if (currentAction < actionSequence.length()) {
+                return actionSequence.getActions(currentAction++);
             }
             // If we reach the end of the sequence, return default action (move right)
             boolean[] defaultAction = new boolean[MarioActions.numberOfActions()];
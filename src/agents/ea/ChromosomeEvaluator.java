@@ -0,0 +1,231 @@
+package agents.ea;
+
+import engine.core.MarioBatchRunner;
+import engine.core.MarioGame;
+import engine.core.MarioLevel;
+import engine.core.MarioReplay;
+import engine.core.MarioResult;
+import engine.helper.EventRetention;
+import engine.helper.GameStatus;
+
+/**
+ * Plays the action sequences of Agent chromosomes on one level and scores them. It
+ * keeps the replay checkpoints of the level and the settings of the early
+ * termination, so an Agent and the workers of an EvaluationFarm score the same
+ * sequence the same way. It can be used by several threads at the same time.
+ */
+class ChromosomeEvaluator {
+    /**
+     * seconds of each evaluation game
+     */
+    static final int GAME_TIMER = 20;
+    /**
+     * early termination policies, they are also the indexes of the stop counters of the agent
+     */
+    static final int STOP_STALL = 0;
+    static final int STOP_FITNESS_BOUND = 1;
+    static final int STOP_HORIZON = 2;
+    /**
+     * estimated bytes of the replay checkpoints of one level, a checkpoint of the original
+     * levels is estimated at 2.5-4 KB and measured at 1.5-2 KB, so this keeps about 20000
+     * of them in 30-40 MB of heap
+     */
+    static final long CHECKPOINT_MEMORY = 64L << 20;
+    // game steps between two replay checkpoints
+    private static final int CHECKPOINT_INTERVAL = 25;
+    // pixels per tick, running speed approaches 1.2 / (1 - 0.89)
+    private static final float MAX_MARIO_SPEED = 11;
+
+    /**
+     * Ends an evaluation game before the game is over and remembers which policy did it
+     */
+    class EarlyStop implements MarioReplay.StopCondition {
+        private int horizon;
+        private double threshold;
+        private int policy = -1;
+
+        /**
+         * @param horizon   the ticks that are played, 0 for the full game
+         * @param threshold the fitness the game has to be able to reach to keep playing
+         */
+        EarlyStop(int horizon, double threshold) {
+            this.horizon = horizon;
+            this.threshold = threshold;
+        }
+
+        @Override
+        public boolean shouldStop(MarioResult state) {
+            if (stallTicks > 0 && state.getTicksWithoutProgress() >= stallTicks) {
+                this.policy = STOP_STALL;
+            } else if (this.horizon > 0 && state.getNumAgentSteps() >= this.horizon) {
+                this.policy = STOP_HORIZON;
+            } else if (getFitnessUpperBound(state) < this.threshold) {
+                this.policy = STOP_FITNESS_BOUND;
+            }
+            return this.policy >= 0;
+        }
+
+        int getHorizon() {
+            return this.horizon;
+        }
+
+        double getThreshold() {
+            return this.threshold;
+        }
+
+        int getPolicy() {
+            return this.policy;
+        }
+    }
+
+    private String levelContent;
+    private int stallTicks;
+    private MarioReplay replay;
+    private float levelExitX;
+    private float maxCompletion;
+
+    /**
+     * Create an evaluator for a level
+     *
+     * @param levelContent     the level string
+     * @param stallTicks       the ticks without progress that stop a game, 0 if games are never stopped
+     * @param checkpointMemory the estimated bytes of heap for the replay checkpoints
+     */
+    ChromosomeEvaluator(String levelContent, int stallTicks, long checkpointMemory) {
+        this.levelContent = levelContent;
+        this.stallTicks = stallTicks;
+        this.replay = new MarioReplay(levelContent, GAME_TIMER, 0, CHECKPOINT_INTERVAL, Integer.MAX_VALUE, checkpointMemory);
+        this.levelExitX = new MarioLevel(levelContent, false).exitTileX * 16;
+        // Mario.x is set back to the exit on a win, one tick at full speed past it is a margin
+        // so the bound stays above the completion of any win
+        this.maxCompletion = (this.levelExitX + MAX_MARIO_SPEED) / this.levelExitX;
+    }
+
+    /**
+     * get the replay that plays the sequences, it has the statistics of the checkpoints
+     *
+     * @return the replay of the level
+     */
+    MarioReplay getReplay() {
+        return this.replay;
+    }
+
+    /**
+     * Create the job that plays a sequence on a batch runner, resuming from the latest
+     * checkpoint of an earlier sequence with the same first actions. Its result goes
+     * to score.
+     *
+     * @param sequence the actions of the chromosome
+     * @param stop     the early termination of the game
+     * @return the job for the batch runner
+     */
+    MarioBatchRunner.Job newJob(ActionSequence sequence, EarlyStop stop) {
+        return new MarioBatchRunner.Job(this.replay, sequence.getWords(), sequence.length(), stop);
+    }
+
+    /**
+     * Play a sequence on the calling thread and score it
+     *
+     * @param sequence  the actions of the chromosome
+     * @param horizon   the ticks that are played, 0 for the full game
+     * @param threshold the fitness the game has to be able to reach to keep playing
+     * @return the evaluation of the sequence
+     */
+    EvaluationFarm.ChromosomeResult evaluate(ActionSequence sequence, int horizon, double threshold) {
+        EarlyStop stop = new EarlyStop(horizon, threshold);
+        return this.score(sequence, stop, this.replay.play(sequence.getWords(), sequence.length(), stop));
+    }
+
+    /**
+     * Score the game of a sequence
+     *
+     * @param sequence the actions of the chromosome
+     * @param stop     the early termination the game was played with
+     * @param result   the result of the replay, null if the sequence ran out before the game ended
+     * @return the evaluation of the sequence
+     */
+    EvaluationFarm.ChromosomeResult score(ActionSequence sequence, EarlyStop stop, MarioResult result) {
+        if (result == null) {
+            // the runner agent moves randomly after the end of the sequence
+            MarioGame game = new MarioGame();
+            game.setEventRetention(EventRetention.COUNTERS_ONLY);
+            result = game.runGame(new Agent.EARunnerAgent(sequence), this.levelContent, GAME_TIMER, 0);
+        }
+        return new EvaluationFarm.ChromosomeResult(new FitnessCache.Entry(calculateFitness(result), result),
+                result.getNumAgentSteps(), stop.getPolicy());
+    }
+
+    // Highest fitness a running game can still reach, assuming mario runs right at full speed
+    // and gets a kill, a mushroom and a coin on every tick left
+    private double getFitnessUpperBound(MarioResult state) {
+        if (state.getRemainingTime() < 0) {
+            return Double.POSITIVE_INFINITY;
+        }
+        int ticksLeft = (state.getRemainingTime() + 29) / 30;
+        double extra_score = (state.getKillsTotal() + ticksLeft) * 1.5 + (state.getNumCollectedMushrooms() + ticksLeft) * 1.5 +
+                (state.getCurrentCoins() + ticksLeft) * 1.25 - state.getMarioNumHurts() * 3;
+        float completion = state.getCompletionPercentage() + ticksLeft * MAX_MARIO_SPEED / this.levelExitX;
+        if (completion >= 1) {
+            // The game can still be won
+            return (getCompletionScore(this.maxCompletion) + (state.getRemainingTime() / 1000) * 20 * 2 + extra_score) * 2;
+        }
+        return (getCompletionScore(completion) + extra_score) / 2;
+    }
+
+    // Calculate fitness based on the given criteria
+    private static double calculateFitness(MarioResult result) {
+        double fitness = 0.0;
+        double complete_score = 0.0;
+        double time_score = 0.0;
+        double kill_score = 0.0;
+        double coin_score = 0.0;
+        double mushroom_score = 0.0;
+        double hit_score = 0.0;
+        double game_win = 0.0;
+
+        if (result.getGameStatus() == GameStatus.WIN) {
+            game_win = 2;
+        }
+
+        // Completion percentage - most important
+        complete_score += getCompletionScore(result.getCompletionPercentage());
+
+        // Time remaining - important
+        time_score += (result.getRemainingTime() / 1000) * 20 * game_win;
+
+        // Kills - medium importance
+        kill_score += result.getKillsTotal() * 1.5;
+
+        hit_score += result.getMarioNumHurts() * 3;
+
+        // Mushrooms - medium-high importance
+        mushroom_score += result.getNumCollectedMushrooms() * 1.5;
+
+        // Coins - medium importance
+        coin_score += result.getCurrentCoins() * 1.25;
+
+        fitness += complete_score + time_score + kill_score + mushroom_score + coin_score - hit_score;
+
+        if (game_win == 2) {
+            fitness *= 2;
+        } else {
+            fitness /= 2;
+        }
+
+        return fitness;
+    }
+
+    // Score of the completion percentage, it only grows with the completion
+    private static double getCompletionScore(float completion) {
+        double complete_score = completion * 4000;
+
+        if (completion > 0.7) {
+            complete_score *= 1.75;
+        } else if (completion > 0.5) {
+            complete_score *= 1.5;
+        } else {
+            complete_score *= 0.5;
+        }
+        return complete_score;
+    }
+}
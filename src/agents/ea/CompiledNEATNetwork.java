@@ -0,0 +1,363 @@
+package agents.ea;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.encog.engine.network.activation.ActivationBipolarSteepenedSigmoid;
+import org.encog.engine.network.activation.ActivationClippedLinear;
+import org.encog.engine.network.activation.ActivationElliott;
+import org.encog.engine.network.activation.ActivationElliottSymmetric;
+import org.encog.engine.network.activation.ActivationFunction;
+import org.encog.engine.network.activation.ActivationLinear;
+import org.encog.engine.network.activation.ActivationReLU;
+import org.encog.engine.network.activation.ActivationSigmoid;
+import org.encog.engine.network.activation.ActivationSteepenedSigmoid;
+import org.encog.engine.network.activation.ActivationTANH;
+import org.encog.neural.neat.NEATLink;
+import org.encog.neural.neat.NEATNetwork;
+
+/**
+ * A NEAT network compiled into flat arrays that computes the same outputs as
+ * NEATNetwork.compute without allocating. Encog updates all the neurons at the
+ * same time for a fixed number of cycles, and the bias and input neurons never
+ * change during a compute. So the sums of the links that leave them are added
+ * once per compute, going through the inputs that aren't zero only, and every
+ * cycle adds the links between the other neurons. The sums are added in the
+ * order of Encog, so the outputs are exactly the same. An instance owns its
+ * buffers and can only be used by one thread at a time. A compiled network can
+ * be written to a stream and read back, the activation functions are written as
+ * ids of the Encog functions in ACTIVATION_TYPES with their parameters.
+ */
+public class CompiledNEATNetwork {
+    // the activation functions that can be written, the id of a function is its index
+    private static final Class<?>[] ACTIVATION_TYPES = new Class<?>[]{
+            ActivationSteepenedSigmoid.class, ActivationSigmoid.class, ActivationTANH.class, ActivationLinear.class,
+            ActivationClippedLinear.class, ActivationReLU.class, ActivationElliott.class,
+            ActivationElliottSymmetric.class, ActivationBipolarSteepenedSigmoid.class
+    };
+    // largest array that is read, so a broken stream can't allocate the whole heap
+    private static final int MAX_LENGTH = 1 << 24;
+
+    private int inputCount;
+    private int outputCount;
+    private int outputIndex;
+    private int cycles;
+    private ActivationFunction[] activationFunctions;
+    // links that leave each bias and input neuron, the links of neuron n are at sourceStart[n] to sourceStart[n + 1]
+    private int[] sourceStart;
+    private int[] sourceTo;
+    private double[] sourceWeight;
+    // every other link in the order of the network
+    private int[] linkFrom;
+    private int[] linkTo;
+    private double[] linkWeight;
+    private double[] inputSums;
+    private double[] preActivation;
+    private double[] postActivation;
+    private double[] outputs;
+
+    /**
+     * Compile a network
+     *
+     * @param network the decoded network, it isn't changed or kept
+     */
+    public CompiledNEATNetwork(NEATNetwork network) {
+        this.inputCount = network.getInputCount();
+        this.outputCount = network.getOutputCount();
+        this.outputIndex = network.getOutputIndex();
+        this.cycles = network.getActivationCycles();
+        this.activationFunctions = network.getActivationFunctions().clone();
+        int neurons = network.getPreActivation().length;
+        this.inputSums = new double[neurons];
+        this.preActivation = new double[neurons];
+        this.postActivation = new double[neurons];
+        this.outputs = new double[this.outputCount];
+
+        NEATLink[] links = network.getLinks();
+        boolean separable = this.hasSourcesFirst(links, neurons);
+        int sourceLinks = 0;
+        this.sourceStart = new int[this.outputIndex + 1];
+        if (separable) {
+            for (NEATLink link : links) {
+                if (link.getFromNeuron() < this.outputIndex) {
+                    this.sourceStart[link.getFromNeuron() + 1]++;
+                    sourceLinks++;
+                }
+            }
+            for (int n = 0; n < this.outputIndex; n++) {
+                this.sourceStart[n + 1] += this.sourceStart[n];
+            }
+        }
+        this.sourceTo = new int[sourceLinks];
+        this.sourceWeight = new double[sourceLinks];
+        this.linkFrom = new int[links.length - sourceLinks];
+        this.linkTo = new int[this.linkFrom.length];
+        this.linkWeight = new double[this.linkFrom.length];
+        int[] next = Arrays.copyOf(this.sourceStart, this.outputIndex);
+        int index = 0;
+        for (NEATLink link : links) {
+            if (separable && link.getFromNeuron() < this.outputIndex) {
+                int slot = next[link.getFromNeuron()]++;
+                this.sourceTo[slot] = link.getToNeuron();
+                this.sourceWeight[slot] = link.getWeight();
+            } else {
+                this.linkFrom[index] = link.getFromNeuron();
+                this.linkTo[index] = link.getToNeuron();
+                this.linkWeight[index] = link.getWeight();
+                index++;
+            }
+        }
+    }
+
+    private CompiledNEATNetwork() {
+    }
+
+    /**
+     * Get a network that shares the compiled links of this one and has its own buffers,
+     * so the two can compute on different threads
+     *
+     * @return the copy
+     */
+    public CompiledNEATNetwork copy() {
+        CompiledNEATNetwork network = new CompiledNEATNetwork();
+        network.inputCount = this.inputCount;
+        network.outputCount = this.outputCount;
+        network.outputIndex = this.outputIndex;
+        network.cycles = this.cycles;
+        network.activationFunctions = this.activationFunctions;
+        network.sourceStart = this.sourceStart;
+        network.sourceTo = this.sourceTo;
+        network.sourceWeight = this.sourceWeight;
+        network.linkFrom = this.linkFrom;
+        network.linkTo = this.linkTo;
+        network.linkWeight = this.linkWeight;
+        network.inputSums = new double[this.inputSums.length];
+        network.preActivation = new double[this.preActivation.length];
+        network.postActivation = new double[this.postActivation.length];
+        network.outputs = new double[this.outputs.length];
+        return network;
+    }
+
+    /**
+     * Write the network, it can be read by read
+     *
+     * @param out the stream to write to
+     * @throws IOException if writing fails
+     * @throws IllegalArgumentException if an activation function isn't in ACTIVATION_TYPES
+     */
+    public void write(DataOutput out) throws IOException {
+        out.writeInt(this.inputCount);
+        out.writeInt(this.outputCount);
+        out.writeInt(this.cycles);
+        out.writeInt(this.activationFunctions.length);
+        for (ActivationFunction function : this.activationFunctions) {
+            out.writeByte(getActivationId(function));
+            double[] params = function.getParams();
+            out.writeByte(params.length);
+            for (double param : params) {
+                out.writeDouble(param);
+            }
+        }
+        writeInts(out, this.sourceStart);
+        writeInts(out, this.sourceTo);
+        writeDoubles(out, this.sourceWeight);
+        writeInts(out, this.linkFrom);
+        writeInts(out, this.linkTo);
+        writeDoubles(out, this.linkWeight);
+    }
+
+    /**
+     * Read a network that was written by write. Every index is checked, so a
+     * network read from an untrusted stream can't compute out of its arrays.
+     *
+     * @param in the stream to read from
+     * @return the network
+     * @throws IOException if reading fails or the data isn't a valid network
+     */
+    public static CompiledNEATNetwork read(DataInput in) throws IOException {
+        CompiledNEATNetwork network = new CompiledNEATNetwork();
+        network.inputCount = in.readInt();
+        network.outputCount = in.readInt();
+        network.cycles = in.readInt();
+        network.outputIndex = network.inputCount + 1;
+        int neurons = readLength(in);
+        if (network.inputCount < 0 || network.outputCount < 0 || network.cycles < 0 ||
+                network.outputIndex + network.outputCount > neurons) {
+            throw new IOException("Invalid network size");
+        }
+        network.activationFunctions = new ActivationFunction[neurons];
+        for (int n = 0; n < neurons; n++) {
+            network.activationFunctions[n] = readActivationFunction(in);
+        }
+        network.sourceStart = readInts(in);
+        network.sourceTo = readInts(in);
+        network.sourceWeight = readDoubles(in);
+        network.linkFrom = readInts(in);
+        network.linkTo = readInts(in);
+        network.linkWeight = readDoubles(in);
+        if (network.sourceStart.length != network.outputIndex + 1 || network.sourceStart[0] != 0 ||
+                network.sourceStart[network.outputIndex] != network.sourceTo.length ||
+                network.sourceWeight.length != network.sourceTo.length ||
+                network.linkTo.length != network.linkFrom.length || network.linkWeight.length != network.linkFrom.length) {
+            throw new IOException("Invalid network links");
+        }
+        for (int n = 0; n < network.outputIndex; n++) {
+            if (network.sourceStart[n] > network.sourceStart[n + 1]) {
+                throw new IOException("Invalid network links");
+            }
+        }
+        checkIndexes(network.sourceTo, network.outputIndex, neurons);
+        checkIndexes(network.linkFrom, 0, neurons);
+        checkIndexes(network.linkTo, network.outputIndex, neurons);
+        network.inputSums = new double[neurons];
+        network.preActivation = new double[neurons];
+        network.postActivation = new double[neurons];
+        network.outputs = new double[network.outputCount];
+        return network;
+    }
+
+    private static int getActivationId(ActivationFunction function) {
+        for (int id = 0; id < ACTIVATION_TYPES.length; id++) {
+            if (function.getClass() == ACTIVATION_TYPES[id]) {
+                return id;
+            }
+        }
+        throw new IllegalArgumentException("Activation function can't be written: " + function.getClass().getName());
+    }
+
+    private static ActivationFunction readActivationFunction(DataInput in) throws IOException {
+        int id = in.readUnsignedByte();
+        if (id >= ACTIVATION_TYPES.length) {
+            throw new IOException("Unknown activation function: " + id);
+        }
+        ActivationFunction function;
+        try {
+            function = (ActivationFunction) ACTIVATION_TYPES[id].getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IOException("Activation function can't be created: " + ACTIVATION_TYPES[id].getName(), e);
+        }
+        int params = in.readUnsignedByte();
+        if (params != function.getParams().length) {
+            throw new IOException("Wrong number of activation parameters: " + params);
+        }
+        for (int i = 0; i < params; i++) {
+            function.setParam(i, in.readDouble());
+        }
+        return function;
+    }
+
+    private static int readLength(DataInput in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > MAX_LENGTH) {
+            throw new IOException("Invalid array length: " + length);
+        }
+        return length;
+    }
+
+    private static void checkIndexes(int[] indexes, int min, int max) throws IOException {
+        for (int index : indexes) {
+            if (index < min || index >= max) {
+                throw new IOException("Invalid neuron index: " + index);
+            }
+        }
+    }
+
+    private static void writeInts(DataOutput out, int[] values) throws IOException {
+        out.writeInt(values.length);
+        for (int value : values) {
+            out.writeInt(value);
+        }
+    }
+
+    private static int[] readInts(DataInput in) throws IOException {
+        int[] values = new int[readLength(in)];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = in.readInt();
+        }
+        return values;
+    }
+
+    private static void writeDoubles(DataOutput out, double[] values) throws IOException {
+        out.writeInt(values.length);
+        for (double value : values) {
+            out.writeDouble(value);
+        }
+    }
+
+    private static double[] readDoubles(DataInput in) throws IOException {
+        double[] values = new double[readLength(in)];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = in.readDouble();
+        }
+        return values;
+    }
+
+    // The input links can be summed ahead only if every neuron gets them before its other
+    // links and in the order of their sources, which is the case for the sorted links of the codec
+    private boolean hasSourcesFirst(NEATLink[] links, int neurons) {
+        int[] lastSource = new int[neurons];
+        boolean[] otherSeen = new boolean[neurons];
+        for (NEATLink link : links) {
+            int to = link.getToNeuron();
+            if (to < this.outputIndex) {
+                return false;
+            }
+            if (link.getFromNeuron() < this.outputIndex) {
+                if (otherSeen[to] || link.getFromNeuron() < lastSource[to]) {
+                    return false;
+                }
+                lastSource[to] = link.getFromNeuron();
+            } else {
+                otherSeen[to] = true;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compute the outputs of the network
+     *
+     * @param inputs the input values, the links of the inputs that are zero are skipped
+     * @return the output values, the array is reused by the next compute
+     */
+    public double[] compute(double[] inputs) {
+        double[] post = this.postActivation;
+        double[] pre = this.preActivation;
+        double[] sums = this.inputSums;
+        post[0] = 1.0;
+        System.arraycopy(inputs, 0, post, 1, this.inputCount);
+        Arrays.fill(post, this.outputIndex, post.length, 0.0);
+        Arrays.fill(sums, this.outputIndex, sums.length, 0.0);
+        for (int n = 0; n < this.outputIndex; n++) {
+            double value = post[n];
+            // A zero input adds nothing to the sums
+            if (value != 0.0) {
+                for (int i = this.sourceStart[n]; i < this.sourceStart[n + 1]; i++) {
+                    sums[this.sourceTo[i]] += value * this.sourceWeight[i];
+                }
+            }
+        }
+        for (int cycle = 0; cycle < this.cycles; cycle++) {
+            System.arraycopy(sums, this.outputIndex, pre, this.outputIndex, pre.length - this.outputIndex);
+            for (int i = 0; i < this.linkFrom.length; i++) {
+                pre[this.linkTo[i]] += post[this.linkFrom[i]] * this.linkWeight[i];
+            }
+            for (int n = this.outputIndex; n < pre.length; n++) {
+                post[n] = pre[n];
+                this.activationFunctions[n].activationFunction(post, n, 1);
+            }
+        }
+        System.arraycopy(post, this.outputIndex, this.outputs, 0, this.outputCount);
+        return this.outputs;
+    }
+
+    public int getInputCount() {
+        return this.inputCount;
+    }
+
+    public int getOutputCount() {
+        return this.outputCount;
+    }
+}
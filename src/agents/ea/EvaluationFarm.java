@@ -0,0 +1,585 @@
+package agents.ea;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.encog.neural.neat.NEATNetwork;
+
+/**
+ * Plays the evaluation games of the EA and NEAT agents in worker processes. Workers
+ * run EvaluationWorker, connect to the farm over a socket and receive batches of
+ * jobs, a job is a chromosome or a network with the levels it is played on. Every
+ * level is sent once to each worker before its first job, after that the jobs only
+ * carry the level id. The jobs of a worker that disconnects go back to the queue
+ * and are played by the other workers. The farm and a worker both prove that they
+ * know the token of the farm before any job is sent, with an HMAC of random
+ * challenges, so other programs that connect can't read the levels or send back
+ * scores. The token doesn't encrypt the connection, workers on other hosts need a
+ * network that is trusted not to change the traffic. When jobs wait while no worker
+ * is connected for longer than the worker timeout, they fail, so a training whose
+ * workers all died stops with an exception instead of waiting forever.
+ */
+public class EvaluationFarm implements Closeable {
+    /**
+     * the environment variable that EvaluationWorker reads the token from
+     */
+    public static final String TOKEN_VARIABLE = "EVALUATION_FARM_TOKEN";
+    // Messages from the farm to a worker
+    static final byte LEVEL = 1;
+    static final byte BATCH = 2;
+    // Job types
+    static final byte CHROMOSOME = 1;
+    static final byte NETWORK = 2;
+    // Status of each job result
+    static final byte DONE = 0;
+    static final byte FAILED = 1;
+    // Sides of the handshake
+    static final byte FARM = 1;
+    static final byte WORKER = 2;
+    private static final int CHALLENGE_LENGTH = 32;
+    private static final int HANDSHAKE_TIMEOUT = 10000;
+    // Milliseconds between two checks for jobs that wait without workers
+    private static final int WATCH_INTERVAL = 1000;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    /**
+     * The evaluation of a chromosome that a worker sends back
+     */
+    static class ChromosomeResult {
+        private FitnessCache.Entry entry;
+        private int steps;
+        private int policy;
+
+        /**
+         * @param entry  the fitness and the statistics of the game
+         * @param steps  the number of actions the game read
+         * @param policy the early termination policy that stopped the game, -1 if none did
+         */
+        ChromosomeResult(FitnessCache.Entry entry, int steps, int policy) {
+            this.entry = entry;
+            this.steps = steps;
+            this.policy = policy;
+        }
+
+        FitnessCache.Entry getEntry() {
+            return this.entry;
+        }
+
+        int getSteps() {
+            return this.steps;
+        }
+
+        int getPolicy() {
+            return this.policy;
+        }
+    }
+
+    private static class Level {
+        private byte type;
+        private int stallTicks;
+        private String content;
+
+        Level(byte type, int stallTicks, String content) {
+            this.type = type;
+            this.stallTicks = stallTicks;
+            this.content = content;
+        }
+    }
+
+    private static class Job {
+        private byte type;
+        private int[] levels;
+        // the job as it is sent to the worker, written when it is submitted so the caller can reuse its objects
+        private byte[] body;
+        private CompletableFuture<Object> result = new CompletableFuture<>();
+
+        Job(byte type, int[] levels, byte[] body) {
+            this.type = type;
+            this.levels = levels;
+            this.body = body;
+        }
+    }
+
+    private ServerSocket server;
+    private String token;
+    private volatile boolean closed = false;
+    private volatile int batchSize = 16;
+    private volatile long workerTimeout = 60000;
+    // When the acceptor first saw jobs waiting without a worker, 0 if there are workers or no jobs
+    private long waitingSince = 0;
+    private List<Level> levels = new ArrayList<>();
+    private Map<String, Integer> levelIds = new HashMap<>();
+    private LinkedBlockingDeque<Job> queue = new LinkedBlockingDeque<>();
+    private List<Socket> workers = new CopyOnWriteArrayList<>();
+    private List<Process> localWorkers = new CopyOnWriteArrayList<>();
+    // Nanoseconds the workers spent parsing levels, copying worlds and playing network games
+    private AtomicLongArray gameNanos = new AtomicLongArray(3);
+
+    /**
+     * Create a farm that only accepts workers on the same host, with a random token
+     *
+     * @param port the port the workers connect to, 0 picks a free port
+     * @throws IOException if the port can't be opened
+     */
+    public EvaluationFarm(int port) throws IOException {
+        this(InetAddress.getLoopbackAddress(), port);
+    }
+
+    /**
+     * Create a farm that accepts workers on the given address, with a random token
+     *
+     * @param address the local address the workers connect to
+     * @param port    the port the workers connect to, 0 picks a free port
+     * @throws IOException if the port can't be opened
+     */
+    public EvaluationFarm(InetAddress address, int port) throws IOException {
+        this(address, port, newToken());
+    }
+
+    /**
+     * Create a farm that accepts workers on the given address
+     *
+     * @param address the local address the workers connect to
+     * @param port    the port the workers connect to, 0 picks a free port
+     * @param token   the secret the workers have to know, it should be long and random
+     * @throws IOException if the port can't be opened
+     */
+    public EvaluationFarm(InetAddress address, int port, String token) throws IOException {
+        if (token.isEmpty()) {
+            throw new IllegalArgumentException("The farm token is empty");
+        }
+        this.token = token;
+        this.server = new ServerSocket(port, 50, address);
+        this.server.setSoTimeout(WATCH_INTERVAL);
+        Thread acceptor = new Thread(this::acceptWorkers, "evaluation-farm");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * get the port the workers connect to
+     *
+     * @return the local port of the farm
+     */
+    public int getPort() {
+        return this.server.getLocalPort();
+    }
+
+    /**
+     * get the token the workers need, remote workers get it in the environment
+     * variable TOKEN_VARIABLE
+     *
+     * @return the token of the farm
+     */
+    public String getToken() {
+        return this.token;
+    }
+
+    /**
+     * get the number of workers that are connected
+     *
+     * @return the number of connected workers
+     */
+    public int getWorkerCount() {
+        return this.workers.size();
+    }
+
+    /**
+     * get the time the workers spent on the network games so far, summed over their threads
+     *
+     * @return the nanoseconds of level parsing, world copies and simulation, like NeuroEAgent.getGameNanos
+     */
+    long[] getWorkerGameNanos() {
+        long[] nanos = new long[this.gameNanos.length()];
+        for (int i = 0; i < nanos.length; i++) {
+            nanos[i] = this.gameNanos.get(i);
+        }
+        return nanos;
+    }
+
+    /**
+     * Set the number of jobs that are sent to a worker at once
+     *
+     * @param batchSize the maximum number of jobs in a batch (16 by default)
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    /**
+     * Set how long jobs can wait while no worker is connected before they fail.
+     * It has to cover the start of the workers.
+     *
+     * @param millis the milliseconds without workers (60000 by default)
+     */
+    public void setWorkerTimeout(long millis) {
+        this.workerTimeout = Math.max(0, millis);
+    }
+
+    /**
+     * Start worker processes on this host with the same java and class path as this process
+     *
+     * @param count   the number of worker processes
+     * @param threads the number of jobs each worker plays at the same time
+     * @throws IOException if a process can't be started
+     */
+    public void startLocalWorkers(int count, int threads) throws IOException {
+        InetAddress address = this.server.getInetAddress();
+        if (address.isAnyLocalAddress()) {
+            address = InetAddress.getLoopbackAddress();
+        }
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        for (int i = 0; i < count; i++) {
+            ProcessBuilder builder = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                    EvaluationWorker.class.getName(), address.getHostAddress(), Integer.toString(this.getPort()),
+                    Integer.toString(threads));
+            builder.environment().put(TOKEN_VARIABLE, this.token);
+            builder.inheritIO();
+            this.localWorkers.add(builder.start());
+        }
+    }
+
+    /**
+     * Register a level for chromosome jobs, a worker plays it like Agent.evolve does
+     *
+     * @param content    the level string
+     * @param stallTicks the ticks without progress that stop a game, 0 if games are never stopped
+     * @return the id of the level
+     */
+    int addChromosomeLevel(String content, int stallTicks) {
+        return this.addLevel(new Level(CHROMOSOME, stallTicks, content));
+    }
+
+    /**
+     * Register a level for network jobs, a worker plays it like NeuroEAgent does
+     *
+     * @param content the level string
+     * @return the id of the level
+     */
+    int addNetworkLevel(String content) {
+        return this.addLevel(new Level(NETWORK, 0, content));
+    }
+
+    private synchronized int addLevel(Level level) {
+        String key = level.type + ":" + level.stallTicks + ":" + level.content;
+        Integer id = this.levelIds.get(key);
+        if (id == null) {
+            id = this.levels.size();
+            this.levels.add(level);
+            this.levelIds.put(key, id);
+        }
+        return id;
+    }
+
+    private synchronized Level getLevel(int id) {
+        return this.levels.get(id);
+    }
+
+    /**
+     * Queue a chromosome, the actions are copied so the caller can change them after the call
+     *
+     * @param level     the id from addChromosomeLevel
+     * @param sequence  the actions of the chromosome
+     * @param horizon   the ticks that are played, 0 for the full game
+     * @param threshold the fitness the game has to be able to reach to keep playing
+     * @return the evaluation once a worker played it
+     */
+    CompletableFuture<ChromosomeResult> submit(int level, ActionSequence sequence, int horizon, double threshold) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(level);
+            out.writeInt(sequence.length());
+            for (long word : sequence.getWords()) {
+                out.writeLong(word);
+            }
+            out.writeInt(horizon);
+            out.writeDouble(threshold);
+        } catch (IOException e) {
+            throw new RuntimeException("Writing the chromosome failed", e);
+        }
+        return this.submit(new Job(CHROMOSOME, new int[]{level}, bytes.toByteArray())).thenApply(r -> (ChromosomeResult) r);
+    }
+
+    /**
+     * Queue a network that is played on several levels, it is sent as a compiled network
+     *
+     * @param network the network that plays
+     * @param levels  the ids from addNetworkLevel
+     * @return the score on each level once a worker played them
+     * @throws IllegalArgumentException if CompiledNEATNetwork can't write an activation function of the network
+     */
+    CompletableFuture<double[]> submit(NEATNetwork network, int[] levels) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(levels.length);
+            for (int level : levels) {
+                out.writeInt(level);
+            }
+            new CompiledNEATNetwork(network).write(out);
+        } catch (IOException e) {
+            throw new RuntimeException("Writing the network failed", e);
+        }
+        return this.submit(new Job(NETWORK, levels.clone(), bytes.toByteArray())).thenApply(r -> (double[]) r);
+    }
+
+    private CompletableFuture<Object> submit(Job job) {
+        if (this.closed) {
+            throw new IllegalStateException("The evaluation farm is closed");
+        }
+        this.queue.add(job);
+        return job.result;
+    }
+
+    /**
+     * Wait for the result of a job
+     *
+     * @param result the future returned by submit
+     * @return the result of the job
+     * @throws RuntimeException if the job failed, also when it waited longer than the
+     *                          worker timeout without a connected worker
+     */
+    static <T> T await(CompletableFuture<T> result) {
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Farm evaluation was interrupted", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Farm evaluation failed", e.getCause());
+        }
+    }
+
+    private void acceptWorkers() {
+        while (!this.closed) {
+            try {
+                Socket socket = this.server.accept();
+                socket.setTcpNoDelay(true);
+                Thread thread = new Thread(() -> this.serve(socket), "evaluation-farm-worker");
+                thread.setDaemon(true);
+                thread.start();
+            } catch (SocketTimeoutException e) {
+                // no worker connected during the interval
+            } catch (IOException e) {
+                if (!this.closed) {
+                    System.err.println("Error accepting farm worker: " + e.getMessage());
+                }
+            }
+            this.checkWaitingJobs();
+        }
+    }
+
+    // Fail the queued jobs once they waited for the worker timeout without any worker
+    private void checkWaitingJobs() {
+        if (!this.workers.isEmpty() || this.queue.isEmpty()) {
+            this.waitingSince = 0;
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (this.waitingSince == 0) {
+            this.waitingSince = now;
+        } else if (now - this.waitingSince >= this.workerTimeout) {
+            System.err.println("No farm worker connected for " + (now - this.waitingSince) / 1000 + " s, failing the queued jobs");
+            this.failQueuedJobs(new IllegalStateException("No farm worker connected for " +
+                    (now - this.waitingSince) / 1000 + " s"));
+            this.waitingSince = 0;
+        }
+    }
+
+    // Send batches to one worker until it disconnects or the farm is closed
+    private void serve(Socket socket) {
+        Set<Integer> shipped = new HashSet<>();
+        List<Job> batch = new ArrayList<>();
+        try (socket;
+             DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()))) {
+            // A connection that doesn't answer the challenge doesn't hold the thread
+            socket.setSoTimeout(HANDSHAKE_TIMEOUT);
+            try {
+                authenticate(in, out, this.token.getBytes(StandardCharsets.UTF_8), FARM);
+            } catch (IOException e) {
+                System.err.println("Rejected farm worker " + socket.getRemoteSocketAddress() + ": " + e.getMessage());
+                return;
+            }
+            socket.setSoTimeout(0);
+            this.workers.add(socket);
+            while (!this.closed) {
+                Job first = this.queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                this.queue.drainTo(batch, this.batchSize - 1);
+                for (Job job : batch) {
+                    for (int id : job.levels) {
+                        if (shipped.add(id)) {
+                            writeLevel(out, id, this.getLevel(id));
+                        }
+                    }
+                }
+                out.writeByte(BATCH);
+                out.writeInt(batch.size());
+                for (Job job : batch) {
+                    out.writeByte(job.type);
+                    out.write(job.body);
+                }
+                out.flush();
+                // The times come first, so they are counted before the jobs complete
+                for (int i = 0; i < this.gameNanos.length(); i++) {
+                    this.gameNanos.addAndGet(i, in.readLong());
+                }
+                for (Job job : batch) {
+                    if (in.readByte() == FAILED) {
+                        job.result.completeExceptionally(new RuntimeException("Worker failed: " + in.readUTF()));
+                    } else if (job.type == CHROMOSOME) {
+                        FitnessCache.Entry entry = FitnessCache.Entry.read(in);
+                        job.result.complete(new ChromosomeResult(entry, in.readInt(), in.readByte()));
+                    } else {
+                        double[] scores = new double[in.readInt()];
+                        for (int i = 0; i < scores.length; i++) {
+                            scores[i] = in.readDouble();
+                        }
+                        job.result.complete(scores);
+                    }
+                }
+                batch.clear();
+            }
+        } catch (IOException e) {
+            if (!this.closed) {
+                System.err.println("Farm worker disconnected: " + e.getMessage());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            this.workers.remove(socket);
+            // Another worker plays the jobs this one didn't finish
+            for (int i = batch.size() - 1; i >= 0; i--) {
+                if (!batch.get(i).result.isDone()) {
+                    this.queue.addFirst(batch.get(i));
+                }
+            }
+            if (this.closed) {
+                this.failQueuedJobs(new IllegalStateException("The evaluation farm is closed"));
+            }
+        }
+    }
+
+    private static String newToken() {
+        byte[] token = new byte[CHALLENGE_LENGTH];
+        RANDOM.nextBytes(token);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(token);
+    }
+
+    /**
+     * Prove to the other side of a connection that this side knows the token and
+     * check that the other side does too. Both sides send a random challenge and
+     * answer the challenge of the other with an HMAC of the token, the HMAC also
+     * covers the side, so an answer of the farm can't be sent back as one of a worker.
+     *
+     * @param in    the stream from the other side
+     * @param out   the stream to the other side
+     * @param token the token of the farm
+     * @param side  FARM or WORKER
+     * @throws IOException if the connection fails or the other side doesn't know the token
+     */
+    static void authenticate(DataInputStream in, DataOutputStream out, byte[] token, byte side) throws IOException {
+        byte[] challenge = new byte[CHALLENGE_LENGTH];
+        RANDOM.nextBytes(challenge);
+        out.write(challenge);
+        out.flush();
+        byte[] otherChallenge = new byte[CHALLENGE_LENGTH];
+        in.readFully(otherChallenge);
+        out.write(answer(token, side, otherChallenge, challenge));
+        out.flush();
+        byte[] otherAnswer = new byte[32];
+        in.readFully(otherAnswer);
+        byte otherSide = side == FARM ? WORKER : FARM;
+        if (!MessageDigest.isEqual(otherAnswer, answer(token, otherSide, challenge, otherChallenge))) {
+            throw new IOException("The other side doesn't have the farm token");
+        }
+    }
+
+    private static byte[] answer(byte[] token, byte side, byte[] challenge, byte[] ownChallenge) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(token, "HmacSHA256"));
+            mac.update(side);
+            mac.update(challenge);
+            mac.update(ownChallenge);
+            return mac.doFinal();
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException("HmacSHA256 isn't available", e);
+        }
+    }
+
+    private static void writeLevel(DataOutputStream out, int id, Level level) throws IOException {
+        byte[] content = level.content.getBytes(StandardCharsets.UTF_8);
+        out.writeByte(LEVEL);
+        out.writeInt(id);
+        out.writeByte(level.type);
+        out.writeInt(level.stallTicks);
+        out.writeInt(content.length);
+        out.write(content);
+    }
+
+    private void failQueuedJobs(Exception reason) {
+        Job job;
+        while ((job = this.queue.poll()) != null) {
+            job.result.completeExceptionally(reason);
+        }
+    }
+
+    /**
+     * Disconnect the workers and stop the local worker processes, the jobs that
+     * are still waiting fail
+     */
+    @Override
+    public void close() {
+        this.closed = true;
+        try {
+            this.server.close();
+        } catch (IOException e) {
+            System.err.println("Error closing evaluation farm: " + e.getMessage());
+        }
+        for (Socket socket : this.workers) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // the worker is gone already
+            }
+        }
+        for (Process process : this.localWorkers) {
+            process.destroy();
+        }
+        this.failQueuedJobs(new IllegalStateException("The evaluation farm is closed"));
+    }
+}
@@ -0,0 +1,202 @@
+package agents.ea;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * A worker process of an EvaluationFarm. It connects to the farm, proves that it
+ * has the token of the farm, keeps the levels the farm sends and plays the batches
+ * of jobs until the farm disconnects. The token is read from the environment
+ * variable EvaluationFarm.TOKEN_VARIABLE, so it doesn't show in the process list.
+ * Usage: EvaluationWorker host port [threads]
+ */
+public class EvaluationWorker {
+    private static class Level {
+        private String content;
+        // plays the chromosome jobs with the settings of the agent that evolves them
+        private ChromosomeEvaluator evaluator;
+
+        Level(String content, ChromosomeEvaluator evaluator) {
+            this.content = content;
+            this.evaluator = evaluator;
+        }
+    }
+
+    private Map<Integer, Level> levels = new HashMap<>();
+    private ExecutorService pool;
+    private byte[] token;
+
+    /**
+     * Create a worker
+     *
+     * @param threads the number of jobs of a batch that are played at the same time
+     * @param token   the token of the farm, see EvaluationFarm.getToken
+     */
+    public EvaluationWorker(int threads, String token) {
+        if (token.isEmpty()) {
+            throw new IllegalArgumentException("The farm token is empty");
+        }
+        this.pool = Executors.newFixedThreadPool(Math.max(1, threads));
+        this.token = token.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Play the jobs of a farm until it disconnects
+     *
+     * @param host the host of the farm
+     * @param port the port of the farm
+     * @throws IOException if the connection fails or the farm doesn't have the same token
+     */
+    public void run(String host, int port) throws IOException {
+        try (Socket socket = new Socket(host, port);
+             DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()))) {
+            socket.setTcpNoDelay(true);
+            EvaluationFarm.authenticate(in, out, this.token, EvaluationFarm.WORKER);
+            while (true) {
+                byte message;
+                try {
+                    message = in.readByte();
+                } catch (EOFException e) {
+                    return;
+                }
+                if (message == EvaluationFarm.LEVEL) {
+                    this.readLevel(in);
+                } else if (message == EvaluationFarm.BATCH) {
+                    this.playBatch(in, out);
+                } else {
+                    throw new IOException("Unknown farm message: " + message);
+                }
+            }
+        } finally {
+            this.pool.shutdown();
+        }
+    }
+
+    private void readLevel(DataInputStream in) throws IOException {
+        int id = in.readInt();
+        byte type = in.readByte();
+        int stallTicks = in.readInt();
+        byte[] content = new byte[in.readInt()];
+        in.readFully(content);
+        String level = new String(content, StandardCharsets.UTF_8);
+        ChromosomeEvaluator evaluator = null;
+        if (type == EvaluationFarm.CHROMOSOME) {
+            evaluator = new ChromosomeEvaluator(level, stallTicks, ChromosomeEvaluator.CHECKPOINT_MEMORY);
+        }
+        this.levels.put(id, new Level(level, evaluator));
+    }
+
+    private void playBatch(DataInputStream in, DataOutputStream out) throws IOException {
+        int count = in.readInt();
+        List<Callable<Object>> jobs = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            byte type = in.readByte();
+            jobs.add(type == EvaluationFarm.CHROMOSOME ? this.readChromosome(in) : this.readNetwork(in));
+        }
+        List<Future<Object>> results;
+        long[] nanos = NeuroEAgent.getGameNanos();
+        try {
+            results = this.pool.invokeAll(jobs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Worker was interrupted", e);
+        }
+        // The time the network games of the batch spent on the levels, for the statistics of the trainer
+        long[] after = NeuroEAgent.getGameNanos();
+        for (int i = 0; i < nanos.length; i++) {
+            out.writeLong(after[i] - nanos[i]);
+        }
+        for (Future<Object> future : results) {
+            Object result;
+            try {
+                result = future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Worker was interrupted", e);
+            } catch (ExecutionException e) {
+                out.writeByte(EvaluationFarm.FAILED);
+                out.writeUTF(String.valueOf(e.getCause()));
+                continue;
+            }
+            out.writeByte(EvaluationFarm.DONE);
+            if (result instanceof EvaluationFarm.ChromosomeResult) {
+                EvaluationFarm.ChromosomeResult evaluation = (EvaluationFarm.ChromosomeResult) result;
+                evaluation.getEntry().write(out);
+                out.writeInt(evaluation.getSteps());
+                out.writeByte(evaluation.getPolicy());
+            } else {
+                double[] scores = (double[]) result;
+                out.writeInt(scores.length);
+                for (double score : scores) {
+                    out.writeDouble(score);
+                }
+            }
+        }
+        out.flush();
+    }
+
+    private Callable<Object> readChromosome(DataInputStream in) throws IOException {
+        Level level = this.getLevel(in.readInt());
+        ActionSequence sequence = new ActionSequence(in.readInt());
+        long[] words = sequence.getWords();
+        for (int i = 0; i < words.length; i++) {
+            words[i] = in.readLong();
+        }
+        int horizon = in.readInt();
+        double threshold = in.readDouble();
+        return () -> level.evaluator.evaluate(sequence, horizon, threshold);
+    }
+
+    private Callable<Object> readNetwork(DataInputStream in) throws IOException {
+        Level[] played = new Level[in.readInt()];
+        for (int i = 0; i < played.length; i++) {
+            played[i] = this.getLevel(in.readInt());
+        }
+        CompiledNEATNetwork compiled = CompiledNEATNetwork.read(in);
+        return () -> {
+            double[] scores = new double[played.length];
+            for (int i = 0; i < played.length; i++) {
+                scores[i] = NeuroEAgent.evaluateLevel(compiled, played[i].content);
+            }
+            return scores;
+        };
+    }
+
+    private Level getLevel(int id) throws IOException {
+        Level level = this.levels.get(id);
+        if (level == null) {
+            throw new IOException("Unknown farm level: " + id);
+        }
+        return level;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: EvaluationWorker host port [threads]");
+            return;
+        }
+        String token = System.getenv(EvaluationFarm.TOKEN_VARIABLE);
+        if (token == null) {
+            System.err.println("Set " + EvaluationFarm.TOKEN_VARIABLE + " to the token of the farm");
+            return;
+        }
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : 1;
+        new EvaluationWorker(threads, token).run(args[0], Integer.parseInt(args[1]));
+    }
+}
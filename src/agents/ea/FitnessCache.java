@@ -0,0 +1,389 @@
+package agents.ea;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import engine.core.MarioReplay;
+import engine.core.MarioResult;
+import engine.helper.GameStatus;
+
+/**
+ * Remembers the evaluation of action sequences so identical chromosomes are not
+ * replayed. The game is deterministic and only reads the actions until it ends,
+ * so an entry is keyed by the level and the prefix of actions that were consumed
+ * and it matches every sequence that starts with that prefix.
+ * The cache keeps the most recently used entries in memory and can save them to
+ * a file so another run on the same level starts with them. It is not thread safe.
+ */
+class FitnessCache {
+    private static final int FILE_MAGIC = 0x4D464331;
+    // ticks are packed like ActionSequence
+    private static final int TICKS_PER_WORD = MarioReplay.STEPS_PER_WORD;
+    private static final int BITS_PER_TICK = MarioReplay.BITS_PER_STEP;
+
+    /**
+     * The statistics of an evaluated game that the EA keeps for each chromosome
+     */
+    static class Entry {
+        private double fitness;
+        private GameStatus gameStatus;
+        private float completionPercentage;
+        private int remainingTime;
+        private int killsTotal;
+        private int numCollectedMushrooms;
+        private int numCollectedTileCoins;
+
+        Entry(double fitness, MarioResult result) {
+            this.fitness = fitness;
+            this.gameStatus = result.getGameStatus();
+            this.completionPercentage = result.getCompletionPercentage();
+            this.remainingTime = result.getRemainingTime();
+            this.killsTotal = result.getKillsTotal();
+            this.numCollectedMushrooms = result.getNumCollectedMushrooms();
+            this.numCollectedTileCoins = result.getNumCollectedTileCoins();
+        }
+
+        private Entry() {
+        }
+
+        double getFitness() {
+            return this.fitness;
+        }
+
+        GameStatus getGameStatus() {
+            return this.gameStatus;
+        }
+
+        float getCompletionPercentage() {
+            return this.completionPercentage;
+        }
+
+        int getRemainingTime() {
+            return this.remainingTime;
+        }
+
+        int getKillsTotal() {
+            return this.killsTotal;
+        }
+
+        int getNumCollectedMushrooms() {
+            return this.numCollectedMushrooms;
+        }
+
+        int getNumCollectedTileCoins() {
+            return this.numCollectedTileCoins;
+        }
+
+        void write(DataOutput out) throws IOException {
+            out.writeDouble(this.fitness);
+            out.writeByte(this.gameStatus.ordinal());
+            out.writeFloat(this.completionPercentage);
+            out.writeInt(this.remainingTime);
+            out.writeInt(this.killsTotal);
+            out.writeInt(this.numCollectedMushrooms);
+            out.writeInt(this.numCollectedTileCoins);
+        }
+
+        static Entry read(DataInput in) throws IOException {
+            Entry entry = new Entry();
+            entry.fitness = in.readDouble();
+            int status = in.readByte();
+            if (status < 0 || status >= GameStatus.values().length) {
+                throw new IOException("Invalid game status: " + status);
+            }
+            entry.gameStatus = GameStatus.values()[status];
+            entry.completionPercentage = in.readFloat();
+            entry.remainingTime = in.readInt();
+            entry.killsTotal = in.readInt();
+            entry.numCollectedMushrooms = in.readInt();
+            entry.numCollectedTileCoins = in.readInt();
+            return entry;
+        }
+    }
+
+    private static class Key {
+        private final long level;
+        private final int length;
+        private final long hash;
+
+        Key(long level, int length, long hash) {
+            this.level = level;
+            this.length = length;
+            this.hash = hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return this.level == other.level && this.length == other.length && this.hash == other.hash;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(this.hash) * 31 + this.length;
+        }
+    }
+
+    private static class Record {
+        private long[] actions;
+        private Entry entry;
+
+        Record(long[] actions, Entry entry) {
+            this.actions = actions;
+            this.entry = entry;
+        }
+    }
+
+    private int capacity;
+    private LinkedHashMap<Key, Record> records;
+    // number of records with each consumed prefix length
+    private int[] lengthCounts = new int[0];
+    private int hits;
+    private int misses;
+
+    /**
+     * Create an empty cache
+     *
+     * @param capacity the maximum number of entries kept in memory
+     */
+    FitnessCache(int capacity) {
+        this.capacity = capacity;
+        this.records = new LinkedHashMap<Key, Record>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Record> eldest) {
+                if (size() > FitnessCache.this.capacity) {
+                    FitnessCache.this.lengthCounts[eldest.getKey().length] -= 1;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Get a hash that identifies the level and the game settings an entry belongs to
+     *
+     * @param level      the level string
+     * @param timer      the game timer
+     * @param marioState the initial mario state
+     * @param stallTicks the ticks without progress that stop a game, 0 if games are never stopped
+     * @return a 64 bit identifier
+     */
+    static long getLevelId(String level, int timer, int marioState, int stallTicks) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < level.length(); i++) {
+            h = (h ^ level.charAt(i)) * 0x100000001b3L;
+        }
+        h = (h ^ timer) * 0x100000001b3L;
+        h = (h ^ marioState) * 0x100000001b3L;
+        return (h ^ stallTicks) * 0x100000001b3L;
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        return h ^ (h >>> 33);
+    }
+
+    /**
+     * Hash of the first length ticks given the hash of the full words before them
+     */
+    private static long getPrefixHash(long wordsHash, long[] actions, int length) {
+        int rest = length % TICKS_PER_WORD;
+        long partial = 0;
+        if (rest > 0) {
+            partial = actions[length / TICKS_PER_WORD] & ((1L << (BITS_PER_TICK * rest)) - 1);
+        }
+        return mix(mix(wordsHash ^ partial) ^ length);
+    }
+
+    private static long getPrefixHash(long[] actions, int length) {
+        long wordsHash = 0;
+        for (int i = 0; i < length / TICKS_PER_WORD; i++) {
+            wordsHash = mix(wordsHash ^ actions[i]);
+        }
+        return getPrefixHash(wordsHash, actions, length);
+    }
+
+    private static boolean samePrefix(long[] prefix, long[] actions, int length) {
+        int fullWords = length / TICKS_PER_WORD;
+        for (int i = 0; i < fullWords; i++) {
+            if (prefix[i] != actions[i]) {
+                return false;
+            }
+        }
+        int rest = length % TICKS_PER_WORD;
+        if (rest > 0) {
+            long mask = (1L << (BITS_PER_TICK * rest)) - 1;
+            return (prefix[fullWords] & mask) == (actions[fullWords] & mask);
+        }
+        return true;
+    }
+
+    /**
+     * Find the evaluation of an action sequence
+     *
+     * @param level    the identifier from getLevelId
+     * @param sequence the actions of the chromosome
+     * @return the cached evaluation or null if no stored prefix matches the sequence
+     */
+    Entry get(long level, ActionSequence sequence) {
+        long[] actions = sequence.getWords();
+        int maxLength = Math.min(sequence.length(), this.lengthCounts.length - 1);
+        long wordsHash = 0;
+        for (int length = 0; length <= maxLength; length++) {
+            if (length > 0 && length % TICKS_PER_WORD == 0) {
+                wordsHash = mix(wordsHash ^ actions[length / TICKS_PER_WORD - 1]);
+            }
+            if (this.lengthCounts[length] == 0) {
+                continue;
+            }
+            Record record = this.records.get(new Key(level, length, getPrefixHash(wordsHash, actions, length)));
+            if (record != null && samePrefix(record.actions, actions, length)) {
+                this.hits += 1;
+                return record.entry;
+            }
+        }
+        this.misses += 1;
+        return null;
+    }
+
+    /**
+     * Store the evaluation of an action sequence
+     *
+     * @param level    the identifier from getLevelId
+     * @param sequence the actions of the chromosome
+     * @param consumed the number of actions the game read before it ended, it
+     *                 can't be more than the length of the sequence
+     * @param entry    the evaluation of the game
+     */
+    void put(long level, ActionSequence sequence, int consumed, Entry entry) {
+        this.add(level, Arrays.copyOf(sequence.getWords(), (consumed + TICKS_PER_WORD - 1) / TICKS_PER_WORD), consumed, entry);
+    }
+
+    private void add(long level, long[] actions, int length, Entry entry) {
+        if (length >= this.lengthCounts.length) {
+            this.lengthCounts = Arrays.copyOf(this.lengthCounts, length + 1);
+        }
+        Record old = this.records.put(new Key(level, length, getPrefixHash(actions, length)), new Record(actions, entry));
+        if (old == null) {
+            this.lengthCounts[length] += 1;
+        }
+    }
+
+    int getHits() {
+        return this.hits;
+    }
+
+    int getMisses() {
+        return this.misses;
+    }
+
+    /**
+     * Add the entries of a file written by save. Entries that don't fit the
+     * capacity of the cache are dropped starting with the oldest ones.
+     *
+     * @param file the file to read, nothing is loaded if it doesn't exist
+     * @throws IOException if the file can't be read or has a different format
+     */
+    void load(File file) throws IOException {
+        if (!file.exists()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != FILE_MAGIC) {
+                throw new IOException("Not a fitness cache file: " + file);
+            }
+            this.read(in);
+        }
+    }
+
+    /**
+     * Add the entries written by write
+     *
+     * @param in the stream positioned at the entries
+     * @throws IOException if the entries can't be read
+     */
+    void read(DataInput in) throws IOException {
+        int count = in.readInt();
+        if (count < 0) {
+            throw new IOException("Invalid number of entries: " + count);
+        }
+        for (int i = 0; i < count; i++) {
+            long level = in.readLong();
+            int length = in.readInt();
+            if (length < 0) {
+                throw new IOException("Invalid prefix length: " + length);
+            }
+            long[] actions = new long[(length + TICKS_PER_WORD - 1) / TICKS_PER_WORD];
+            for (int j = 0; j < actions.length; j++) {
+                actions[j] = in.readLong();
+            }
+            this.add(level, actions, length, Entry.read(in));
+        }
+    }
+
+    /**
+     * Write all the entries in memory to a file, from the least to the most recently used
+     *
+     * @param file the file that is replaced with the cache content
+     * @throws IOException if the file can't be written
+     */
+    void save(File file) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(FILE_MAGIC);
+            this.write(out);
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Write all the entries in memory, from the least to the most recently used
+     *
+     * @param out the stream the entries are written to
+     * @throws IOException if the entries can't be written
+     */
+    void write(DataOutput out) throws IOException {
+        out.writeInt(this.records.size());
+        for (Map.Entry<Key, Record> e : this.records.entrySet()) {
+            Record record = e.getValue();
+            out.writeLong(e.getKey().level);
+            out.writeInt(e.getKey().length);
+            for (long word : record.actions) {
+                out.writeLong(word);
+            }
+            record.entry.write(out);
+        }
+    }
+
+    /**
+     * Copy the entries of the cache in the same order, the entries themselves are shared
+     *
+     * @return a cache with the same content and capacity
+     */
+    FitnessCache copy() {
+        FitnessCache copy = new FitnessCache(this.capacity);
+        copy.records.putAll(this.records);
+        copy.lengthCounts = this.lengthCounts.clone();
+        return copy;
+    }
+}
@@ -0,0 +1,77 @@
+package agents.ea;
+
+import java.util.Random;
+
+/**
+ * A random generator with the same sequence as java.util.Random for the same seed,
+ * whose whole state is one long that can be read and set. Checkpoints write that
+ * long instead of serializing the generator. nextGaussian doesn't keep the second
+ * value of a pair, so its values differ from java.util.Random.
+ */
+class LcgRandom extends Random {
+    private static final long serialVersionUID = 1L;
+    private static final long MULTIPLIER = 0x5DEECE66DL;
+    private static final long ADDEND = 0xBL;
+    private static final long MASK = (1L << 48) - 1;
+
+    private long state;
+
+    /**
+     * Create a generator with a seed that is different on every call
+     */
+    LcgRandom() {
+        this(new Random().nextLong());
+    }
+
+    /**
+     * Create a generator
+     *
+     * @param seed the seed, the same as for java.util.Random
+     */
+    LcgRandom(long seed) {
+        super(seed);
+    }
+
+    @Override
+    public synchronized void setSeed(long seed) {
+        this.state = (seed ^ MULTIPLIER) & MASK;
+    }
+
+    @Override
+    protected synchronized int next(int bits) {
+        this.state = (this.state * MULTIPLIER + ADDEND) & MASK;
+        return (int) (this.state >>> (48 - bits));
+    }
+
+    @Override
+    public synchronized double nextGaussian() {
+        // polar method like java.util.Random, the second value isn't kept
+        double v1;
+        double v2;
+        double s;
+        do {
+            v1 = 2 * this.nextDouble() - 1;
+            v2 = 2 * this.nextDouble() - 1;
+            s = v1 * v1 + v2 * v2;
+        } while (s >= 1 || s == 0);
+        return v1 * StrictMath.sqrt(-2 * StrictMath.log(s) / s);
+    }
+
+    /**
+     * get the state of the generator
+     *
+     * @return the state, setState with it continues the same sequence
+     */
+    synchronized long getState() {
+        return this.state;
+    }
+
+    /**
+     * Continue the sequence of another generator
+     *
+     * @param state the state from getState
+     */
+    synchronized void setState(long state) {
+        this.state = state & MASK;
+    }
+}
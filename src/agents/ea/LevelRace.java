@@ -0,0 +1,149 @@
+package agents.ea;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Successive halving of the training levels. A genome plays the levels in stages
+ * and only goes on to the next stage if its mean score so far is in the top
+ * fraction of the genomes that finished the same stage in the previous
+ * generation. The genomes of a generation are scored independently on several
+ * threads, so the cutoffs come from the previous generation and the first
+ * generation plays every level. The levels a genome doesn't reach count as its
+ * mean score times a penalty weight. All the methods can be called from several
+ * threads.
+ */
+public class LevelRace {
+    /**
+     * Plays a genome on some of the levels
+     */
+    public interface Levels {
+        /**
+         * @param first  the index of the first level to play
+         * @param end    the index after the last level to play
+         * @param target the sum of the scores the genome needs on these levels to play the next stage,
+         *               NaN if there is no cutoff. The genome may stop as soon as it can't reach it.
+         * @return the scores of the levels, NaN for the levels that were stopped
+         */
+        double[] play(int first, int end, double target);
+    }
+
+    private int[] stageEnds;
+    private double advanceFraction;
+    private double unplayedWeight;
+    // mean score a genome needs after each stage to play the next one, NaN lets everyone through
+    private volatile double[] cutoffs;
+    // mean scores after each stage of the genomes of this generation
+    private double[][] stageScores;
+    private int[] stageCounts;
+    private AtomicLong gamesPlayed = new AtomicLong();
+    private AtomicLong gamesSkipped = new AtomicLong();
+
+    /**
+     * Create a race
+     *
+     * @param stageEnds       the number of levels played once each stage is over, increasing, the last one is all the levels
+     * @param advanceFraction the fraction of the genomes that should play the next stage
+     * @param unplayedWeight  the share of its mean score that a genome gets for each level it doesn't play
+     */
+    public LevelRace(int[] stageEnds, double advanceFraction, double unplayedWeight) {
+        for (int i = 0; i < stageEnds.length; i++) {
+            if (stageEnds[i] <= (i == 0 ? 0 : stageEnds[i - 1])) {
+                throw new IllegalArgumentException("Stage ends must be positive and increasing: " + Arrays.toString(stageEnds));
+            }
+        }
+        this.stageEnds = stageEnds.clone();
+        this.advanceFraction = advanceFraction;
+        this.unplayedWeight = unplayedWeight;
+        this.cutoffs = new double[stageEnds.length];
+        Arrays.fill(this.cutoffs, Double.NaN);
+        this.stageScores = new double[stageEnds.length][16];
+        this.stageCounts = new int[stageEnds.length];
+    }
+
+    /**
+     * Score a genome, it plays stage after stage until it falls behind the cutoff of a stage
+     *
+     * @param levels plays the genome on the levels
+     * @return the mean score over all the levels, with the penalized mean for the levels it didn't play
+     */
+    public double score(Levels levels) {
+        double[] cutoffs = this.cutoffs;
+        int levelCount = this.stageEnds[this.stageEnds.length - 1];
+        double sum = 0;
+        int played = 0;
+        for (int stage = 0; stage < this.stageEnds.length; stage++) {
+            int first = stage == 0 ? 0 : this.stageEnds[stage - 1];
+            int end = this.stageEnds[stage];
+            boolean last = stage == this.stageEnds.length - 1;
+            double target = last ? Double.NaN : cutoffs[stage] * end - sum;
+            boolean stopped = false;
+            for (double score : levels.play(first, end, target)) {
+                if (Double.isNaN(score)) {
+                    stopped = true;
+                } else {
+                    sum += score;
+                    played++;
+                }
+            }
+            if (!last) {
+                // A stopped genome is behind the cutoff, the levels it didn't finish count as 0 for the next cutoffs
+                double mean = sum / end;
+                this.record(stage, mean);
+                if (stopped || mean < cutoffs[stage]) {
+                    break;
+                }
+            }
+        }
+        this.gamesPlayed.addAndGet(played);
+        this.gamesSkipped.addAndGet(levelCount - played);
+        if (played == 0) {
+            return 0;
+        }
+        return (sum + (levelCount - played) * (sum / played) * this.unplayedWeight) / levelCount;
+    }
+
+    private synchronized void record(int stage, double mean) {
+        if (this.stageCounts[stage] == this.stageScores[stage].length) {
+            this.stageScores[stage] = Arrays.copyOf(this.stageScores[stage], this.stageCounts[stage] * 2);
+        }
+        this.stageScores[stage][this.stageCounts[stage]++] = mean;
+    }
+
+    /**
+     * Set the cutoffs of the next generation from the scores of the genomes of this one
+     */
+    public synchronized void nextGeneration() {
+        double[] next = new double[this.stageEnds.length];
+        Arrays.fill(next, Double.NaN);
+        for (int stage = 0; stage < this.stageEnds.length - 1; stage++) {
+            int count = this.stageCounts[stage];
+            if (count > 0) {
+                double[] scores = Arrays.copyOf(this.stageScores[stage], count);
+                Arrays.sort(scores);
+                int advancing = Math.max(1, (int) Math.ceil(count * this.advanceFraction));
+                next[stage] = scores[count - Math.min(advancing, count)];
+            }
+            this.stageCounts[stage] = 0;
+        }
+        this.cutoffs = next;
+    }
+
+    /**
+     * get the number of games that were played
+     *
+     * @return the games played by all the genomes so far
+     */
+    public long getGamesPlayed() {
+        return this.gamesPlayed.get();
+    }
+
+    /**
+     * get the number of games the race saved
+     *
+     * @return the games of the levels the genomes didn't reach so far
+     */
+    public long getGamesSkipped() {
+        return this.gamesSkipped.get();
+    }
+}
@@ -0,0 +1,153 @@
+package agents.ea;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import engine.core.MarioWorld;
+
+/**
+ * Parses every level once into a prototype world and hands out fresh copies of it.
+ * The prototypes are never played, a copy shares the parsed enemy templates and
+ * spawn tables of its level and only duplicates the tiles and the sprites, so it
+ * is much cheaper than reading and parsing the level text again. A level file is
+ * a text level, or a level compiled by MarioLevel.toBinary if its name ends with
+ * .lvl, which is memory mapped instead of parsed. All the methods can be called
+ * from several threads.
+ */
+public class LevelRegistry {
+    private int timer;
+    // prototypes of the level files by path and of the level texts by content
+    private ConcurrentHashMap<String, MarioWorld> files = new ConcurrentHashMap<>();
+    private ConcurrentHashMap<String, MarioWorld> contents = new ConcurrentHashMap<>();
+    private AtomicLong parsedLevels = new AtomicLong();
+    private AtomicLong parseNanos = new AtomicLong();
+    private AtomicLong copiedWorlds = new AtomicLong();
+    private AtomicLong copyNanos = new AtomicLong();
+
+    /**
+     * Create an empty registry
+     *
+     * @param timer the game timer of the worlds in milliseconds
+     */
+    public LevelRegistry(int timer) {
+        this.timer = timer;
+    }
+
+    /**
+     * Get a fresh world of a level file, the file is read and parsed on the first call only
+     *
+     * @param path the path of the level file, a .lvl file is a compiled level
+     * @return a new world at the start of the level
+     */
+    public MarioWorld newWorld(String path) {
+        return this.newWorld(path, null);
+    }
+
+    /**
+     * Reset a world to the start of a level file, reusing its containers
+     *
+     * @param path  the path of the level file, a .lvl file is a compiled level
+     * @param world the world to overwrite, null creates a new one
+     * @return the world at the start of the level
+     */
+    public MarioWorld newWorld(String path, MarioWorld world) {
+        MarioWorld prototype = this.files.computeIfAbsent(path, p -> p.endsWith(".lvl") ?
+                this.load(System.nanoTime(), p) : this.parse(System.nanoTime(), readLevel(p)));
+        if (world == null) {
+            return this.copy(prototype);
+        }
+        long start = System.nanoTime();
+        prototype.copyTo(world);
+        this.copyNanos.addAndGet(System.nanoTime() - start);
+        this.copiedWorlds.incrementAndGet();
+        return world;
+    }
+
+    /**
+     * Get a fresh world of a level text, the text is parsed on the first call only
+     *
+     * @param levelContent the text of the level
+     * @return a new world at the start of the level
+     */
+    public MarioWorld newWorldOf(String levelContent) {
+        return this.copy(this.contents.computeIfAbsent(levelContent, c -> this.parse(System.nanoTime(), c)));
+    }
+
+    // start is the time the level was requested so the file read counts as parsing
+    private MarioWorld parse(long start, String levelContent) {
+        MarioWorld world = new MarioWorld(null);
+        world.initializeLevel(levelContent, this.timer);
+        this.parseNanos.addAndGet(System.nanoTime() - start);
+        this.parsedLevels.incrementAndGet();
+        return world;
+    }
+
+    private MarioWorld load(long start, String path) {
+        MarioWorld world = new MarioWorld(null);
+        try {
+            world.initializeLevel(Paths.get(path), this.timer);
+        } catch (IOException e) {
+            System.err.println("Error loading level file: " + e.getMessage());
+            return this.parse(start, "");
+        }
+        this.parseNanos.addAndGet(System.nanoTime() - start);
+        this.parsedLevels.incrementAndGet();
+        return world;
+    }
+
+    private MarioWorld copy(MarioWorld prototype) {
+        long start = System.nanoTime();
+        MarioWorld world = prototype.clone();
+        this.copyNanos.addAndGet(System.nanoTime() - start);
+        this.copiedWorlds.incrementAndGet();
+        return world;
+    }
+
+    private static String readLevel(String path) {
+        try {
+            return new String(Files.readAllBytes(Paths.get(path)));
+        } catch (IOException e) {
+            System.err.println("Error loading level file: " + e.getMessage());
+            return "";
+        }
+    }
+
+    /**
+     * get the number of levels that were parsed
+     *
+     * @return the number of prototypes
+     */
+    public long getParsedLevels() {
+        return this.parsedLevels.get();
+    }
+
+    /**
+     * get the time spent reading and parsing levels
+     *
+     * @return the total parse time in nanoseconds
+     */
+    public long getParseNanos() {
+        return this.parseNanos.get();
+    }
+
+    /**
+     * get the number of worlds that were handed out
+     *
+     * @return the number of copies
+     */
+    public long getCopiedWorlds() {
+        return this.copiedWorlds.get();
+    }
+
+    /**
+     * get the time spent copying prototypes
+     *
+     * @return the total copy time in nanoseconds
+     */
+    public long getCopyNanos() {
+        return this.copyNanos.get();
+    }
+}
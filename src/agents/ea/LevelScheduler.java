@@ -0,0 +1,207 @@
+package agents.ea;
+
+import java.io.Closeable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import engine.core.MarioForwardModel;
+import engine.core.MarioWorld;
+
+/**
+ * Plays NEAT networks on levels as one task per network and level on its own
+ * fork join pool. The trainer scores a genome on one thread, so a genome that
+ * plays many levels used to keep its thread busy while the others were idle,
+ * now its levels are spread over all the threads and the idle threads steal
+ * them. Every thread keeps one world per level and resets it for each game.
+ * <p>
+ * The tasks of a genome can also be cancelled once it can't reach the target
+ * score even with the best score any genome had so far on each of the levels
+ * that are left, see setBestScoreCancellation. That is a heuristic and off by
+ * default: the best score so far isn't an upper bound of the score of a level,
+ * and which scores are known when a level finishes depends on the timing of the
+ * threads, so a genome can be cancelled in one run and not in another.
+ */
+public class LevelScheduler implements Closeable {
+    /**
+     * A game of a network on a world
+     */
+    public interface Game {
+        /**
+         * @param network   the network, only used by this game
+         * @param model     the model of the world at the start of the level
+         * @param cancelled becomes true when the score of the game isn't needed anymore
+         * @return the score, NaN if the game was cancelled
+         */
+        double play(CompiledNEATNetwork network, MarioForwardModel model, AtomicBoolean cancelled);
+    }
+
+    // The scores of the levels of one genome, they are summed without locks
+    private class Evaluation {
+        private CompiledNEATNetwork network;
+        private int first;
+        private double target;
+        private double[] scores;
+        // bit i is set once the score of level first + i is written
+        private AtomicInteger finished = new AtomicInteger();
+        private AtomicInteger pending;
+        private AtomicBoolean cancelled = new AtomicBoolean();
+        private CompletableFuture<double[]> done = new CompletableFuture<>();
+
+        Evaluation(CompiledNEATNetwork network, int first, int end, double target) {
+            this.network = network;
+            this.first = first;
+            this.target = target;
+            this.scores = new double[end - first];
+            this.pending = new AtomicInteger(end - first);
+        }
+
+        void play(int index) {
+            try {
+                double score = Double.NaN;
+                if (!this.cancelled.get()) {
+                    score = LevelScheduler.this.playLevel(this.network.copy(), this.first + index, this.cancelled);
+                }
+                this.scores[index] = score;
+                if (Double.isNaN(score)) {
+                    LevelScheduler.this.cancelledGames.incrementAndGet();
+                } else {
+                    LevelScheduler.this.updateBest(this.first + index, score);
+                    this.checkTarget(this.finished.accumulateAndGet(1 << index, (a, b) -> a | b));
+                }
+                if (this.pending.decrementAndGet() == 0) {
+                    this.done.complete(this.scores);
+                }
+            } catch (RuntimeException e) {
+                this.cancelled.set(true);
+                this.done.completeExceptionally(e);
+            }
+        }
+
+        // Cancel the levels that are left if even the best scores so far can't reach the target
+        private void checkTarget(int finishedLevels) {
+            if (!LevelScheduler.this.bestScoreCancellation || Double.isNaN(this.target)) {
+                return;
+            }
+            double bound = 0;
+            for (int i = 0; i < this.scores.length; i++) {
+                if ((finishedLevels & (1 << i)) != 0) {
+                    bound += this.scores[i];
+                } else {
+                    bound += Double.longBitsToDouble(LevelScheduler.this.bestScores.get(this.first + i));
+                }
+            }
+            if (bound < this.target) {
+                this.cancelled.set(true);
+            }
+        }
+    }
+
+    private ForkJoinPool pool;
+    private LevelRegistry registry;
+    private String[] levels;
+    private Game game;
+    // best score of each level so far, it bounds the score of the levels a genome hasn't finished
+    private AtomicLongArray bestScores;
+    private ThreadLocal<MarioWorld[]> worlds;
+    private AtomicLong cancelledGames = new AtomicLong();
+    private volatile boolean bestScoreCancellation = false;
+
+    /**
+     * Create a scheduler and its threads
+     *
+     * @param registry the parsed levels
+     * @param levels   the paths of the levels the networks play
+     * @param game     plays a network on a level
+     * @param threads  the number of games that are played at the same time
+     */
+    public LevelScheduler(LevelRegistry registry, String[] levels, Game game, int threads) {
+        this.pool = new ForkJoinPool(Math.max(1, threads));
+        this.registry = registry;
+        this.levels = levels.clone();
+        this.game = game;
+        this.bestScores = new AtomicLongArray(levels.length);
+        for (int i = 0; i < levels.length; i++) {
+            this.bestScores.set(i, Double.doubleToLongBits(Double.POSITIVE_INFINITY));
+        }
+        this.worlds = ThreadLocal.withInitial(() -> new MarioWorld[this.levels.length]);
+    }
+
+    /**
+     * Set if the games of a network are cancelled once its target can't be reached with the best
+     * scores so far on its levels that are left. The best scores aren't upper bounds and depend on
+     * the timing of the threads, so this heuristic makes the scores of a seeded run differ between
+     * runs.
+     *
+     * @param enabled true to cancel games by the best scores so far (false by default)
+     */
+    public void setBestScoreCancellation(boolean enabled) {
+        this.bestScoreCancellation = enabled;
+    }
+
+    /**
+     * Play a network on some of the levels and wait for the scores, the caller must not be a thread of the scheduler
+     *
+     * @param network the compiled network, it isn't used by the games
+     * @param first   the index of the first level to play
+     * @param end     the index after the last level to play
+     * @param target  the sum of the scores the network needs on these levels, NaN never cancels the games. It
+     *                only cancels games when setBestScoreCancellation enabled it.
+     * @return the scores of the levels, NaN for the games that were cancelled
+     */
+    public double[] play(CompiledNEATNetwork network, int first, int end, double target) {
+        if (first >= end) {
+            return new double[0];
+        }
+        if (end - first > 31) {
+            throw new IllegalArgumentException("At most 31 levels can be played at once: " + (end - first));
+        }
+        Evaluation evaluation = new Evaluation(network, first, end, target);
+        for (int i = 0; i < end - first; i++) {
+            int index = i;
+            this.pool.execute(() -> evaluation.play(index));
+        }
+        try {
+            return evaluation.done.join();
+        } catch (CompletionException e) {
+            throw new RuntimeException("Level game failed", e.getCause());
+        }
+    }
+
+    private double playLevel(CompiledNEATNetwork network, int level, AtomicBoolean cancelled) {
+        MarioWorld[] threadWorlds = this.worlds.get();
+        threadWorlds[level] = this.registry.newWorld(this.levels[level], threadWorlds[level]);
+        return this.game.play(network, new MarioForwardModel(threadWorlds[level]), cancelled);
+    }
+
+    private void updateBest(int level, double score) {
+        long current = this.bestScores.get(level);
+        double best = Double.longBitsToDouble(current);
+        while ((best == Double.POSITIVE_INFINITY || score > best) &&
+                !this.bestScores.compareAndSet(level, current, Double.doubleToLongBits(score))) {
+            current = this.bestScores.get(level);
+            best = Double.longBitsToDouble(current);
+        }
+    }
+
+    /**
+     * get the number of games that were cancelled before they ended
+     *
+     * @return the cancelled games so far
+     */
+    public long getCancelledGames() {
+        return this.cancelledGames.get();
+    }
+
+    /**
+     * Stop the threads, the games that were started are played to the end
+     */
+    @Override
+    public void close() {
+        this.pool.shutdown();
+    }
+}
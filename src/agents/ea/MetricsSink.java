@@ -0,0 +1,543 @@
+package agents.ea;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import engine.helper.GameStatus;
+
+/**
+ * Writes the statistics of every generation of an evolution on a background
+ * thread. Producers copy a record into a fixed ring of slots without locks and
+ * never wait, if the writer falls behind by a whole ring the record is dropped
+ * and counted. The output format is pluggable, CSV, newline separated JSON,
+ * compact binary and a human readable text are provided.
+ */
+public class MetricsSink {
+    /**
+     * The statistics of one generation. Values that the evolution doesn't measure
+     * are NaN for decimals, 0 for counters and null for the game status.
+     */
+    public static class Record {
+        private int generation;
+        private double bestFitness;
+        private double averageFitness;
+        private double bestCompletion = Double.NaN;
+        private double averageCompletion = Double.NaN;
+        private int remainingTime;
+        private int killsTotal;
+        private int collectedMushrooms;
+        private int collectedCoins;
+        private GameStatus gameStatus;
+        private int[] stoppedGames = new int[3];
+        private long[] ticksCut = new long[3];
+        private double evaluationsPerSecond = Double.NaN;
+        private double cacheHitRate = Double.NaN;
+        private long gamesPlayed;
+        private long gamesSkipped;
+        private long gamesCancelled;
+        private long parseNanos;
+        private long copyNanos;
+        private long simulationNanos;
+
+        /**
+         * Set the fitness of the generation
+         *
+         * @param generation     the generation number, starting at 1
+         * @param bestFitness    the fitness of the best individual
+         * @param averageFitness the average fitness of the population
+         */
+        public void setFitness(int generation, double bestFitness, double averageFitness) {
+            this.generation = generation;
+            this.bestFitness = bestFitness;
+            this.averageFitness = averageFitness;
+        }
+
+        /**
+         * Set the completion percentages of the generation
+         *
+         * @param bestCompletion    the completion of the best individual
+         * @param averageCompletion the average completion of the population
+         */
+        public void setCompletion(double bestCompletion, double averageCompletion) {
+            this.bestCompletion = bestCompletion;
+            this.averageCompletion = averageCompletion;
+        }
+
+        /**
+         * Set the statistics of the game of the best individual
+         */
+        public void setBestGame(GameStatus gameStatus, int remainingTime, int killsTotal, int collectedMushrooms,
+                                int collectedCoins) {
+            this.gameStatus = gameStatus;
+            this.remainingTime = remainingTime;
+            this.killsTotal = killsTotal;
+            this.collectedMushrooms = collectedMushrooms;
+            this.collectedCoins = collectedCoins;
+        }
+
+        /**
+         * Set the games an early termination policy stopped and the ticks it cut
+         *
+         * @param policy the index of the policy (stall, fitness bound, horizon)
+         * @param games  the number of stopped games
+         * @param ticks  the ticks that were left on the game timers
+         */
+        public void setEarlyStops(int policy, int games, long ticks) {
+            this.stoppedGames[policy] = games;
+            this.ticksCut[policy] = ticks;
+        }
+
+        /**
+         * Set the throughput of the evaluations
+         *
+         * @param evaluationsPerSecond the evaluations of individuals per second
+         * @param cacheHitRate         the share of evaluations that were found in a cache
+         */
+        public void setRates(double evaluationsPerSecond, double cacheHitRate) {
+            this.evaluationsPerSecond = evaluationsPerSecond;
+            this.cacheHitRate = cacheHitRate;
+        }
+
+        /**
+         * Set the games of the generation
+         *
+         * @param gamesPlayed  the games that were played
+         * @param gamesSkipped the games a level race saved
+         */
+        public void setGames(long gamesPlayed, long gamesSkipped) {
+            this.setGames(gamesPlayed, gamesSkipped, 0);
+        }
+
+        /**
+         * Set the games of the generation
+         *
+         * @param gamesPlayed    the games that were played
+         * @param gamesSkipped   the games a level race saved
+         * @param gamesCancelled the games that were cancelled before they ended
+         */
+        public void setGames(long gamesPlayed, long gamesSkipped, long gamesCancelled) {
+            this.gamesPlayed = gamesPlayed;
+            this.gamesSkipped = gamesSkipped;
+            this.gamesCancelled = gamesCancelled;
+        }
+
+        /**
+         * Set the time the games of the generation spent on the levels, summed over the threads
+         *
+         * @param parseNanos      the nanoseconds spent parsing levels
+         * @param copyNanos       the nanoseconds spent copying prototype worlds
+         * @param simulationNanos the nanoseconds spent playing the games
+         */
+        public void setGameTimes(long parseNanos, long copyNanos, long simulationNanos) {
+            this.parseNanos = parseNanos;
+            this.copyNanos = copyNanos;
+            this.simulationNanos = simulationNanos;
+        }
+
+        public int getGeneration() {
+            return this.generation;
+        }
+
+        public double getBestFitness() {
+            return this.bestFitness;
+        }
+
+        public double getAverageFitness() {
+            return this.averageFitness;
+        }
+
+        public double getBestCompletion() {
+            return this.bestCompletion;
+        }
+
+        public double getAverageCompletion() {
+            return this.averageCompletion;
+        }
+
+        public int getRemainingTime() {
+            return this.remainingTime;
+        }
+
+        public int getKillsTotal() {
+            return this.killsTotal;
+        }
+
+        public int getCollectedMushrooms() {
+            return this.collectedMushrooms;
+        }
+
+        public int getCollectedCoins() {
+            return this.collectedCoins;
+        }
+
+        public GameStatus getGameStatus() {
+            return this.gameStatus;
+        }
+
+        public int getStoppedGames(int policy) {
+            return this.stoppedGames[policy];
+        }
+
+        public long getTicksCut(int policy) {
+            return this.ticksCut[policy];
+        }
+
+        public double getEvaluationsPerSecond() {
+            return this.evaluationsPerSecond;
+        }
+
+        public double getCacheHitRate() {
+            return this.cacheHitRate;
+        }
+
+        public long getGamesPlayed() {
+            return this.gamesPlayed;
+        }
+
+        public long getGamesSkipped() {
+            return this.gamesSkipped;
+        }
+
+        public long getGamesCancelled() {
+            return this.gamesCancelled;
+        }
+
+        public long getParseNanos() {
+            return this.parseNanos;
+        }
+
+        public long getCopyNanos() {
+            return this.copyNanos;
+        }
+
+        public long getSimulationNanos() {
+            return this.simulationNanos;
+        }
+
+        void copyFrom(Record other) {
+            this.setFitness(other.generation, other.bestFitness, other.averageFitness);
+            this.setCompletion(other.bestCompletion, other.averageCompletion);
+            this.setBestGame(other.gameStatus, other.remainingTime, other.killsTotal, other.collectedMushrooms,
+                    other.collectedCoins);
+            for (int policy = 0; policy < this.stoppedGames.length; policy++) {
+                this.setEarlyStops(policy, other.stoppedGames[policy], other.ticksCut[policy]);
+            }
+            this.setRates(other.evaluationsPerSecond, other.cacheHitRate);
+            this.setGames(other.gamesPlayed, other.gamesSkipped, other.gamesCancelled);
+            this.setGameTimes(other.parseNanos, other.copyNanos, other.simulationNanos);
+        }
+    }
+
+    /**
+     * The way records are written to the output
+     */
+    public interface Format {
+        /**
+         * Called once before the first record
+         */
+        void writeHeader(DataOutputStream out) throws IOException;
+
+        void write(Record record, DataOutputStream out) throws IOException;
+    }
+
+    /**
+     * The columns of the EA log file, one line per generation. Decimals always use a
+     * point, whatever the default locale is.
+     */
+    public static final Format CSV = new Format() {
+        @Override
+        public void writeHeader(DataOutputStream out) throws IOException {
+            writeText(out, "Generation,BestFitness,AvgFitness,BestCompletion,AvgCompletion,RemainingTime,KillsTotal," +
+                    "CollectedMushrooms,CollectedCoins,GameStatus,StallGames,StallTicksCut,FitnessBoundGames," +
+                    "FitnessBoundTicksCut,HorizonGames,HorizonTicksCut,EvaluationsPerSecond,CacheHitRate,GamesPlayed," +
+                    "GamesSkipped,GamesCancelled,ParseNanos,CopyNanos,SimulationNanos\n");
+        }
+
+        @Override
+        public void write(Record r, DataOutputStream out) throws IOException {
+            writeText(out, String.format(Locale.ROOT, "%d,%f,%f,%f,%f,%d,%d,%d,%d,%s,%d,%d,%d,%d,%d,%d,%f,%f,%d,%d,%d,%d,%d,%d\n",
+                    r.generation, r.bestFitness, r.averageFitness, r.bestCompletion, r.averageCompletion,
+                    r.remainingTime, r.killsTotal, r.collectedMushrooms, r.collectedCoins,
+                    r.gameStatus == null ? "" : r.gameStatus.toString(),
+                    r.stoppedGames[0], r.ticksCut[0], r.stoppedGames[1], r.ticksCut[1], r.stoppedGames[2], r.ticksCut[2],
+                    r.evaluationsPerSecond, r.cacheHitRate, r.gamesPlayed, r.gamesSkipped, r.gamesCancelled,
+                    r.parseNanos, r.copyNanos, r.simulationNanos));
+        }
+    };
+
+    /**
+     * One JSON object per line, unknown values are null
+     */
+    public static final Format JSON = new Format() {
+        @Override
+        public void writeHeader(DataOutputStream out) {
+        }
+
+        @Override
+        public void write(Record r, DataOutputStream out) throws IOException {
+            writeText(out, "{\"generation\":" + r.generation +
+                    ",\"best_fitness\":" + json(r.bestFitness) +
+                    ",\"average_fitness\":" + json(r.averageFitness) +
+                    ",\"best_completion\":" + json(r.bestCompletion) +
+                    ",\"average_completion\":" + json(r.averageCompletion) +
+                    ",\"remaining_time\":" + r.remainingTime +
+                    ",\"kills_total\":" + r.killsTotal +
+                    ",\"collected_mushrooms\":" + r.collectedMushrooms +
+                    ",\"collected_coins\":" + r.collectedCoins +
+                    ",\"game_status\":" + (r.gameStatus == null ? "null" : "\"" + r.gameStatus + "\"") +
+                    ",\"stopped_games\":[" + r.stoppedGames[0] + "," + r.stoppedGames[1] + "," + r.stoppedGames[2] + "]" +
+                    ",\"ticks_cut\":[" + r.ticksCut[0] + "," + r.ticksCut[1] + "," + r.ticksCut[2] + "]" +
+                    ",\"evaluations_per_second\":" + json(r.evaluationsPerSecond) +
+                    ",\"cache_hit_rate\":" + json(r.cacheHitRate) +
+                    ",\"games_played\":" + r.gamesPlayed +
+                    ",\"games_skipped\":" + r.gamesSkipped +
+                    ",\"games_cancelled\":" + r.gamesCancelled +
+                    ",\"parse_nanos\":" + r.parseNanos +
+                    ",\"copy_nanos\":" + r.copyNanos +
+                    ",\"simulation_nanos\":" + r.simulationNanos + "}\n");
+        }
+
+        private String json(double value) {
+            return Double.isNaN(value) || Double.isInfinite(value) ? "null" : Double.toString(value);
+        }
+    };
+
+    /**
+     * Fixed size records after a magic number, the game status is its ordinal or -1
+     */
+    public static final Format BINARY = new Format() {
+        @Override
+        public void writeHeader(DataOutputStream out) throws IOException {
+            out.writeInt(0x4D4D5333);
+        }
+
+        @Override
+        public void write(Record r, DataOutputStream out) throws IOException {
+            out.writeInt(r.generation);
+            out.writeDouble(r.bestFitness);
+            out.writeDouble(r.averageFitness);
+            out.writeDouble(r.bestCompletion);
+            out.writeDouble(r.averageCompletion);
+            out.writeInt(r.remainingTime);
+            out.writeInt(r.killsTotal);
+            out.writeInt(r.collectedMushrooms);
+            out.writeInt(r.collectedCoins);
+            out.writeByte(r.gameStatus == null ? -1 : r.gameStatus.ordinal());
+            for (int policy = 0; policy < 3; policy++) {
+                out.writeInt(r.stoppedGames[policy]);
+                out.writeLong(r.ticksCut[policy]);
+            }
+            out.writeDouble(r.evaluationsPerSecond);
+            out.writeDouble(r.cacheHitRate);
+            out.writeLong(r.gamesPlayed);
+            out.writeLong(r.gamesSkipped);
+            out.writeLong(r.gamesCancelled);
+            out.writeLong(r.parseNanos);
+            out.writeLong(r.copyNanos);
+            out.writeLong(r.simulationNanos);
+        }
+    };
+
+    /**
+     * The progress lines that the agents print to the console
+     */
+    public static final Format TEXT = new Format() {
+        @Override
+        public void writeHeader(DataOutputStream out) {
+        }
+
+        @Override
+        public void write(Record r, DataOutputStream out) throws IOException {
+            StringBuilder line = new StringBuilder();
+            line.append("Generation ").append(r.generation)
+                    .append(" - Best: ").append(r.bestFitness)
+                    .append(", Avg: ").append(r.averageFitness);
+            if (!Double.isNaN(r.bestCompletion)) {
+                line.append(", Best Completion: ").append(r.bestCompletion)
+                        .append(", Avg Completion: ").append(r.averageCompletion);
+            }
+            if (!Double.isNaN(r.evaluationsPerSecond)) {
+                line.append(String.format(Locale.ROOT, ", Evaluations/s: %.1f", r.evaluationsPerSecond));
+            }
+            if (!Double.isNaN(r.cacheHitRate)) {
+                line.append(String.format(Locale.ROOT, ", Cache hit rate: %.3f", r.cacheHitRate));
+            }
+            if (r.gamesSkipped > 0 || r.gamesCancelled > 0) {
+                line.append(", Games: ").append(r.gamesPlayed).append(" played, ").append(r.gamesSkipped).append(" skipped");
+                if (r.gamesCancelled > 0) {
+                    line.append(", ").append(r.gamesCancelled).append(" cancelled");
+                }
+            }
+            line.append('\n');
+            if (r.parseNanos + r.copyNanos + r.simulationNanos > 0) {
+                line.append(String.format(Locale.ROOT, "Level parsing: %.1f ms, world copies: %.1f ms, simulation: %.1f s\n",
+                        r.parseNanos / 1e6, r.copyNanos / 1e6, r.simulationNanos / 1e9));
+            }
+            if (r.stoppedGames[0] + r.stoppedGames[1] + r.stoppedGames[2] > 0) {
+                line.append("Early stops - Stall: ").append(r.stoppedGames[0]).append(" games, ").append(r.ticksCut[0]).append(" ticks")
+                        .append(", Fitness bound: ").append(r.stoppedGames[1]).append(" games, ").append(r.ticksCut[1]).append(" ticks")
+                        .append(", Horizon: ").append(r.stoppedGames[2]).append(" games, ").append(r.ticksCut[2]).append(" ticks\n");
+            }
+            writeText(out, line.toString());
+        }
+    };
+
+    private static void writeText(DataOutputStream out, String text) throws IOException {
+        out.write(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private Format format;
+    private DataOutputStream out;
+    private boolean ownsStream;
+    private Record[] slots;
+    // sequence number of the record in each slot once it is written
+    private AtomicLongArray published;
+    // whether the record in each slot was offered after close and isn't written
+    private boolean[] discarded;
+    private AtomicLong claimed = new AtomicLong();
+    private volatile long consumed = 0;
+    private AtomicLong dropped = new AtomicLong();
+    private volatile boolean closed = false;
+    private Thread writer;
+
+    /**
+     * Create a sink that writes to a file, the file is replaced
+     *
+     * @param file   the output file
+     * @param format the format of the records
+     * @throws IOException if the file can't be created
+     */
+    public MetricsSink(File file, Format format) throws IOException {
+        this(new FileOutputStream(file), format, 1024);
+        this.ownsStream = true;
+    }
+
+    /**
+     * Create a sink that writes to a stream, close flushes the stream but doesn't close it
+     *
+     * @param stream   the output stream
+     * @param format   the format of the records
+     * @param capacity the number of records that can wait for the writer, rounded up to a power of two
+     */
+    public MetricsSink(OutputStream stream, Format format, int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1);
+        this.format = format;
+        this.out = new DataOutputStream(new BufferedOutputStream(stream));
+        this.slots = new Record[size];
+        this.published = new AtomicLongArray(size);
+        this.discarded = new boolean[size];
+        for (int i = 0; i < size; i++) {
+            this.slots[i] = new Record();
+            this.published.set(i, -1);
+        }
+        this.writer = new Thread(this::writeRecords, "metrics-sink");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Queue a copy of the record for the writer without waiting
+     *
+     * @param record the statistics, the caller can reuse it after the call
+     * @return false if the record was dropped because the writer is behind or the sink is closed,
+     * a record for which it returns true is always written
+     */
+    public boolean offer(Record record) {
+        long sequence;
+        do {
+            sequence = this.claimed.get();
+            if (this.closed || sequence - this.consumed >= this.slots.length) {
+                this.dropped.incrementAndGet();
+                return false;
+            }
+        } while (!this.claimed.compareAndSet(sequence, sequence + 1));
+        int slot = (int) (sequence & (this.slots.length - 1));
+        // If close came before the claim, the writer may have stopped already. Then the slot
+        // is still published, so a writer that is waiting for it moves on, but isn't written.
+        boolean accepted = !this.closed;
+        if (accepted) {
+            this.slots[slot].copyFrom(record);
+        } else {
+            this.dropped.incrementAndGet();
+        }
+        this.discarded[slot] = !accepted;
+        this.published.set(slot, sequence);
+        return accepted;
+    }
+
+    /**
+     * get the number of records that were dropped
+     *
+     * @return the number of records offer rejected
+     */
+    public long getDropped() {
+        return this.dropped.get();
+    }
+
+    private void writeRecords() {
+        boolean failed = false;
+        try {
+            this.format.writeHeader(this.out);
+        } catch (IOException e) {
+            failed = true;
+            System.err.println("Error writing metrics: " + e.getMessage());
+        }
+        while (true) {
+            long sequence = this.consumed;
+            int slot = (int) (sequence & (this.slots.length - 1));
+            if (this.published.get(slot) == sequence) {
+                if (!failed && !this.discarded[slot]) {
+                    try {
+                        this.format.write(this.slots[slot], this.out);
+                    } catch (IOException e) {
+                        // Keep taking the records so the producers never fill the ring
+                        failed = true;
+                        System.err.println("Error writing metrics: " + e.getMessage());
+                    }
+                }
+                this.consumed = sequence + 1;
+                continue;
+            }
+            try {
+                this.out.flush();
+            } catch (IOException e) {
+                failed = true;
+            }
+            if (this.closed && this.claimed.get() == this.consumed) {
+                return;
+            }
+            LockSupport.parkNanos(this, 1000000);
+        }
+    }
+
+    /**
+     * Write the queued records and stop the writer, later records are dropped
+     */
+    public void close() {
+        this.closed = true;
+        LockSupport.unpark(this.writer);
+        try {
+            this.writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            if (this.ownsStream) {
+                this.out.close();
+            } else {
+                this.out.flush();
+            }
+        } catch (IOException e) {
+            System.err.println("Error closing metrics: " + e.getMessage());
+        }
+    }
+}
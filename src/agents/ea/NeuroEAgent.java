@@ -1,12 +1,9 @@
 package agents.ea;
 
-import org.encog.Encog;
-import org.encog.engine.network.activation.ActivationSigmoid;
 import org.encog.ml.CalculateScore;
 import org.encog.ml.MLMethod;
-import org.encog.ml.data.MLData;
-import org.encog.ml.data.basic.BasicMLData;
 import org.encog.ml.ea.train.EvolutionaryAlgorithm;
+import org.encog.ml.ea.train.basic.TrainEA;
 import org.encog.neural.neat.NEATNetwork;
 import org.encog.neural.neat.NEATPopulation;
 import org.encog.neural.neat.NEATUtil;
@@ -21,15 +18,22 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
-import engine.core.MarioWorld;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class NeuroEAgent implements MarioAgent {
 
     private NEATNetwork neatNetwork;
-    private EvolutionaryAlgorithm trainer;
+    private CompiledNEATNetwork compiledNetwork;
+    private double[] actionInputs;
+    private int[] actionGrid;
+    private float[] actionVelocity = new float[2];
     private NEATPopulation population;
     private boolean isTrained = false;
-    private MarioForwardModel seedModel;
 
     private static final int POPULATION_SIZE = 300;
     private static final int MAX_GENERATIONS = 1500;
@@ -47,27 +51,26 @@ public class NeuroEAgent implements MarioAgent {
             "./levels/original/lvl-9.txt",
             "./levels/original/lvl-10.txt",
     };
-    // private String currentLevel;
-    private MarioForwardModel currentSim;
-    private String currentLevelData;
-    double bestAvgFitness = Double.NEGATIVE_INFINITY;
-    Genome bestAvgGenome = null;
+    // Scores the genomes on the workers of a farm when it is set
+    private EvaluationFarm evaluationFarm;
+    private int farmThreads;
+    // Number of games played at the same time during training when there is no farm
+    private int evaluationThreads = Runtime.getRuntime().availableProcessors();
+    private boolean bestScoreCancellation = false; // Cancel the games of a race stage by the best scores so far
+    // Statistics of every generation
+    private List<MetricsSink> metricsSinks = new ArrayList<>();
+    private AtomicLong scoredGenomes = new AtomicLong();
+    private String csvPath = "neat_mario_results.csv"; // null doesn't write the CSV log
+    // Plays the first 2 levels, then the top quarter plays 3 more and the top quarter of those the rest
+    private LevelRace levelRace = new LevelRace(new int[]{2, 5, TRAINING_LEVELS.length}, 0.25, 0.5);
+    // Parsed training levels, every game starts from a copy of a prototype world
+    private static final LevelRegistry LEVELS = new LevelRegistry(30 * 1000);
+    private static final AtomicLong simulationNanos = new AtomicLong();
 
     @Override
     public void initialize(MarioForwardModel model, MarioTimer timer) {
 
         if (!isTrained) {
-            
-            // for (int i = 0; i < TRAINING_LEVELS.length; i++) {
-            //     currentLevel = TRAINING_LEVELS[i];
-            //     System.out.println("Level " + (i+1) + " Traning...");
-            //     // Load the level
-            //     currentLevel = PlayNEATMario.getLevel(currentLevel);
-            // }
-
-            // Clone initial model for repeated simulations
-            // seedModel = model.clone();
-
             int[][] screenGrid = model.getMarioCompleteObservation();
             int rows = screenGrid.length;
             int cols = screenGrid[0].length;
@@ -78,97 +81,116 @@ public class NeuroEAgent implements MarioAgent {
             population.setInitialConnectionDensity(0.5);
             population.reset();
 
-            trainer = NEATUtil.constructNEATTrainer(population, new CalculateScore() {
+            // Ship the training levels to the farm workers once, the jobs only name them
+            int[] farmLevels = new int[TRAINING_LEVELS.length];
+            if (evaluationFarm != null) {
+                for (int i = 0; i < TRAINING_LEVELS.length; i++) {
+                    farmLevels[i] = evaluationFarm.addNetworkLevel(getLevel(TRAINING_LEVELS[i]));
+                }
+            }
+
+            // Without a race every genome plays all the levels
+            LevelRace race = levelRace != null ? levelRace : new LevelRace(new int[]{TRAINING_LEVELS.length}, 1, 0);
+            // Plays the levels of the genomes as separate tasks so a genome that plays many levels doesn't hold up a thread
+            LevelScheduler scheduler = evaluationFarm == null ?
+                    new LevelScheduler(LEVELS, TRAINING_LEVELS, NeuroEAgent::playGame, evaluationThreads) : null;
+            if (scheduler != null) {
+                scheduler.setBestScoreCancellation(bestScoreCancellation);
+            }
+            TrainEA neatTrainer = NEATUtil.constructNEATTrainer(population, new CalculateScore() {
                 @Override
                 public double calculateScore(MLMethod method) {
                     // Evaluate network by simulating game on cloned model
                     NEATNetwork network = (NEATNetwork) method;
-                    double sum = 0;
-
-                    for (String levelPath : TRAINING_LEVELS) {
+                    scoredGenomes.incrementAndGet();
 
-                        String levelData = getLevel(levelPath);
-                        MarioWorld world = new MarioWorld(null);
-                        world.initializeLevel(levelData, 30 * 1000);
-                        MarioForwardModel sim = new MarioForwardModel(world);
-                        sum += evaluateNetwork(network, sim);
+                    if (evaluationFarm != null) {
+                        return race.score((first, end, target) ->
+                                EvaluationFarm.await(evaluationFarm.submit(network, Arrays.copyOfRange(farmLevels, first, end))));
                     }
-                    return sum / TRAINING_LEVELS.length;
 
-                    // Initialize a new world
-                    // MarioWorld world = new MarioWorld(null);
-                    // world.initializeLevel(currentLevelData, 30 * 1000);
-
-                    // MarioForwardModel sim = new MarioForwardModel(world);
-
-                    // /// This works but trains only on 1 level
-                    // // MarioForwardModel sim = currentSim.clone();
-                    // // MarioForwardModel sim = new MarioForwardModel(currentLevel);
-                    // return evaluateNetwork(network, sim);
+                    CompiledNEATNetwork compiled = new CompiledNEATNetwork(network);
+                    return race.score((first, end, target) -> scheduler.play(compiled, first, end, target));
                 }
 
                 @Override public boolean shouldMinimize() { return false; }
                 @Override public boolean requireSingleThreaded() { return false; }
             });
-
-            for (int gen=0; gen<MAX_GENERATIONS; gen++) {
-                trainer.iteration();
-                System.out.println("Gen " + gen + ", AvgFitness: " + trainer.getBestGenome().getScore());
-
+            if (evaluationFarm != null) {
+                // Each trainer thread waits for the score of one genome, so more threads keep more workers busy
+                neatTrainer.setThreadCount(farmThreads);
+            } else {
+                // The trainer threads only wait for the scheduler, twice its threads keep its queue full
+                neatTrainer.setThreadCount(2 * evaluationThreads);
+            }
+            EvolutionaryAlgorithm trainer = neatTrainer;
+
+            // The progress is printed by the thread of the sink, so the training never waits for the console
+            MetricsSink console = new MetricsSink(System.out, MetricsSink.TEXT, 1024);
+            MetricsSink csv = null;
+            if (csvPath != null) {
+                try {
+                    csv = new MetricsSink(new File(csvPath), MetricsSink.CSV);
+                } catch (IOException e) {
+                    System.err.println("Error creating CSV file: " + e.getMessage());
+                }
             }
-            // Genome bestOverall = trainer.getBestGenome();
-
-
-            // Split into 6 epochs of 5 generations cycling through each level. For a total of 30 generations on each level. 
-            // Evolve for specified generations
-            // int total_gens = 0;
-            // double sum = 0;
-            // for (int epoch = 0; epoch < 6; epoch++) {
-
-            //     System.out.println("Epoch " + (epoch + 1) + " of 6");
-            //     for (int lvl = 0; lvl < TRAINING_LEVELS.length; lvl++) {
-
-            //         // Load the level
-            //         System.out.println("Level " + (lvl + 1));
-            //         currentLevelData = getLevel(TRAINING_LEVELS[lvl]);
-
-            //         for (int gen = 0; gen < 5; gen++, total_gens++) {
-            //             trainer.iteration();
-            //             double bestFitness = trainer.getBestGenome().getScore();
-            //             Genome currentBest = trainer.getBestGenome();
-
-            //             NEATNetwork bestNetwork = (NEATNetwork) trainer.getCODEC().decode(currentBest);
-
-            //             // Keep track of the best average genome
-            //             for (String levelPath: TRAINING_LEVELS) {
-            //                 MarioWorld w = new MarioWorld(null);
-            //                 w.initializeLevel(getLevel(levelPath), 30 * 1000);
-            //                 MarioForwardModel evalSim = new MarioForwardModel(w);
-            //                 // Add together score across all levels
-            //                 sum += evaluateNetwork(bestNetwork, evalSim);
-            //             }
-            //             // Calculate the average fitness across all levels
-            //             double avgAll = sum / TRAINING_LEVELS.length;
-            //             sum = 0;
-
-            //             if (avgAll > bestAvgFitness) {
-            //                 bestAvgFitness = avgAll;
-            //                 bestAvgGenome = currentBest;
-            //             }
-            //             // double percent_complete = bestNetwork.getCompletionPercentage();
-            //             System.out.println("Gen " + total_gens + ", " + "AvgFitness " + bestAvgFitness + ", Best Fitness: " + bestFitness); //+ ", Completion: " + percent_complete);
-
-            //         }
-            //     }
-            // }
-            // for (int i = 0; i < MAX_GENERATIONS; i++) {
-            //     trainer.iteration();
-            //     System.out.println("Gen " + i + ", Best Fitness: " + trainer.getBestGenome().getScore());
-            // }
+            MetricsSink.Record metrics = new MetricsSink.Record();
+            // The levels are played on this process or on the farm workers
+            long[] trainingStart = getTrainingNanos();
+            long[] generationStart = trainingStart;
+            long cancelledStart = scheduler != null ? scheduler.getCancelledGames() : 0;
+            try {
+                for (int gen=0; gen<MAX_GENERATIONS; gen++) {
+                    long start = System.nanoTime();
+                    long scored = scoredGenomes.get();
+                    long played = race.getGamesPlayed();
+                    long skipped = race.getGamesSkipped();
+                    long cancelled = scheduler != null ? scheduler.getCancelledGames() : 0;
+                    trainer.iteration();
+                    race.nextGeneration();
+                    double seconds = (System.nanoTime() - start) / 1e9;
+
+                    List<Genome> genomes = population.flatten();
+                    double totalScore = 0;
+                    for (Genome genome : genomes) {
+                        totalScore += genome.getScore();
+                    }
+                    metrics.setFitness(gen + 1, trainer.getBestGenome().getScore(), totalScore / genomes.size());
+                    metrics.setRates((scoredGenomes.get() - scored) / seconds, Double.NaN);
+                    long[] nanos = getTrainingNanos();
+                    metrics.setGames(race.getGamesPlayed() - played, race.getGamesSkipped() - skipped,
+                            (scheduler != null ? scheduler.getCancelledGames() : 0) - cancelled);
+                    metrics.setGameTimes(nanos[0] - generationStart[0], nanos[1] - generationStart[1],
+                            nanos[2] - generationStart[2]);
+                    generationStart = nanos;
+                    console.offer(metrics);
+                    if (csv != null) {
+                        csv.offer(metrics);
+                    }
+                    for (MetricsSink sink : metricsSinks) {
+                        sink.offer(metrics);
+                    }
+                }
+            } finally {
+                // Stops the threads of the trainer, they would keep the JVM running
+                trainer.finishTraining();
+                console.close();
+                if (csv != null) {
+                    csv.close();
+                }
+                if (scheduler != null) {
+                    scheduler.close();
+                }
+            }
+            long[] trainingNanos = getTrainingNanos();
+            System.out.println(String.format(Locale.ROOT, "Level parsing: %.1f ms, world copies: %.1f ms, simulation: %.1f s, " +
+                    "cancelled games: %d", (trainingNanos[0] - trainingStart[0]) / 1e6, (trainingNanos[1] - trainingStart[1]) / 1e6,
+                    (trainingNanos[2] - trainingStart[2]) / 1e9, (scheduler != null ? scheduler.getCancelledGames() : 0) - cancelledStart));
 
             // Decode best network
             neatNetwork = (NEATNetwork) trainer.getCODEC().decode(trainer.getBestGenome());
-            // population.setBestGenome(bestGeneralGenome);
+            compiledNetwork = new CompiledNEATNetwork(neatNetwork);
             // Save the end population to a file, the best genome will then be selected from that, this is done due to encog persistence saving mechanisms
             // Individual network can't be saved to file. 
             EncogDirectoryPersistence.saveObject(new File("./saved_agents/1500NEAT-marioPopulation.eg"), population);
@@ -180,12 +202,16 @@ public class NeuroEAgent implements MarioAgent {
     @Override
     public boolean[] getActions(MarioForwardModel model, MarioTimer timer) {
         // Flatten inputs and query network
-        double[] input = extractInputs(model);
-        MLData output = neatNetwork.compute(new BasicMLData(input));
+        if (actionInputs == null) {
+            actionGrid = new int[model.obsGridWidth * model.obsGridHeight];
+            actionInputs = new double[actionGrid.length + 4];
+        }
+        extractInputs(model, actionGrid, actionVelocity, actionInputs);
+        double[] output = compiledNetwork.compute(actionInputs);
 
         boolean[] actions = new boolean[5];
         for (int i = 0; i < actions.length; i++) {
-            actions[i] = output.getData(i) > 0.5;
+            actions[i] = output[i] > 0.5;
         }
         return actions;
     }
@@ -195,15 +221,45 @@ public class NeuroEAgent implements MarioAgent {
         return "NeuroEAgent";
     }
 
-    private double evaluateNetwork(NEATNetwork network, MarioForwardModel model) {
+    // Nanoseconds of level parsing, world copies and simulation so far on the processes that play the training games
+    private long[] getTrainingNanos() {
+        return evaluationFarm != null ? evaluationFarm.getWorkerGameNanos() : getGameNanos();
+    }
+
+    // Nanoseconds this process spent parsing levels, copying worlds and playing NEAT games, summed over the threads
+    static long[] getGameNanos() {
+        return new long[]{LEVELS.getParseNanos(), LEVELS.getCopyNanos(), simulationNanos.get()};
+    }
+
+    // Score of a network on a fresh game of the level, farm workers and tools/CompiledNEATNetworkCheck use it too
+    public static double evaluateLevel(CompiledNEATNetwork network, String levelData) {
+        return playGame(network, new MarioForwardModel(LEVELS.newWorldOf(levelData)), null);
+    }
+
+    // Score of a network on a game, NaN if the game is cancelled before it ends
+    private static double playGame(CompiledNEATNetwork network, MarioForwardModel model, AtomicBoolean cancelled) {
+        long start = System.nanoTime();
+        double fitness = evaluateNetwork(network, model, cancelled);
+        simulationNanos.addAndGet(System.nanoTime() - start);
+        return fitness;
+    }
+
+    private static double evaluateNetwork(CompiledNEATNetwork network, MarioForwardModel model, AtomicBoolean cancelled) {
         double fitness = 0.0;
         // Run a fixed number of ticks or until end
+        int[] grid = new int[model.obsGridWidth * model.obsGridHeight];
+        float[] velocity = new float[2];
+        double[] inputs = new double[grid.length + 4];
+        // Mario only reads the actions during the tick, so one array serves the whole game
+        boolean[] actions = new boolean[5];
         for (int step = 0; step < 1000 && model.getGameStatus() == GameStatus.RUNNING; step++) {
-            double[] inputs = extractInputs(model);
-            MLData output = network.compute(new BasicMLData(inputs));
-            boolean[] actions = new boolean[5];
+            if (cancelled != null && cancelled.get()) {
+                return Double.NaN;
+            }
+            extractInputs(model, grid, velocity, inputs);
+            double[] output = network.compute(inputs);
             for (int j = 0; j < actions.length; j++) {
-                actions[j] = output.getData(j) > 0.5;
+                actions[j] = output[j] > 0.5;
             }
             model.advance(actions);
         }
@@ -228,61 +284,61 @@ public class NeuroEAgent implements MarioAgent {
         return fitness;
     }
 
-    private double[] extractInputs(MarioForwardModel model) {
-        int[][] grid = model.getMarioCompleteObservation();
-        int rows = grid.length;
-        int cols = grid[0].length;
-        double[] inputs = new double[rows * cols + 4];
-
+    // Fill the network inputs using buffers owned by the caller so the simulation loop doesn't allocate
+    private static void extractInputs(MarioForwardModel model, int[] grid, float[] velocity, double[] inputs) {
+        model.getMarioCompleteObservation(grid, 1, 0);
         int idx = 0;
-        for (int[] row : grid) {
-            for (int cell : row) {
-                inputs[idx++] = cell / 100.0;
-            }
+        for (int cell : grid) {
+            inputs[idx++] = cell / 100.0;
         }
+        model.getMarioFloatVelocity(velocity);
         inputs[idx++] = model.mayMarioJump() ? 1.0 : 0.0;
         inputs[idx++] = model.isMarioOnGround() ? 1.0 : 0.0;
-        inputs[idx++] = model.getMarioFloatVelocity()[0] / 10.0;
-        inputs[idx++] = model.getMarioFloatVelocity()[1] / 10.0;
+        inputs[idx++] = velocity[0] / 10.0;
+        inputs[idx++] = velocity[1] / 10.0;
+    }
 
-        return inputs;
+    // Write the statistics of every training generation to the given CSV file, null doesn't write them
+    public void setCSVFile(String path) {
+        csvPath = path;
     }
 
-    public void loadTrainedAgent(String population_path) {
+    // Number of games played at the same time during training without a farm, all the cores by default
+    public void setEvaluationThreads(int threads) {
+        evaluationThreads = Math.max(1, threads);
+    }
 
+    // Cancel the games of a genome in a race stage once it can't reach the cutoff even with the best
+    // scores so far on the levels it has left. It's a heuristic, those scores aren't upper bounds and
+    // depend on the timing of the threads, so it is off by default. Only used without a farm.
+    public void setBestScoreCancellation(boolean enabled) {
+        bestScoreCancellation = enabled;
+    }
 
-        
-        // // Load the best saved NEAT population
-        population = (NEATPopulation) EncogDirectoryPersistence.loadObject(new File(population_path));
-        // // Create a new trainer with the loaded population
-        trainer = NEATUtil.constructNEATTrainer(population, new CalculateScore() {
-            @Override
-            public double calculateScore(MLMethod method) {
-                // Evaluate network by simulating game on cloned model
-                NEATNetwork network = (NEATNetwork) method;
-                MarioForwardModel sim = seedModel.clone();
-                return evaluateNetwork(network, sim);
-            }
+    // Race the genomes through the training levels, null plays every level with every genome
+    public void setLevelRace(LevelRace race) {
+        levelRace = race;
+    }
 
-            @Override
-            public boolean shouldMinimize() {
-                return false;
-            }
+    // Also send the statistics of every training generation to the sink, the caller closes it
+    public void addMetricsSink(MetricsSink sink) {
+        metricsSinks.add(sink);
+    }
 
-            @Override
-            public boolean requireSingleThreaded() {
-                return false;
-            }
-        });
-        // Load the best genome from the population
+    // Score the genomes during training on the workers of a farm, threads is the number of genomes
+    // that are scored at the same time and should cover the batches of all the workers
+    public void setEvaluationFarm(EvaluationFarm farm, int threads) {
+        evaluationFarm = farm;
+        farmThreads = Math.max(1, threads);
+    }
 
-        // Load the best saved Mario NEAT agent genome
-        // Genome genome = (Genome) EncogDirectoryPersistence.loadObject(new File(agent_genome_path));
-        neatNetwork = (NEATNetwork) trainer.getCODEC().decode(population.getBestGenome());
+    // Play with the best genome of a population saved by the training, the network is decoded without a trainer
+    public void loadTrainedAgent(String population_path) {
+        population = (NEATPopulation) EncogDirectoryPersistence.loadObject(new File(population_path));
+        neatNetwork = (NEATNetwork) population.getCODEC().decode(population.getBestGenome());
+        compiledNetwork = new CompiledNEATNetwork(neatNetwork);
         // Set isTrained to true to avoid retraining
         isTrained = true;
-
-
     }
 
     public static String getLevel(String path) {
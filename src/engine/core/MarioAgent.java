@@ -17,7 +17,8 @@ public interface MarioAgent {
     /**
      * get mario current actions
      *
-     * @param model a forward model object so the agent can simulate the future.
+     * @param model a forward model object so the agent can simulate the future. The model is only
+     *              valid during this call, use model.clone() to keep a copy of the current state.
      * @param timer amount of time before the agent has to return the actions.
      * @return an array of the state of the buttons on the controller
      */
@@ -0,0 +1,217 @@
+package engine.core;
+
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
+import engine.helper.EventRetention;
+
+/**
+ * Runs a batch of headless mario games on a work stealing thread pool. Every
+ * game is its own task so threads that finish short games (early deaths) keep
+ * pulling work instead of waiting for a long game (time outs) to finish.
+ */
+public class MarioBatchRunner {
+    /**
+     * A single game that the batch runner needs to play
+     */
+    public static class Job {
+        private Supplier<MarioAgent> agent;
+        private String level;
+        private int timer;
+        private int marioState;
+        private MarioReplay replay;
+        private boolean[][] actions;
+        private long[] packedActions;
+        private int length;
+        private MarioReplay.StopCondition condition;
+        private EventRetention eventRetention;
+
+        /**
+         * Create a game job
+         *
+         * @param agent      a factory that create the agent for that game. It is called on the thread that plays the game.
+         * @param level      a string that constitutes the mario level, it uses the same representation as the VGLC but with more details.
+         * @param timer      number of seconds for that level to be played. Setting timer to anything &lt;=0 will make the time infinite
+         * @param marioState the initial state that mario appears in. 0 small mario, 1 large mario, and 2 fire mario.
+         */
+        public Job(Supplier<MarioAgent> agent, String level, int timer, int marioState) {
+            this(agent, level, timer, marioState, null);
+        }
+
+        /**
+         * Create a game job with its own event retention, so a runner that is shared by
+         * several users doesn't need its retention changed
+         *
+         * @param agent          a factory that create the agent for that game. It is called on the thread that plays the game.
+         * @param level          a string that constitutes the mario level, it uses the same representation as the VGLC but with more details.
+         * @param timer          number of seconds for that level to be played. Setting timer to anything &lt;=0 will make the time infinite
+         * @param marioState     the initial state that mario appears in. 0 small mario, 1 large mario, and 2 fire mario.
+         * @param eventRetention how much of the game history the result keeps, null for the retention of the runner
+         */
+        public Job(Supplier<MarioAgent> agent, String level, int timer, int marioState, EventRetention eventRetention) {
+            this.agent = agent;
+            this.level = level;
+            this.timer = timer;
+            this.marioState = marioState;
+            this.eventRetention = eventRetention;
+        }
+
+        /**
+         * Create a job that plays a fixed sequence of actions through a replay. The
+         * result of the job is null if the game didn't end before the actions ran out.
+         *
+         * @param replay  the replay of the level that is played
+         * @param actions the actions for each step of the game loop
+         */
+        public Job(MarioReplay replay, boolean[][] actions) {
+            this.replay = replay;
+            this.actions = actions;
+        }
+
+        /**
+         * Create a job that plays a fixed sequence of packed actions through a replay.
+         * The result of the job is null if the game didn't end before the actions ran out.
+         *
+         * @param replay the replay of the level that is played
+         * @param words  the packed actions in the layout of MarioReplay.play(long[], int)
+         * @param length the number of steps in the sequence
+         */
+        public Job(MarioReplay replay, long[] words, int length) {
+            this(replay, words, length, null);
+        }
+
+        /**
+         * Create a job that plays a fixed sequence of packed actions through a replay
+         * until the game ends or the condition stops it. The result of the job is null
+         * if the game didn't end or stop before the actions ran out.
+         *
+         * @param replay    the replay of the level that is played
+         * @param words     the packed actions in the layout of MarioReplay.play(long[], int)
+         * @param length    the number of steps in the sequence
+         * @param condition checked after every step of the game, null to never stop early
+         */
+        public Job(MarioReplay replay, long[] words, int length, MarioReplay.StopCondition condition) {
+            this.replay = replay;
+            this.packedActions = words;
+            this.length = length;
+            this.condition = condition;
+        }
+    }
+
+    /**
+     * Receives the result of each game as soon as it finishes
+     */
+    public interface Listener {
+        /**
+         * called on the thread that called run for every finished game
+         *
+         * @param index  the index of the job in the submitted list
+         * @param result the statistics of the finished game
+         */
+        void gameFinished(int index, MarioResult result);
+    }
+
+    private ForkJoinPool pool;
+    private ThreadLocal<MarioGame> games;
+    private volatile EventRetention eventRetention = EventRetention.FULL;
+
+    /**
+     * Create a batch runner that uses all the available processors
+     */
+    public MarioBatchRunner() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Create a batch runner with a fixed number of threads
+     *
+     * @param threads the number of games that are played at the same time
+     */
+    public MarioBatchRunner(int threads) {
+        this(threads, null);
+    }
+
+    /**
+     * Create a batch runner with a fixed number of threads and a punishing forward model
+     *
+     * @param threads    the number of games that are played at the same time
+     * @param killEvents events that will kill the player
+     */
+    public MarioBatchRunner(int threads, MarioEvent[] killEvents) {
+        this.pool = new ForkJoinPool(Math.max(1, threads));
+        this.games = ThreadLocal.withInitial(() -> new MarioGame(killEvents));
+    }
+
+    /**
+     * Set how much of the game history is kept in the results of the next runs, for
+     * the jobs that don't have their own retention. Replay jobs only keep the counters.
+     *
+     * @param eventRetention the retention mode (FULL by default)
+     */
+    public void setEventRetention(EventRetention eventRetention) {
+        this.eventRetention = eventRetention;
+    }
+
+    /**
+     * Play all the jobs and wait until all of them are done
+     *
+     * @param jobs the games that need to be played
+     * @return the results in the same order as the jobs
+     */
+    public MarioResult[] run(List<Job> jobs) {
+        MarioResult[] results = new MarioResult[jobs.size()];
+        this.run(jobs, (index, result) -> results[index] = result);
+        return results;
+    }
+
+    /**
+     * Play all the jobs and report each result to the listener in the order the games finish
+     *
+     * @param jobs     the games that need to be played
+     * @param listener the object that receives the results
+     */
+    public void run(List<Job> jobs, Listener listener) {
+        ExecutorCompletionService<Integer> service = new ExecutorCompletionService<>(this.pool);
+        MarioResult[] results = new MarioResult[jobs.size()];
+        EventRetention retention = this.eventRetention;
+        for (int i = 0; i < jobs.size(); i++) {
+            int index = i;
+            Job job = jobs.get(i);
+            service.submit(() -> {
+                if (job.replay != null) {
+                    results[index] = job.actions != null ? job.replay.play(job.actions) :
+                            job.replay.play(job.packedActions, job.length, job.condition);
+                    return index;
+                }
+                MarioGame game = this.games.get();
+                game.setEventRetention(job.eventRetention != null ? job.eventRetention : retention);
+                results[index] = game.runGame(job.agent.get(), job.level, job.timer, job.marioState);
+                return index;
+            });
+        }
+        for (int i = 0; i < jobs.size(); i++) {
+            int index;
+            try {
+                Future<Integer> done = service.take();
+                index = done.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Batch run was interrupted", e);
+            } catch (ExecutionException e) {
+                throw new RuntimeException("Game failed in batch run", e.getCause());
+            }
+            listener.gameFinished(index, results[index]);
+        }
+    }
+
+    /**
+     * Stop the worker threads, the runner can't be used after that
+     */
+    public void shutdown() {
+        this.pool.shutdown();
+    }
+}
@@ -0,0 +1,172 @@
+package engine.core;
+
+import java.util.Arrays;
+
+import engine.helper.EventType;
+import engine.helper.SpriteType;
+
+/**
+ * Running statistics over the events of a game. They are updated every time an
+ * event is added to the world so the results don't need to scan the event history.
+ */
+public class MarioEventCounters {
+    private int[] eventCounts = new int[EventType.values().length + 1];
+    private int[] killsByType = new int[SpriteType.FIREBALL.getValue() + 1];
+    private int bumpQuestionBlocks;
+    private int bumpBricks;
+    private int destroyedBricks;
+    private int collectedMushrooms;
+    private int collectedFireflowers;
+    private int collectedTileCoins;
+    private float jumpStartX;
+    private float maxXJump;
+    private int jumpStartTime;
+    private int maxJumpAirTime;
+
+    public MarioEventCounters() {
+        this.clear();
+    }
+
+    /**
+     * Reset all the counters to the start of a game
+     */
+    public void clear() {
+        Arrays.fill(this.eventCounts, 0);
+        Arrays.fill(this.killsByType, 0);
+        this.bumpQuestionBlocks = 0;
+        this.bumpBricks = 0;
+        this.destroyedBricks = 0;
+        this.collectedMushrooms = 0;
+        this.collectedFireflowers = 0;
+        this.collectedTileCoins = 0;
+        this.jumpStartX = -100;
+        this.maxXJump = 0;
+        this.jumpStartTime = -100;
+        this.maxJumpAirTime = 0;
+    }
+
+    /**
+     * Copy all the counters into another counters object
+     *
+     * @param counters the object that will be overwritten
+     */
+    public void copyTo(MarioEventCounters counters) {
+        System.arraycopy(this.eventCounts, 0, counters.eventCounts, 0, this.eventCounts.length);
+        System.arraycopy(this.killsByType, 0, counters.killsByType, 0, this.killsByType.length);
+        counters.bumpQuestionBlocks = this.bumpQuestionBlocks;
+        counters.bumpBricks = this.bumpBricks;
+        counters.destroyedBricks = this.destroyedBricks;
+        counters.collectedMushrooms = this.collectedMushrooms;
+        counters.collectedFireflowers = this.collectedFireflowers;
+        counters.collectedTileCoins = this.collectedTileCoins;
+        counters.jumpStartX = this.jumpStartX;
+        counters.maxXJump = this.maxXJump;
+        counters.jumpStartTime = this.jumpStartTime;
+        counters.maxJumpAirTime = this.maxJumpAirTime;
+    }
+
+    /**
+     * Update the counters with a new event
+     *
+     * @param e the event that just happened
+     */
+    public void add(MarioEvent e) {
+        int type = e.getEventType();
+        int param = e.getEventParam();
+        this.eventCounts[type] += 1;
+        if (type == EventType.SHELL_KILL.getValue() || type == EventType.FIRE_KILL.getValue() ||
+                type == EventType.STOMP_KILL.getValue()) {
+            if (param >= 0 && param < this.killsByType.length) {
+                this.killsByType[param] += 1;
+            }
+        }
+        if (type == EventType.BUMP.getValue()) {
+            if (param == MarioForwardModel.OBS_QUESTION_BLOCK) {
+                this.bumpQuestionBlocks += 1;
+            }
+            if (param == MarioForwardModel.OBS_BRICK) {
+                this.bumpBricks += 1;
+                if (e.getMarioState() > 0) {
+                    this.destroyedBricks += 1;
+                }
+            }
+        }
+        if (type == EventType.COLLECT.getValue()) {
+            if (param == SpriteType.MUSHROOM.getValue()) {
+                this.collectedMushrooms += 1;
+            }
+            if (param == SpriteType.FIRE_FLOWER.getValue()) {
+                this.collectedFireflowers += 1;
+            }
+            if (param == MarioForwardModel.OBS_COIN) {
+                this.collectedTileCoins += 1;
+            }
+        }
+        if (type == EventType.JUMP.getValue()) {
+            this.jumpStartX = e.getMarioX();
+            this.jumpStartTime = e.getTime();
+        }
+        if (type == EventType.LAND.getValue()) {
+            if (Math.abs(e.getMarioX() - this.jumpStartX) > this.maxXJump) {
+                this.maxXJump = Math.abs(e.getMarioX() - this.jumpStartX);
+            }
+            if (e.getTime() - this.jumpStartTime > this.maxJumpAirTime) {
+                this.maxJumpAirTime = e.getTime() - this.jumpStartTime;
+            }
+        }
+    }
+
+    /**
+     * get the number of events of a certain type
+     *
+     * @param type the event type
+     * @return number of times that event happened
+     */
+    public int getNumEvents(EventType type) {
+        return this.eventCounts[type.getValue()];
+    }
+
+    public int getKillsTotal() {
+        return this.getNumEvents(EventType.STOMP_KILL) + this.getNumEvents(EventType.FIRE_KILL) +
+                this.getNumEvents(EventType.FALL_KILL) + this.getNumEvents(EventType.SHELL_KILL);
+    }
+
+    public int getMarioNumKills(int enemyType) {
+        if (enemyType < 0 || enemyType >= this.killsByType.length) {
+            return 0;
+        }
+        return this.killsByType[enemyType];
+    }
+
+    public int getNumBumpQuestionBlock() {
+        return this.bumpQuestionBlocks;
+    }
+
+    public int getNumBumpBrick() {
+        return this.bumpBricks;
+    }
+
+    public int getNumDestroyedBricks() {
+        return this.destroyedBricks;
+    }
+
+    public int getNumCollectedMushrooms() {
+        return this.collectedMushrooms;
+    }
+
+    public int getNumCollectedFireflower() {
+        return this.collectedFireflowers;
+    }
+
+    public int getNumCollectedTileCoins() {
+        return this.collectedTileCoins;
+    }
+
+    public float getMaxXJump() {
+        return this.maxXJump;
+    }
+
+    public int getMaxJumpAirTime() {
+        return this.maxJumpAirTime;
+    }
+}
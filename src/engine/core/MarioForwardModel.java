@@ -1,6 +1,6 @@
 package engine.core;
 
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
 
 import engine.helper.EventType;
 import engine.helper.GameStatus;
@@ -196,6 +196,47 @@ public class MarioForwardModel {
         return OBS_UNDEF;
     }
 
+    //generalization of every tile value and sprite type for each detail level, the last row is for unknown details
+    private static final int[][] BLOCK_GENERALIZATION = new int[4][256];
+    private static final int[][] SPRITE_GENERALIZATION = new int[4][SpriteType.values().length];
+
+    static {
+        for (int detail = 0; detail < BLOCK_GENERALIZATION.length; detail++) {
+            for (int tile = 0; tile < BLOCK_GENERALIZATION[detail].length; tile++) {
+                BLOCK_GENERALIZATION[detail][tile] = getBlockValueGeneralization(tile, detail);
+            }
+            for (SpriteType sprite : SpriteType.values()) {
+                SPRITE_GENERALIZATION[detail][sprite.ordinal()] = getSpriteTypeGeneralization(sprite, detail);
+            }
+        }
+    }
+
+    /**
+     * Get the precomputed getBlockValueGeneralization values of a detail level
+     *
+     * @param detail the detail level of the scene
+     * @return the generalized value of each tile between 0 and 255
+     */
+    static int[] getBlockGeneralizationTable(int detail) {
+        if (detail < 0 || detail > 2) {
+            return BLOCK_GENERALIZATION[3];
+        }
+        return BLOCK_GENERALIZATION[detail];
+    }
+
+    /**
+     * Get the precomputed getSpriteTypeGeneralization values of a detail level
+     *
+     * @param detail the detail level of the enemies
+     * @return the generalized value of each sprite type indexed by its ordinal
+     */
+    static int[] getSpriteGeneralizationTable(int detail) {
+        if (detail < 0 || detail > 2) {
+            return SPRITE_GENERALIZATION[3];
+        }
+        return SPRITE_GENERALIZATION[detail];
+    }
+
     /**
      * The width of the observation grid
      */
@@ -206,6 +247,7 @@ public class MarioForwardModel {
     public final int obsGridHeight = MarioGame.tileHeight;
 
     private MarioWorld world;
+    private boolean isView;
 
     // stats
     private int fallKill;
@@ -224,6 +266,20 @@ public class MarioForwardModel {
      */
     public MarioForwardModel(MarioWorld world) {
         this.world = world;
+        this.isView = false;
+    }
+
+    /**
+     * Create a forward model object that can be a read only view over a world
+     *
+     * @param world  the current level world that is being used.
+     * @param isView if true the world is not owned by the model, all the getters read
+     *               directly from it and the world is only cloned on the first call to
+     *               advance. The view is only valid as long as the world is not updated.
+     */
+    MarioForwardModel(MarioWorld world, boolean isView) {
+        this.world = world;
+        this.isView = isView;
     }
 
     /**
@@ -243,12 +299,53 @@ public class MarioForwardModel {
         return model;
     }
 
+    /**
+     * Save the current forward model state into a buffer that can be reused many times
+     *
+     * @param buffer the buffer that will hold the state, its old content is overwritten
+     */
+    public void snapshot(StateBuffer buffer) {
+        this.world.copyTo(buffer.world);
+        buffer.fallKill = this.fallKill;
+        buffer.stompKill = this.stompKill;
+        buffer.fireKill = this.fireKill;
+        buffer.shellKill = this.shellKill;
+        buffer.mushrooms = this.mushrooms;
+        buffer.flowers = this.flowers;
+        buffer.breakBlock = this.breakBlock;
+    }
+
+    /**
+     * Roll back the forward model to a state saved using snapshot. The same buffer can
+     * be restored any number of times.
+     *
+     * @param buffer the buffer that holds the saved state
+     */
+    public void restore(StateBuffer buffer) {
+        if (this.isView) {
+            this.world = new MarioWorld(null);
+            this.isView = false;
+        }
+        buffer.world.copyTo(this.world);
+        this.fallKill = buffer.fallKill;
+        this.stompKill = buffer.stompKill;
+        this.fireKill = buffer.fireKill;
+        this.shellKill = buffer.shellKill;
+        this.mushrooms = buffer.mushrooms;
+        this.flowers = buffer.flowers;
+        this.breakBlock = buffer.breakBlock;
+    }
+
     /**
      * Advance the forward model using the action array
      *
      * @param actions a list of all the button states
      */
     public void advance(boolean[] actions) {
+        if (this.isView) {
+            this.world = this.world.clone();
+            this.isView = false;
+        }
         this.world.update(actions);
         for (MarioEvent e : this.world.lastFrameEvents) {
             if (e.getEventType() == EventType.FIRE_KILL.getValue()) {
@@ -323,6 +420,16 @@ public class MarioForwardModel {
         return new float[]{this.world.mario.x, this.world.mario.y};
     }
 
+    /**
+     * Get mario position without allocating a new array
+     *
+     * @param buffer an array of at least 2 values that is filled with the x and y position
+     */
+    public void getMarioFloatPos(float[] buffer) {
+        buffer[0] = this.world.mario.x;
+        buffer[1] = this.world.mario.y;
+    }
+
     /**
      * Get mario velocity
      *
@@ -332,6 +439,16 @@ public class MarioForwardModel {
         return new float[]{this.world.mario.xa, this.world.mario.ya};
     }
 
+    /**
+     * Get mario velocity without allocating a new array
+     *
+     * @param buffer an array of at least 2 values that is filled with the x and y velocity
+     */
+    public void getMarioFloatVelocity(float[] buffer) {
+        buffer[0] = this.world.mario.xa;
+        buffer[1] = this.world.mario.ya;
+    }
+
     /**
      * If mario can press the jump button while in the air to reach higher areas
      *
@@ -382,16 +499,23 @@ public class MarioForwardModel {
      * position for each enemy sprite
      */
     public float[] getEnemiesFloatPos() {
-        ArrayList<MarioSprite> enemiesAlive = this.world.getEnemies();
-        float[] enemyPos = new float[enemiesAlive.size() * 3];
-        for (int i = 0; i < enemiesAlive.size(); i++) {
-            enemyPos[3 * i] = enemiesAlive.get(i).type.getValue();
-            enemyPos[3 * i + 1] = enemiesAlive.get(i).x;
-            enemyPos[3 * i + 2] = enemiesAlive.get(i).y;
-        }
+        float[] enemyPos = new float[this.world.getEnemies().size() * 3];
+        this.world.getEnemiesFloatPos(enemyPos);
         return enemyPos;
     }
 
+    /**
+     * Fill a buffer with the type, x position, y position of each enemy sprite
+     * without allocating a new array
+     *
+     * @param buffer the array that is filled with 3 floats for each enemy
+     * @return the number of enemies written into the buffer, extra enemies are
+     * dropped if the buffer is too small
+     */
+    public int getEnemiesFloatPos(float[] buffer) {
+        return this.world.getEnemiesFloatPos(buffer);
+    }
+
     /**
      * get the number of enemies killed in the game
      *
@@ -640,4 +764,142 @@ public class MarioForwardModel {
     public int[][] getMarioSceneObservation(int detail) {
         return this.world.getSceneObservation(this.world.mario.x, this.world.mario.y, detail);
     }
+
+    /**
+     * The current screen status around the center of screen written into a flat
+     * buffer. The cell (x, y) of getScreenCompleteObservation is at index
+     * x * obsGridHeight + y, the row major order of the 2D grid.
+     *
+     * @param buffer      an array of at least obsGridWidth * obsGridHeight values
+     * @param sceneDetail the detail level of the scene: 0 all detail, 1 less detailed, 2
+     *                    binary detail
+     * @param enemyDetail the detail level of the current enemies: 0 all details, 1 less
+     *                    detailed, 2 binary detail
+     */
+    public void getScreenCompleteObservation(int[] buffer, int sceneDetail, int enemyDetail) {
+        this.world.getMergedObservation(this.world.cameraX + MarioGame.width / 2, MarioGame.height / 2,
+                sceneDetail, enemyDetail, buffer);
+    }
+
+    /**
+     * The current enemies around the center of screen written into a flat buffer
+     * with the same layout as getScreenCompleteObservation(int[], int, int)
+     *
+     * @param buffer an array of at least obsGridWidth * obsGridHeight values
+     * @param detail the detail level of the current enemies: 0 all details, 1 less
+     *               detailed, 2 binary detail
+     */
+    public void getScreenEnemiesObservation(int[] buffer, int detail) {
+        this.world.getEnemiesObservation(this.world.cameraX + MarioGame.width / 2, MarioGame.height / 2, detail, buffer);
+    }
+
+    /**
+     * The current objects (not enemies) around the center of screen written into a
+     * flat buffer with the same layout as getScreenCompleteObservation(int[], int, int)
+     *
+     * @param buffer an array of at least obsGridWidth * obsGridHeight values
+     * @param detail the detail level of the scene: 0 all detail, 1 less detailed, 2
+     *               binary detail
+     */
+    public void getScreenSceneObservation(int[] buffer, int detail) {
+        this.world.getSceneObservation(this.world.cameraX + MarioGame.width / 2, MarioGame.height / 2, detail, buffer);
+    }
+
+    /**
+     * The current screen status around mario written into a flat buffer. The cell
+     * (x, y) of getMarioCompleteObservation is at index x * obsGridHeight + y, the
+     * row major order of the 2D grid.
+     *
+     * @param buffer      an array of at least obsGridWidth * obsGridHeight values
+     * @param sceneDetail the detail level of the scene: 0 all detail, 1 less detailed, 2
+     *                    binary detail
+     * @param enemyDetail the detail level of the current enemies: 0 all details, 1 less
+     *                    detailed, 2 binary detail
+     */
+    public void getMarioCompleteObservation(int[] buffer, int sceneDetail, int enemyDetail) {
+        this.world.getMergedObservation(this.world.mario.x, this.world.mario.y, sceneDetail, enemyDetail, buffer);
+    }
+
+    /**
+     * The current enemies around mario written into a flat buffer with the same
+     * layout as getMarioCompleteObservation(int[], int, int)
+     *
+     * @param buffer an array of at least obsGridWidth * obsGridHeight values
+     * @param detail the detail level of the current enemies: 0 all details, 1 less
+     *               detailed, 2 binary detail
+     */
+    public void getMarioEnemiesObservation(int[] buffer, int detail) {
+        this.world.getEnemiesObservation(this.world.mario.x, this.world.mario.y, detail, buffer);
+    }
+
+    /**
+     * The current objects (not enemies) around mario written into a flat buffer
+     * with the same layout as getMarioCompleteObservation(int[], int, int)
+     *
+     * @param buffer an array of at least obsGridWidth * obsGridHeight values
+     * @param detail the detail level of the scene: 0 all detail, 1 less detailed, 2
+     *               binary detail
+     */
+    public void getMarioSceneObservation(int[] buffer, int detail) {
+        this.world.getSceneObservation(this.world.mario.x, this.world.mario.y, detail, buffer);
+    }
+
+    /**
+     * The current screen status around the center of screen written as ints into
+     * a byte buffer (for example a direct buffer shared with native code). The values
+     * use the layout of getScreenCompleteObservation(int[], int, int) starting at the
+     * current position of the buffer, and the position is moved after the last value.
+     *
+     * @param buffer      a buffer with at least obsGridWidth * obsGridHeight ints remaining
+     * @param sceneDetail the detail level of the scene: 0 all detail, 1 less detailed, 2
+     *                    binary detail
+     * @param enemyDetail the detail level of the current enemies: 0 all details, 1 less
+     *                    detailed, 2 binary detail
+     */
+    public void getScreenCompleteObservation(ByteBuffer buffer, int sceneDetail, int enemyDetail) {
+        int[] values = this.world.getObservationBuffer();
+        this.getScreenCompleteObservation(values, sceneDetail, enemyDetail);
+        for (int value : values) {
+            buffer.putInt(value);
+        }
+    }
+
+    /**
+     * The current screen status around mario written as ints into a byte buffer
+     * (for example a direct buffer shared with native code). The values use the
+     * layout of getMarioCompleteObservation(int[], int, int) starting at the current
+     * position of the buffer, and the position is moved after the last value.
+     *
+     * @param buffer      a buffer with at least obsGridWidth * obsGridHeight ints remaining
+     * @param sceneDetail the detail level of the scene: 0 all detail, 1 less detailed, 2
+     *                    binary detail
+     * @param enemyDetail the detail level of the current enemies: 0 all details, 1 less
+     *                    detailed, 2 binary detail
+     */
+    public void getMarioCompleteObservation(ByteBuffer buffer, int sceneDetail, int enemyDetail) {
+        int[] values = this.world.getObservationBuffer();
+        this.getMarioCompleteObservation(values, sceneDetail, enemyDetail);
+        for (int value : values) {
+            buffer.putInt(value);
+        }
+    }
+
+    /**
+     * A reusable container for a forward model state used by snapshot and restore
+     * to roll back a simulation without allocating a new forward model each time.
+     * The world, its lists and its level are reused, the level tiles are shared
+     * chunk by chunk until they are written. The sprites are not reused: snapshot
+     * and restore still copy every sprite with its clone() method, so both allocate
+     * one object per sprite on every call.
+     */
+    public static class StateBuffer {
+        private MarioWorld world = new MarioWorld(null);
+        private int fallKill;
+        private int stompKill;
+        private int fireKill;
+        private int shellKill;
+        private int mushrooms;
+        private int flowers;
+        private int breakBlock;
+    }
 }
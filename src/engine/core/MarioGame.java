@@ -8,6 +8,7 @@ import java.awt.event.KeyAdapter;
 import javax.swing.JFrame;
 
 import agents.human.Agent;
+import engine.helper.EventRetention;
 import engine.helper.GameStatus;
 import engine.helper.MarioActions;
 
@@ -51,6 +52,11 @@ public class MarioGame {
      */
     private MarioEvent[] killEvents;
 
+    /**
+     * how much of the game history is kept in the result
+     */
+    private EventRetention eventRetention = EventRetention.FULL;
+
     //visualization
     private JFrame window = null;
     private MarioRender render = null;
@@ -73,6 +79,34 @@ public class MarioGame {
         this.killEvents = killEvents;
     }
 
+    /**
+     * Set how much of the game history is kept in the results of the next games.
+     * COUNTERS_ONLY keeps all the statistics getters of the result working but
+     * returns empty game and agent event lists.
+     *
+     * @param eventRetention the retention mode (FULL by default)
+     */
+    public void setEventRetention(EventRetention eventRetention) {
+        this.eventRetention = eventRetention;
+    }
+
+    /**
+     * Update the world for one step of the game loop
+     *
+     * @param world   the world being played
+     * @param actions the actions of the agent for that step
+     */
+    static void stepWorld(MarioWorld world, boolean[] actions) {
+        int tick = world.currentTick;
+        world.update(actions);
+        if (world.currentTick == tick) {
+            //pause and time out frames don't clear the last frame events so they are reported again
+            for (MarioEvent e : world.lastFrameEvents) {
+                world.eventCounters.add(e);
+            }
+        }
+    }
+
     private int getDelay(int fps) {
         if (fps <= 0) {
             return 0;
@@ -228,6 +262,8 @@ public class MarioGame {
         this.world.mario.isLarge = marioState > 0;
         this.world.mario.isFire = marioState > 1;
         this.world.update(new boolean[MarioActions.numberOfActions()]);
+        //the events of the first update are not part of the game history
+        this.world.eventCounters.clear();
         long currentTime = System.currentTimeMillis();
 
         //initialize graphics
@@ -246,11 +282,14 @@ public class MarioGame {
 
         ArrayList<MarioEvent> gameEvents = new ArrayList<>();
         ArrayList<MarioAgentEvent> agentEvents = new ArrayList<>();
+        boolean keepHistory = this.eventRetention == EventRetention.FULL;
+        int agentSteps = 0;
         while (this.world.gameStatus == GameStatus.RUNNING) {
             if (!this.pause) {
                 //get actions
                 agentTimer = new MarioTimer(MarioGame.maxTime);
-                boolean[] actions = this.agent.getActions(new MarioForwardModel(this.world.clone()), agentTimer);
+                // the model is a view over the live world and only clones it if the agent simulates
+                boolean[] actions = this.agent.getActions(new MarioForwardModel(this.world, true), agentTimer);
                 if (MarioGame.verbose) {
                     if (agentTimer.getRemainingTime() < 0 && Math.abs(agentTimer.getRemainingTime()) > MarioGame.graceTime) {
                         System.out.println("The Agent is slowing down the game by: "
@@ -258,11 +297,14 @@ public class MarioGame {
                     }
                 }
                 // update world
-                this.world.update(actions);
-                gameEvents.addAll(this.world.lastFrameEvents);
-                agentEvents.add(new MarioAgentEvent(actions, this.world.mario.x,
-                        this.world.mario.y, (this.world.mario.isLarge ? 1 : 0) + (this.world.mario.isFire ? 1 : 0),
-                        this.world.mario.onGround, this.world.currentTick));
+                stepWorld(this.world, actions);
+                agentSteps += 1;
+                if (keepHistory) {
+                    gameEvents.addAll(this.world.lastFrameEvents);
+                    agentEvents.add(new MarioAgentEvent(actions, this.world.mario.x,
+                            this.world.mario.y, (this.world.mario.isLarge ? 1 : 0) + (this.world.mario.isFire ? 1 : 0),
+                            this.world.mario.onGround, this.world.currentTick));
+                }
             }
 
             //render world
@@ -279,6 +321,6 @@ public class MarioGame {
                 }
             }
         }
-        return new MarioResult(this.world, gameEvents, agentEvents);
+        return new MarioResult(this.world, gameEvents, agentEvents, agentSteps, this.world.eventCounters);
     }
 }
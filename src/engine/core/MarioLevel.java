@@ -1,7 +1,13 @@
 package engine.core;
 
 import java.awt.Graphics;
-import java.util.ArrayList;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.regex.Pattern;
 
 import engine.graphics.MarioImage;
 import engine.graphics.MarioTilemap;
@@ -10,6 +16,12 @@ import engine.helper.SpriteType;
 import engine.helper.TileFeature;
 
 public class MarioLevel {
+    private static final int[] NO_SPAWNS = new int[0];
+    private static final Pattern LINE_BREAK = Pattern.compile("\\r?\\n");
+    //first int of a compiled level
+    private static final int BINARY_MAGIC = 0x4D4C5631;
+    //tallest compiled level that is loaded, every chunk of 16 columns allocates 16 * height ints
+    private static final int MAX_BINARY_TILE_HEIGHT = 256;
 
     public int width = MarioGame.width;
     public int tileWidth = MarioGame.width / 16;
@@ -18,9 +30,15 @@ public class MarioLevel {
     public int totalCoins = 0;
     public int marioTileX, marioTileY, exitTileX, exitTileY;
 
-    private int[][] levelTiles;
+    private MarioTileGrid levelTiles;
     private SpriteType[][] spriteTemplates;
-    private int[][] lastSpawnTime;
+    //rows in each column that have an enemy template or a bullet bill spawner sorted from top to bottom
+    private int[][] spawnRows;
+    //spawn id of each entry in spawnRows, bullet bill spawners have -1
+    private int[][] spawnIds;
+    private int numSpawns;
+    //only written by the deprecated setLastSpawnTick, created on its first call
+    private MarioTileGrid lastSpawnTime;
     private MarioTilemap graphics;
     private MarioImage flag;
 
@@ -32,20 +50,17 @@ public class MarioLevel {
             this.height = 0;
             return;
         }
-        String[] lines = level.split("\\r?\\n");
+        String[] lines = LINE_BREAK.split(level);
         this.tileWidth = lines[0].length();
         this.width = this.tileWidth * 16;
         this.tileHeight = lines.length;
         this.height = this.tileHeight * 16;
 
-        this.levelTiles = new int[lines[0].length()][lines.length];
+        this.levelTiles = new MarioTileGrid(lines[0].length(), lines.length, 0);
         this.spriteTemplates = new SpriteType[lines[0].length()][lines.length];
-        this.lastSpawnTime = new int[lines[0].length()][lines.length];
         for (int y = 0; y < lines.length; y++) {
             for (int x = 0; x < lines[y].length(); x++) {
-                this.levelTiles[x][y] = 0;
                 this.spriteTemplates[x][y] = SpriteType.NONE;
-                this.lastSpawnTime[x][y] = -40;
             }
         }
 
@@ -53,7 +68,7 @@ public class MarioLevel {
         boolean exitLocInit = false;
         for (int y = 0; y < lines.length; y++) {
             for (int x = 0; x < lines[y].length(); x++) {
-                Character c = lines[y].charAt(x);
+                char c = lines[y].charAt(x);
                 switch (c) {
                     case 'M':
                         this.marioTileX = x;
@@ -92,11 +107,11 @@ public class MarioLevel {
                         break;
                     case 'X':
                         //floor
-                        this.levelTiles[x][y] = 1;
+                        this.levelTiles.set(x, y, 1);
                         break;
                     case '#':
                         //pyramidBlock
-                        this.levelTiles[x][y] = 2;
+                        this.levelTiles.set(x, y, 2);
                         break;
                     case '%':
                         //jump through block
@@ -104,14 +119,14 @@ public class MarioLevel {
                         if (x > 0 && lines[y].charAt(x - 1) == '%') {
                             tempIndex += 2;
                         }
-                        if (x < this.levelTiles.length - 1 && lines[y].charAt(x + 1) == '%') {
+                        if (x < this.tileWidth - 1 && lines[y].charAt(x + 1) == '%') {
                             tempIndex += 1;
                         }
-                        this.levelTiles[x][y] = 43 + tempIndex;
+                        this.levelTiles.set(x, y, 43 + tempIndex);
                         break;
                     case '|':
                         //background for jump through block
-                        this.levelTiles[x][y] = 47;
+                        this.levelTiles.set(x, y, 47);
                         break;
                     case '*':
                         //bullet bill
@@ -122,11 +137,11 @@ public class MarioLevel {
                         if (y > 1 && lines[y - 2].charAt(x) == '*') {
                             tempIndex += 1;
                         }
-                        this.levelTiles[x][y] = 3 + tempIndex;
+                        this.levelTiles.set(x, y, 3 + tempIndex);
                         break;
                     case 'B':
                         //bullet bill head
-                        this.levelTiles[x][y] = 3;
+                        this.levelTiles.set(x, y, 3);
                         break;
                     case 'b':
                         //bullet bill neck and body
@@ -134,53 +149,53 @@ public class MarioLevel {
                         if (y > 1 && lines[y - 2].charAt(x) == 'B') {
                             tempIndex += 1;
                         }
-                        this.levelTiles[x][y] = 4 + tempIndex;
+                        this.levelTiles.set(x, y, 4 + tempIndex);
                         break;
                     case '?':
                     case '@':
                         //mushroom question block
-                        this.levelTiles[x][y] = 8;
+                        this.levelTiles.set(x, y, 8);
                         break;
                     case 'Q':
                     case '!':
                         //coin question block
                         this.totalCoins += 1;
-                        this.levelTiles[x][y] = 11;
+                        this.levelTiles.set(x, y, 11);
                         break;
                     case '1':
                         //invisible 1 up block
-                        this.levelTiles[x][y] = 48;
+                        this.levelTiles.set(x, y, 48);
                         break;
                     case '2':
                         //invisible coin block
                         this.totalCoins += 1;
-                        this.levelTiles[x][y] = 49;
+                        this.levelTiles.set(x, y, 49);
                         break;
                     case 'D':
                         //used
-                        this.levelTiles[x][y] = 14;
+                        this.levelTiles.set(x, y, 14);
                         break;
                     case 'S':
                         //normal block
-                        this.levelTiles[x][y] = 6;
+                        this.levelTiles.set(x, y, 6);
                         break;
                     case 'C':
                         //coin block
                         this.totalCoins += 1;
-                        this.levelTiles[x][y] = 7;
+                        this.levelTiles.set(x, y, 7);
                         break;
                     case 'U':
                         //mushroom block
-                        this.levelTiles[x][y] = 50;
+                        this.levelTiles.set(x, y, 50);
                         break;
                     case 'L':
                         //1up block
-                        this.levelTiles[x][y] = 51;
+                        this.levelTiles.set(x, y, 51);
                         break;
                     case 'o':
                         //coin
                         this.totalCoins += 1;
-                        this.levelTiles[x][y] = 15;
+                        this.levelTiles.set(x, y, 15);
                         break;
                     case 't':
                         //empty Pipe
@@ -190,7 +205,7 @@ public class MarioLevel {
                                 x > 0 && Character.toLowerCase(lines[y].charAt(x - 1)) != 't') {
                             singlePipe = true;
                         }
-                        if (x > 0 && (this.levelTiles[x - 1][y] == 18 || this.levelTiles[x - 1][y] == 20)) {
+                        if (x > 0 && (this.levelTiles.get(x - 1, y) == 18 || this.levelTiles.get(x - 1, y) == 20)) {
                             tempIndex += 1;
                         }
                         if (y > 0 && Character.toLowerCase(lines[y - 1].charAt(x)) == 't') {
@@ -201,9 +216,9 @@ public class MarioLevel {
                             }
                         }
                         if (singlePipe) {
-                            this.levelTiles[x][y] = 52 + tempIndex;
+                            this.levelTiles.set(x, y, 52 + tempIndex);
                         } else {
-                            this.levelTiles[x][y] = 18 + tempIndex;
+                            this.levelTiles.set(x, y, 18 + tempIndex);
                         }
                         break;
                     case 'T':
@@ -211,7 +226,7 @@ public class MarioLevel {
                         tempIndex = 0;
                         singlePipe = x < lines[y].length() - 1 && Character.toLowerCase(lines[y].charAt(x + 1)) != 't' &&
                                 x > 0 && Character.toLowerCase(lines[y].charAt(x - 1)) != 't';
-                        if (x > 0 && (this.levelTiles[x - 1][y] == 18 || this.levelTiles[x - 1][y] == 20)) {
+                        if (x > 0 && (this.levelTiles.get(x - 1, y) == 18 || this.levelTiles.get(x - 1, y) == 20)) {
                             tempIndex += 1;
                         }
                         if (y > 0 && Character.toLowerCase(lines[y - 1].charAt(x)) == 't') {
@@ -222,29 +237,29 @@ public class MarioLevel {
                             }
                         }
                         if (singlePipe) {
-                            this.levelTiles[x][y] = 52 + tempIndex;
+                            this.levelTiles.set(x, y, 52 + tempIndex);
                         } else {
                             if (tempIndex == 0) {
                                 this.spriteTemplates[x][y] = SpriteType.ENEMY_FLOWER;
                             }
-                            this.levelTiles[x][y] = 18 + tempIndex;
+                            this.levelTiles.set(x, y, 18 + tempIndex);
                         }
                         break;
                     case '<':
                         //pipe top left
-                        this.levelTiles[x][y] = 18;
+                        this.levelTiles.set(x, y, 18);
                         break;
                     case '>':
                         //pipe top right
-                        this.levelTiles[x][y] = 19;
+                        this.levelTiles.set(x, y, 19);
                         break;
                     case '[':
                         //pipe body left
-                        this.levelTiles[x][y] = 20;
+                        this.levelTiles.set(x, y, 20);
                         break;
                     case ']':
                         //pipe body right
-                        this.levelTiles[x][y] = 21;
+                        this.levelTiles.set(x, y, 21);
                         break;
                 }
             }
@@ -258,20 +273,173 @@ public class MarioLevel {
             this.exitTileY = findFirstFloor(lines, this.exitTileX);
         }
         for (int y = this.exitTileY; y > Math.max(1, this.exitTileY - 11); y--) {
-            this.levelTiles[this.exitTileX][y] = 40;
+            this.levelTiles.set(this.exitTileX, y, 40);
         }
-        this.levelTiles[this.exitTileX][Math.max(1, this.exitTileY - 11)] = 39;
+        this.levelTiles.set(this.exitTileX, Math.max(1, this.exitTileY - 11), 39);
+        this.initializeSpawns();
 
         if (visuals) {
-            this.graphics = new MarioTilemap(Assets.level, this.levelTiles);
-            this.flag = new MarioImage(Assets.level, 41);
-            this.flag.width = 16;
-            this.flag.height = 16;
+            this.initializeGraphics();
         }
     }
 
+    /**
+     * Load a level compiled by toBinary, the tiles are read straight from the buffer into the grid
+     *
+     * @param level   the compiled level, read from its position, it can be a memory mapped file
+     * @param visuals if the level will be rendered
+     * @throws IllegalArgumentException if the buffer isn't a compiled level, is truncated, is taller than
+     *                                  256 tiles or has its start or exit outside of the tiles
+     */
+    public MarioLevel(ByteBuffer level, boolean visuals) {
+        if (level.remaining() < 12 || level.getInt() != BINARY_MAGIC) {
+            throw new IllegalArgumentException("Not a compiled level");
+        }
+        int levelWidth = level.getInt();
+        int levelHeight = level.getInt();
+        if (levelWidth == 0) {
+            this.tileWidth = 0;
+            this.width = 0;
+            this.tileHeight = 0;
+            this.height = 0;
+            return;
+        }
+        //the sizes come from the file, so they are checked against the buffer before anything is allocated
+        if (levelHeight > MAX_BINARY_TILE_HEIGHT) {
+            throw new IllegalArgumentException("Compiled level of " + levelWidth + "x" + levelHeight +
+                    " tiles is taller than " + MAX_BINARY_TILE_HEIGHT + " tiles");
+        }
+        if (levelWidth < 0 || levelHeight <= 0 || levelWidth > Integer.MAX_VALUE / 16 ||
+                24 + (long) levelWidth * levelHeight > level.remaining()) {
+            throw new IllegalArgumentException("Truncated compiled level of " + levelWidth + "x" + levelHeight + " tiles");
+        }
+        this.tileWidth = levelWidth;
+        this.width = this.tileWidth * 16;
+        this.tileHeight = levelHeight;
+        this.height = this.tileHeight * 16;
+        this.totalCoins = level.getInt();
+        this.marioTileX = level.getInt();
+        this.marioTileY = level.getInt();
+        this.exitTileX = level.getInt();
+        this.exitTileY = level.getInt();
+        //the text parser gives -1 to the row of a column without a floor
+        if (this.marioTileX < 0 || this.marioTileX >= this.tileWidth || this.marioTileY < -1 || this.marioTileY >= this.tileHeight ||
+                this.exitTileX < 0 || this.exitTileX >= this.tileWidth || this.exitTileY < -1 || this.exitTileY >= this.tileHeight) {
+            throw new IllegalArgumentException("Invalid start " + this.marioTileX + "," + this.marioTileY + " or exit " +
+                    this.exitTileX + "," + this.exitTileY + " in a compiled level of " + levelWidth + "x" + levelHeight + " tiles");
+        }
+
+        this.levelTiles = new MarioTileGrid(this.tileWidth, this.tileHeight, 0);
+        this.levelTiles.read(level);
+        this.spriteTemplates = new SpriteType[this.tileWidth][this.tileHeight];
+        for (SpriteType[] column : this.spriteTemplates) {
+            Arrays.fill(column, SpriteType.NONE);
+        }
+        SpriteType[] types = SpriteType.values();
+        int templates = level.getInt();
+        if (templates < 0 || templates > level.remaining() / 5) {
+            throw new IllegalArgumentException("Truncated compiled level with " + templates + " sprite templates");
+        }
+        for (int i = 0; i < templates; i++) {
+            int cell = level.getInt();
+            int type = level.get();
+            if (cell < 0 || cell >= this.tileWidth * this.tileHeight || type >= types.length) {
+                throw new IllegalArgumentException("Invalid sprite template " + type + " at cell " + cell);
+            }
+            //cells of short lines have no template at all
+            this.spriteTemplates[cell / this.tileHeight][cell % this.tileHeight] = type < 0 ? null : types[type];
+        }
+        this.initializeSpawns();
+
+        if (visuals) {
+            this.initializeGraphics();
+        }
+    }
+
+    /**
+     * Map a level file compiled by toBinary, the ByteBuffer constructor reads the tiles
+     * straight from the mapping
+     *
+     * @param path the compiled level file
+     * @return the mapped file
+     * @throws IOException if the file can't be read
+     */
+    public static ByteBuffer map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    /**
+     * Load a level file compiled by toBinary
+     *
+     * @param path    the compiled level file
+     * @param visuals if the level will be rendered
+     * @return the level
+     * @throws IOException if the file can't be read
+     * @throws IllegalArgumentException if the file isn't a compiled level
+     */
+    public static MarioLevel load(Path path, boolean visuals) throws IOException {
+        return new MarioLevel(map(path), visuals);
+    }
+
+    /**
+     * Compile the level into the binary format that the ByteBuffer constructor loads. It keeps the
+     * resolved tiles, the enemy templates, the start, the exit and the coins, so loading it gives
+     * the same level as parsing the text again. Levels taller than 256 tiles can't be loaded.
+     *
+     * @return the compiled level
+     */
+    public byte[] toBinary() {
+        if (this.tileWidth == 0) {
+            return ByteBuffer.allocate(12).putInt(BINARY_MAGIC).putInt(0).putInt(0).array();
+        }
+        int templates = 0;
+        for (SpriteType[] column : this.spriteTemplates) {
+            for (SpriteType type : column) {
+                if (type != SpriteType.NONE) {
+                    templates += 1;
+                }
+            }
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(36 + this.tileWidth * this.tileHeight + templates * 5);
+        buffer.putInt(BINARY_MAGIC).putInt(this.tileWidth).putInt(this.tileHeight);
+        buffer.putInt(this.totalCoins).putInt(this.marioTileX).putInt(this.marioTileY);
+        buffer.putInt(this.exitTileX).putInt(this.exitTileY);
+        this.levelTiles.write(buffer);
+        buffer.putInt(templates);
+        for (int x = 0; x < this.tileWidth; x++) {
+            for (int y = 0; y < this.tileHeight; y++) {
+                SpriteType type = this.spriteTemplates[x][y];
+                if (type != SpriteType.NONE) {
+                    buffer.putInt(x * this.tileHeight + y);
+                    buffer.put((byte) (type == null ? -1 : type.ordinal()));
+                }
+            }
+        }
+        return buffer.array();
+    }
+
+    private void initializeGraphics() {
+        int[][] tiles = new int[this.tileWidth][this.tileHeight];
+        for (int x = 0; x < this.tileWidth; x++) {
+            for (int y = 0; y < this.tileHeight; y++) {
+                tiles[x][y] = this.levelTiles.get(x, y);
+            }
+        }
+        this.graphics = new MarioTilemap(Assets.level, tiles);
+        this.flag = new MarioImage(Assets.level, 41);
+        this.flag.width = 16;
+        this.flag.height = 16;
+    }
+
     public MarioLevel clone() {
         MarioLevel level = new MarioLevel("", false);
+        this.copyTo(level);
+        return level;
+    }
+
+    public void copyTo(MarioLevel level) {
         level.width = this.width;
         level.height = this.height;
         level.tileWidth = this.tileWidth;
@@ -281,24 +449,41 @@ public class MarioLevel {
         level.marioTileY = this.marioTileY;
         level.exitTileX = this.exitTileX;
         level.exitTileY = this.exitTileY;
-        level.levelTiles = new int[this.levelTiles.length][this.levelTiles[0].length];
-        level.lastSpawnTime = new int[this.levelTiles.length][this.levelTiles[0].length];
-        for (int x = 0; x < level.levelTiles.length; x++) {
-            for (int y = 0; y < level.levelTiles[x].length; y++) {
-                level.levelTiles[x][y] = this.levelTiles[x][y];
-                level.lastSpawnTime[x][y] = this.lastSpawnTime[x][y];
-            }
+        if (this.levelTiles.hasSameSize(level.levelTiles)) {
+            this.levelTiles.copyTo(level.levelTiles);
+        } else {
+            level.levelTiles = this.levelTiles.clone();
         }
         level.spriteTemplates = this.spriteTemplates;
-        return level;
+        level.spawnRows = this.spawnRows;
+        level.spawnIds = this.spawnIds;
+        level.numSpawns = this.numSpawns;
+        level.lastSpawnTime = this.lastSpawnTime == null ? null : this.lastSpawnTime.clone();
+    }
+
+    /**
+     * Rough heap size a clone of this level keeps alive on its own, the templates and
+     * spawn tables are shared by all the clones
+     *
+     * @return the estimate in bytes
+     */
+    long estimateCloneBytes() {
+        long bytes = 128;
+        if (this.levelTiles != null) {
+            bytes += this.levelTiles.estimateCloneBytes();
+        }
+        if (this.lastSpawnTime != null) {
+            bytes += this.lastSpawnTime.estimateCloneBytes();
+        }
+        return bytes;
     }
 
     public boolean isBlocking(int xTile, int yTile, float xa, float ya) {
         int block = this.getBlock(xTile, yTile);
-        ArrayList<TileFeature> features = TileFeature.getTileType(block);
-        boolean blocking = features.contains(TileFeature.BLOCK_ALL);
-        blocking |= (ya < 0) && features.contains(TileFeature.BLOCK_UPPER);
-        blocking |= (ya > 0) && features.contains(TileFeature.BLOCK_LOWER);
+        int features = TileFeature.getTileFlags(block);
+        boolean blocking = (features & TileFeature.BLOCK_ALL.getMask()) != 0;
+        blocking |= (ya < 0) && (features & TileFeature.BLOCK_UPPER.getMask()) != 0;
+        blocking |= (ya > 0) && (features & TileFeature.BLOCK_LOWER.getMask()) != 0;
 
         return blocking;
     }
@@ -313,14 +498,17 @@ public class MarioLevel {
         if (yTile < 0 || yTile > this.tileHeight - 1) {
             return 0;
         }
-        return this.levelTiles[xTile][yTile];
+        return this.levelTiles.get(xTile, yTile);
     }
 
     public void setBlock(int xTile, int yTile, int index) {
         if (xTile < 0 || yTile < 0 || xTile > this.tileWidth - 1 || yTile > this.tileHeight - 1) {
             return;
         }
-        this.levelTiles[xTile][yTile] = index;
+        this.levelTiles.set(xTile, yTile, index);
+        if (this.graphics != null) {
+            this.graphics.currentIndeces[xTile][yTile] = index;
+        }
     }
 
     public void setShiftIndex(int xTile, int yTile, int shift) {
@@ -337,20 +525,93 @@ public class MarioLevel {
         return this.spriteTemplates[xTile][yTile];
     }
 
+    private void initializeSpawns() {
+        this.spawnRows = new int[this.tileWidth][];
+        this.spawnIds = new int[this.tileWidth][];
+        this.numSpawns = 0;
+        int[] rows = new int[this.tileHeight];
+        int[] ids = new int[this.tileHeight];
+        for (int x = 0; x < this.tileWidth; x++) {
+            int count = 0;
+            for (int y = 0; y < this.tileHeight; y++) {
+                if (this.spriteTemplates[x][y] != SpriteType.NONE) {
+                    rows[count] = y;
+                    ids[count] = this.numSpawns++;
+                    count += 1;
+                } else if (TileFeature.hasFeature(this.levelTiles.get(x, y), TileFeature.SPAWNER)) {
+                    rows[count] = y;
+                    ids[count] = -1;
+                    count += 1;
+                }
+            }
+            this.spawnRows[x] = Arrays.copyOf(rows, count);
+            this.spawnIds[x] = Arrays.copyOf(ids, count);
+        }
+    }
+
+    public int[] getSpawnRows(int xTile) {
+        if (this.tileWidth == 0) {
+            return NO_SPAWNS;
+        }
+        if (xTile < 0) {
+            xTile = 0;
+        }
+        if (xTile > this.tileWidth - 1) {
+            xTile = this.tileWidth - 1;
+        }
+        return this.spawnRows[xTile];
+    }
+
+    public int[] getSpawnIds(int xTile) {
+        if (this.tileWidth == 0) {
+            return NO_SPAWNS;
+        }
+        if (xTile < 0) {
+            xTile = 0;
+        }
+        if (xTile > this.tileWidth - 1) {
+            xTile = this.tileWidth - 1;
+        }
+        return this.spawnIds[xTile];
+    }
+
+    public int getNumSpawns() {
+        return this.numSpawns;
+    }
+
+    /**
+     * @deprecated the engine doesn't record spawn ticks anymore, it tracks the live
+     * spawns by id in the world. This only returns what setLastSpawnTick stored, -40
+     * (the old initial value) for the tiles it never set.
+     */
+    @Deprecated
     public int getLastSpawnTick(int xTile, int yTile) {
         if (xTile < 0 || yTile < 0 || xTile > this.tileWidth - 1 || yTile > this.tileHeight - 1) {
             return 0;
         }
-        return this.lastSpawnTime[xTile][yTile];
+        return this.lastSpawnTime == null ? -40 : this.lastSpawnTime.get(xTile, yTile);
     }
 
+    /**
+     * @deprecated the engine doesn't read spawn ticks anymore, the value is only kept
+     * for getLastSpawnTick
+     */
+    @Deprecated
     public void setLastSpawnTick(int xTile, int yTile, int tick) {
         if (xTile < 0 || yTile < 0 || xTile > this.tileWidth - 1 || yTile > this.tileHeight - 1) {
             return;
         }
-        this.lastSpawnTime[xTile][yTile] = tick;
+        if (this.lastSpawnTime == null) {
+            this.lastSpawnTime = new MarioTileGrid(this.tileWidth, this.tileHeight, -40);
+        }
+        this.lastSpawnTime.set(xTile, yTile, tick);
     }
 
+    /**
+     * @deprecated sprites are identified by the int spawn ids of getSpawnIds, this is
+     * the old "x_y_type" code of a tile
+     */
+    @Deprecated
     public String getSpriteCode(int xTile, int yTile) {
         return xTile + "_" + yTile + "_" + this.getSpriteType(xTile, yTile).getValue();
     }
@@ -364,7 +625,7 @@ public class MarioLevel {
     private int findFirstFloor(String[] lines, int x) {
         boolean skipLines = true;
         for (int i = lines.length - 1; i >= 0; i--) {
-            Character c = lines[i].charAt(x);
+            char c = lines[i].charAt(x);
             if (isSolid(c)) {
                 skipLines = false;
                 continue;
@@ -0,0 +1,309 @@
+package engine.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import engine.helper.GameStatus;
+import engine.helper.MarioActions;
+
+/**
+ * Plays fixed action sequences on one level without visuals. The results are the
+ * same as MarioGame.runGame with an agent that returns those actions and
+ * EventRetention.COUNTERS_ONLY. Every few steps the world is copied into a
+ * checkpoint, so a later sequence that starts with the same actions resumes from
+ * the last shared checkpoint instead of replaying from the start. The checkpoints
+ * are kept in a least recently used store that is shared by all threads and is
+ * bounded by a number of checkpoints and by an estimate of the heap they use.
+ */
+public class MarioReplay {
+    private static class Key {
+        private final int length;
+        private final long hash;
+
+        Key(int length, long hash) {
+            this.length = length;
+            this.hash = hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return this.length == other.length && this.hash == other.hash;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(this.hash) * 31 + this.length;
+        }
+    }
+
+    /**
+     * Decides if a replayed game should end before the game itself is over
+     */
+    public interface StopCondition {
+        /**
+         * Called after every step of a running game
+         *
+         * @param state the statistics of the game so far, it reads the live game and
+         *              is only valid during the call
+         * @return true to end the game at this step
+         */
+        boolean shouldStop(MarioResult state);
+    }
+
+    private static class Checkpoint {
+        //packed actions of the trajectory, only the first length steps are part of the checkpoint
+        private long[] actions;
+        private int length;
+        private MarioWorld world;
+        private ArrayList<MarioEvent> lastFrameEvents;
+        //estimated heap size of the checkpoint, the packed actions are counted although checkpoints of one game share them
+        private long bytes;
+
+        Checkpoint(long[] actions, int length, MarioWorld world) {
+            this.actions = actions;
+            this.length = length;
+            this.world = world.clone();
+            this.lastFrameEvents = new ArrayList<>(world.lastFrameEvents);
+            this.bytes = 64 + this.world.estimateCloneBytes() + this.lastFrameEvents.size() * 48L + actions.length * 8L;
+        }
+    }
+
+    /**
+     * number of bits of each step in packed actions, bit a is the action with value a
+     */
+    public static final int BITS_PER_STEP = MarioActions.numberOfActions();
+    /**
+     * number of steps in each long of packed actions, step i is in word i / STEPS_PER_WORD
+     * starting at bit BITS_PER_STEP * (i % STEPS_PER_WORD)
+     */
+    public static final int STEPS_PER_WORD = 64 / BITS_PER_STEP;
+    //the actions array of each packed step
+    private static final boolean[][] STEP_ACTIONS = new boolean[1 << BITS_PER_STEP][BITS_PER_STEP];
+
+    static {
+        for (int bits = 0; bits < STEP_ACTIONS.length; bits++) {
+            for (int a = 0; a < BITS_PER_STEP; a++) {
+                STEP_ACTIONS[bits][a] = (bits & (1 << a)) != 0;
+            }
+        }
+    }
+
+    private int interval;
+    private int capacity;
+    private long memory;
+    private long storedBytes;
+    private Checkpoint start;
+    private LinkedHashMap<Key, Checkpoint> checkpoints;
+    private long resumedSteps;
+    private long playedSteps;
+
+    /**
+     * Create a replay for a certain level
+     *
+     * @param level      a string that constitutes the mario level, it uses the same representation as the VGLC but with more details.
+     * @param timer      number of seconds for that level to be played. Setting timer to anything &lt;=0 will make the time infinite
+     * @param marioState the initial state that mario appears in. 0 small mario, 1 large mario, and 2 fire mario.
+     * @param interval   the number of steps between two checkpoints of the same sequence
+     * @param capacity   the maximum number of checkpoints kept in memory
+     */
+    public MarioReplay(String level, int timer, int marioState, int interval, int capacity) {
+        this(level, timer, marioState, interval, capacity, Long.MAX_VALUE);
+    }
+
+    /**
+     * Create a replay for a certain level with a memory budget for its checkpoints. The
+     * size of a checkpoint is estimated from its sprites, events and the tiles it keeps
+     * apart from the other worlds, so the budget is approximate.
+     *
+     * @param level      a string that constitutes the mario level, it uses the same representation as the VGLC but with more details.
+     * @param timer      number of seconds for that level to be played. Setting timer to anything &lt;=0 will make the time infinite
+     * @param marioState the initial state that mario appears in. 0 small mario, 1 large mario, and 2 fire mario.
+     * @param interval   the number of steps between two checkpoints of the same sequence
+     * @param capacity   the maximum number of checkpoints kept in memory
+     * @param memory     the maximum estimated number of bytes of all the checkpoints
+     */
+    public MarioReplay(String level, int timer, int marioState, int interval, int capacity, long memory) {
+        this.interval = Math.max(1, interval);
+        this.capacity = capacity;
+        this.memory = memory;
+        this.checkpoints = new LinkedHashMap<>(16, 0.75f, true);
+        //same setup as MarioGame.gameLoop
+        MarioWorld world = new MarioWorld(null);
+        world.visuals = false;
+        world.initializeLevel(level, 1000 * timer);
+        world.mario.isLarge = marioState > 0;
+        world.mario.isFire = marioState > 1;
+        world.update(new boolean[MarioActions.numberOfActions()]);
+        world.eventCounters.clear();
+        this.start = new Checkpoint(new long[0], 0, world);
+    }
+
+    private static long[] pack(boolean[][] actions) {
+        long[] packed = new long[(actions.length + STEPS_PER_WORD - 1) / STEPS_PER_WORD];
+        for (int i = 0; i < actions.length; i++) {
+            long bits = 0;
+            for (int a = 0; a < BITS_PER_STEP && a < actions[i].length; a++) {
+                if (actions[i][a]) {
+                    bits |= 1L << a;
+                }
+            }
+            packed[i / STEPS_PER_WORD] |= bits << (BITS_PER_STEP * (i % STEPS_PER_WORD));
+        }
+        return packed;
+    }
+
+    private static long getStep(long[] packed, int i) {
+        return (packed[i / STEPS_PER_WORD] >>> (BITS_PER_STEP * (i % STEPS_PER_WORD))) & ((1L << BITS_PER_STEP) - 1);
+    }
+
+    private static boolean samePrefix(long[] a, long[] b, int length) {
+        for (int i = 0; i < length; i++) {
+            if (getStep(a, i) != getStep(b, i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * get the hash of every prefix of the sequence that ends on a checkpoint
+     */
+    private long[] getCheckpointHashes(long[] packed, int length) {
+        long[] hashes = new long[length / this.interval + 1];
+        long h = 0;
+        for (int i = 0; i < length; i++) {
+            h = h * 0x9E3779B97F4A7C15L + getStep(packed, i) + 1;
+            if ((i + 1) % this.interval == 0) {
+                hashes[(i + 1) / this.interval] = h;
+            }
+        }
+        return hashes;
+    }
+
+    private synchronized Checkpoint findCheckpoint(long[] packed, long[] hashes) {
+        for (int c = hashes.length - 1; c > 0; c--) {
+            Checkpoint checkpoint = this.checkpoints.get(new Key(c * this.interval, hashes[c]));
+            if (checkpoint != null && samePrefix(checkpoint.actions, packed, checkpoint.length)) {
+                return checkpoint;
+            }
+        }
+        return this.start;
+    }
+
+    private synchronized void addCheckpoint(long hash, Checkpoint checkpoint) {
+        Checkpoint replaced = this.checkpoints.put(new Key(checkpoint.length, hash), checkpoint);
+        this.storedBytes += checkpoint.bytes - (replaced == null ? 0 : replaced.bytes);
+        //the iteration order is from the least recently used
+        Iterator<Checkpoint> eldest = this.checkpoints.values().iterator();
+        while (eldest.hasNext() && (this.checkpoints.size() > this.capacity || this.storedBytes > this.memory)) {
+            this.storedBytes -= eldest.next().bytes;
+            eldest.remove();
+        }
+    }
+
+    private synchronized void addSteps(int resumed, int played) {
+        this.resumedSteps += resumed;
+        this.playedSteps += played;
+    }
+
+    /**
+     * Play a sequence of actions until the game ends
+     *
+     * @param actions the actions for each step of the game loop
+     * @return the statistics of the game, or null if the game didn't end before the
+     * sequence ran out of actions
+     */
+    public MarioResult play(boolean[][] actions) {
+        return this.playPacked(pack(actions), actions.length, null);
+    }
+
+    /**
+     * Play a sequence of packed actions until the game ends. The words use the
+     * layout described by BITS_PER_STEP and STEPS_PER_WORD and are copied, so the
+     * caller can change them after the call.
+     *
+     * @param words  the packed actions for each step of the game loop
+     * @param length the number of steps in the sequence
+     * @return the statistics of the game, or null if the game didn't end before the
+     * sequence ran out of actions
+     */
+    public MarioResult play(long[] words, int length) {
+        return this.play(words, length, null);
+    }
+
+    /**
+     * Play a sequence of packed actions until the game ends or the condition stops
+     * it. A stopped game has the status GameStatus.RUNNING in its result.
+     *
+     * @param words     the packed actions for each step of the game loop
+     * @param length    the number of steps in the sequence
+     * @param condition checked after every step, null to always play until the end
+     * @return the statistics of the game, or null if the game didn't end or stop
+     * before the sequence ran out of actions
+     */
+    public MarioResult play(long[] words, int length, StopCondition condition) {
+        return this.playPacked(Arrays.copyOf(words, (length + STEPS_PER_WORD - 1) / STEPS_PER_WORD), length, condition);
+    }
+
+    private MarioResult playPacked(long[] packed, int length, StopCondition condition) {
+        long[] hashes = this.getCheckpointHashes(packed, length);
+        Checkpoint checkpoint = this.findCheckpoint(packed, hashes);
+
+        MarioWorld world = new MarioWorld(null);
+        checkpoint.world.copyTo(world);
+        world.lastFrameEvents.addAll(checkpoint.lastFrameEvents);
+        int steps = checkpoint.length;
+        ArrayList<MarioEvent> events = new ArrayList<>();
+        ArrayList<MarioAgentEvent> agentEvents = new ArrayList<>();
+        while (world.gameStatus == GameStatus.RUNNING) {
+            if (steps >= length) {
+                this.addSteps(checkpoint.length, steps - checkpoint.length);
+                return null;
+            }
+            MarioGame.stepWorld(world, STEP_ACTIONS[(int) getStep(packed, steps)]);
+            steps += 1;
+            if (steps % this.interval == 0 && world.gameStatus == GameStatus.RUNNING) {
+                this.addCheckpoint(hashes[steps / this.interval], new Checkpoint(packed, steps, world));
+            }
+            if (condition != null && world.gameStatus == GameStatus.RUNNING &&
+                    condition.shouldStop(new MarioResult(world, events, agentEvents, steps, world.eventCounters))) {
+                break;
+            }
+        }
+        this.addSteps(checkpoint.length, steps - checkpoint.length);
+        return new MarioResult(world, events, agentEvents, steps, world.eventCounters);
+    }
+
+    /**
+     * get the number of steps that were skipped by resuming from checkpoints
+     *
+     * @return the total number of skipped steps
+     */
+    public synchronized long getResumedSteps() {
+        return this.resumedSteps;
+    }
+
+    /**
+     * get the estimated size of the checkpoints that are kept
+     *
+     * @return the estimate in bytes
+     */
+    public synchronized long getStoredBytes() {
+        return this.storedBytes;
+    }
+
+    /**
+     * get the number of steps that were simulated
+     *
+     * @return the total number of simulated steps
+     */
+    public synchronized long getPlayedSteps() {
+        return this.playedSteps;
+    }
+}
@@ -4,24 +4,68 @@ import java.util.ArrayList;
 
 import engine.helper.EventType;
 import engine.helper.GameStatus;
-import engine.helper.SpriteType;
 
 public class MarioResult {
     private MarioWorld world;
     private ArrayList<MarioEvent> gameEvents;
     private ArrayList<MarioAgentEvent> agentEvents;
+    private int agentSteps;
+    //statistics of the game events, from the world for the games of the engine or counted from gameEvents on first use
+    private MarioEventCounters counters;
 
     /**
-     * Create a mario result object
+     * Create a mario result object. The event statistics (kills, jumps, bumps and
+     * collects) are counted from gameEvents.
      *
      * @param world the current level world that is being used. This class uses the world object to get cleaner statistics.
      * @param gameEvents   the events that happens in the playthrough of the game
      * @param agentEvents  the events that happens in the playthrough of the game
      */
     public MarioResult(MarioWorld world, ArrayList<MarioEvent> gameEvents, ArrayList<MarioAgentEvent> agentEvents) {
+        this(world, gameEvents, agentEvents, agentEvents.size());
+    }
+
+    /**
+     * Create a mario result object. The event statistics (kills, jumps, bumps and
+     * collects) are counted from gameEvents.
+     *
+     * @param world       the current level world that is being used. This class uses the world object to get cleaner statistics.
+     * @param gameEvents  the events that happens in the playthrough of the game
+     * @param agentEvents the events that happens in the playthrough of the game
+     * @param agentSteps  the number of times the agent was asked for actions
+     */
+    public MarioResult(MarioWorld world, ArrayList<MarioEvent> gameEvents, ArrayList<MarioAgentEvent> agentEvents, int agentSteps) {
+        this(world, gameEvents, agentEvents, agentSteps, null);
+    }
+
+    /**
+     * Create the result of a game played by the engine, the event statistics are read
+     * from the running counters of the world so gameEvents can be empty
+     *
+     * @param world       the world of the game
+     * @param gameEvents  the events that were kept, empty with EventRetention.COUNTERS_ONLY
+     * @param agentEvents the actions that were kept, empty with EventRetention.COUNTERS_ONLY
+     * @param agentSteps  the number of times the agent was asked for actions
+     * @param counters    the counters of all the events of the game, null counts them from gameEvents
+     */
+    MarioResult(MarioWorld world, ArrayList<MarioEvent> gameEvents, ArrayList<MarioAgentEvent> agentEvents, int agentSteps,
+                MarioEventCounters counters) {
         this.world = world;
         this.gameEvents = gameEvents;
         this.agentEvents = agentEvents;
+        this.agentSteps = agentSteps;
+        this.counters = counters;
+    }
+
+    private MarioEventCounters getCounters() {
+        if (this.counters == null) {
+            MarioEventCounters counted = new MarioEventCounters();
+            for (MarioEvent e : this.gameEvents) {
+                counted.add(e);
+            }
+            this.counters = counted;
+        }
+        return this.counters;
     }
 
     /**
@@ -68,7 +112,8 @@ public class MarioResult {
     }
 
     /**
-     * Get all the game events that happen in the game
+     * Get all the game events that happen in the game. The list is empty if the
+     * game was played with EventRetention.COUNTERS_ONLY
      *
      * @return an arrayList of all possible events that happened in a mario game
      */
@@ -77,7 +122,8 @@ public class MarioResult {
     }
 
     /**
-     * Get all the actions that the agent has been taking during the game
+     * Get all the actions that the agent has been taking during the game. The list is
+     * empty if the game was played with EventRetention.COUNTERS_ONLY
      *
      * @return an arraylist that contains all the actions the agent has taken during game play
      */
@@ -85,20 +131,33 @@ public class MarioResult {
         return this.agentEvents;
     }
 
+    /**
+     * Get the number of times the agent was asked for actions, it is known even
+     * if the game was played with EventRetention.COUNTERS_ONLY
+     *
+     * @return the number of actions the agent returned during the game
+     */
+    public int getNumAgentSteps() {
+        return this.agentSteps;
+    }
+
+    /**
+     * Get the number of game ticks since mario last got further to the right than
+     * anywhere before in the game
+     *
+     * @return the number of ticks without progress
+     */
+    public int getTicksWithoutProgress() {
+        return this.world.currentTick - this.world.maxMarioXTick;
+    }
+
     /**
      * get the number of enemies killed in the game
      *
      * @return number of enemies killed in the game
      */
     public int getKillsTotal() {
-        int kills = 0;
-        for (MarioEvent e : this.gameEvents) {
-            if (e.getEventType() == EventType.STOMP_KILL.getValue() || e.getEventType() == EventType.FIRE_KILL.getValue() ||
-                    e.getEventType() == EventType.FALL_KILL.getValue() || e.getEventType() == EventType.SHELL_KILL.getValue()) {
-                kills += 1;
-            }
-        }
-        return kills;
+        return this.getCounters().getKillsTotal();
     }
 
     /**
@@ -107,13 +166,7 @@ public class MarioResult {
      * @return number of enemies killed by fireballs
      */
     public int getKillsByFire() {
-        int kills = 0;
-        for (MarioEvent e : this.gameEvents) {
-            if (e.getEventType() == EventType.FIRE_KILL.getValue()) {
-                kills += 1;
-            }
-        }
-        return kills;
+        return this.getCounters().getNumEvents(EventType.FIRE_KILL);
     }
 
     /**
@@ -122,13 +175,7 @@ public class MarioResult {
      * @return number of enemies killed by stomping
      */
     public int getKillsByStomp() {
-        int kills = 0;
-        for (MarioEvent e : this.gameEvents) {
-            if (e.getEventType() == EventType.STOMP_KILL.getValue()) {
-                kills += 1;
-            }
-        }
-        return kills;
+        return this.getCounters().getNumEvents(EventType.STOMP_KILL);
     }
 
     /**
@@ -137,13 +184,7 @@ public class MarioResult {
      * @return number of enemies killed by a koopa shell
      */
     public int getKillsByShell() {
-        int kills = 0;
-        for (MarioEvent e : this.gameEvents) {
-            if (e.getEventType() == EventType.SHELL_KILL.getValue()) {
-                kills += 1;
-            }
-        }
-        return kills;
+        return this.getCounters().getNumEvents(EventType.SHELL_KILL);
     }
 
     /**
@@ -153,15 +194,7 @@ public class MarioResult {
      * @return number of a certain type of enemy that has been killed by Mario
      */
     public int getMarioNumKills(int enemyType) {
-        int kills = 0;
-        for (MarioEvent e : this.gameEvents) {
-            if ((e.getEventType() == EventType.SHELL_KILL.getValue()
-                    || e.getEventType() == EventType.FIRE_KILL.getValue()
-                    || e.getEventType() == EventType.STOMP_KILL.getValue()) && e.getEventParam() == enemyType) {
-                kills += 1;
-            }
-        }
-        return kills;
+        return this.getCounters().getMarioNumKills(enemyType);
     }
 
     /**
@@ -170,13 +203,7 @@ public class MarioResult {
      * @return number of times mario got hurt
      */
     public int getMarioNumHurts() {
-        int hurt = 0;
-        for (MarioEvent e : this.gameEvents) {
-            if (e.getEventType() == EventType.HURT.getValue()) {
-                hurt += 1;
-            }
-        }
-        return hurt;
+        return this.getCounters().getNumEvents(EventType.HURT);
     }
 
     /**
@@ -185,13 +212,7 @@ public class MarioResult {
      * @return number of question mark block mario hit
      */
     public int getNumBumpQuestionBlock() {
-        int bump = 0;
-        for (MarioEvent e : this.gameEvents) {
-            if (e.getEventType() == EventType.BUMP.getValue() && e.getEventParam() == MarioForwardModel.OBS_QUESTION_BLOCK) {
-                bump += 1;
-            }
-        }
-        return bump;
+        return this.getCounters().getNumBumpQuestionBlock();
     }
 
     /**
@@ -200,13 +221,7 @@ public class MarioResult {
      * @return number of brick block mario hit
      */
     public int getNumBumpBrick() {
-        int bump = 0;
-        for (MarioEvent e : this.gameEvents) {
-            if (e.getEventType() == EventType.BUMP.getValue() && e.getEventParam() == MarioForwardModel.OBS_BRICK) {
-                bump += 1;
-            }
-        }
-        return bump;
+        return this.getCounters().getNumBumpBrick();
     }
 
     /**
@@ -215,13 +230,7 @@ public class MarioResult {
      * @return the number of enemies that fell from the game screen
      */
     public int getKillsByFall() {
-        int kills = 0;
-        for (MarioEvent e : this.gameEvents) {
-            if (e.getEventType() == EventType.FALL_KILL.getValue()) {
-                kills += 1;
-            }
-        }
-        return kills;
+        return this.getCounters().getNumEvents(EventType.FALL_KILL);
     }
 
     /**
@@ -230,13 +239,7 @@ public class MarioResult {
      * @return the number of jumps performed by mario during the game
      */
     public int getNumJumps() {
-        int jumps = 0;
-        for (MarioEvent e : this.gameEvents) {
-            if (e.getEventType() == EventType.JUMP.getValue()) {
-                jumps += 1;
-            }
-        }
-        return jumps;
+        return this.getCounters().getNumEvents(EventType.JUMP);
     }
 
     /**
@@ -245,19 +248,7 @@ public class MarioResult {
      * @return the maximum x distance traversed mario
      */
     public float getMaxXJump() {
-        float maxXJump = 0;
-        float startX = -100;
-        for (MarioEvent e : this.gameEvents) {
-            if (e.getEventType() == EventType.JUMP.getValue()) {
-                startX = e.getMarioX();
-            }
-            if (e.getEventType() == EventType.LAND.getValue()) {
-                if (Math.abs(e.getMarioX() - startX) > maxXJump) {
-                    maxXJump = Math.abs(e.getMarioX() - startX);
-                }
-            }
-        }
-        return maxXJump;
+        return this.getCounters().getMaxXJump();
     }
 
     /**
@@ -266,19 +257,7 @@ public class MarioResult {
      * @return the maximum amount of frames mario is being in the air
      */
     public int getMaxJumpAirTime() {
-        int maxAirJump = 0;
-        int startTime = -100;
-        for (MarioEvent e : this.gameEvents) {
-            if (e.getEventType() == EventType.JUMP.getValue()) {
-                startTime = e.getTime();
-            }
-            if (e.getEventType() == EventType.LAND.getValue()) {
-                if (e.getTime() - startTime > maxAirJump) {
-                    maxAirJump = e.getTime() - startTime;
-                }
-            }
-        }
-        return maxAirJump;
+        return this.getCounters().getMaxJumpAirTime();
     }
 
     /**
@@ -305,13 +284,7 @@ public class MarioResult {
      * @return the number of collected mushrooms by mario
      */
     public int getNumCollectedMushrooms() {
-        int collect = 0;
-        for (MarioEvent e : this.gameEvents) {
-            if (e.getEventType() == EventType.COLLECT.getValue() && e.getEventParam() == SpriteType.MUSHROOM.getValue()) {
-                collect += 1;
-            }
-        }
-        return collect;
+        return this.getCounters().getNumCollectedMushrooms();
     }
 
     /**
@@ -320,13 +293,7 @@ public class MarioResult {
      * @return the number of collected fire flowers by mario
      */
     public int getNumCollectedFireflower() {
-        int collect = 0;
-        for (MarioEvent e : this.gameEvents) {
-            if (e.getEventType() == EventType.COLLECT.getValue() && e.getEventParam() == SpriteType.FIRE_FLOWER.getValue()) {
-                collect += 1;
-            }
-        }
-        return collect;
+        return this.getCounters().getNumCollectedFireflower();
     }
 
     /**
@@ -335,13 +302,7 @@ public class MarioResult {
      * @return the number of collected coins by mario
      */
     public int getNumCollectedTileCoins() {
-        int collect = 0;
-        for (MarioEvent e : this.gameEvents) {
-            if (e.getEventType() == EventType.COLLECT.getValue() && e.getEventParam() == MarioForwardModel.OBS_COIN) {
-                collect += 1;
-            }
-        }
-        return collect;
+        return this.getCounters().getNumCollectedTileCoins();
     }
 
     /**
@@ -350,13 +311,6 @@ public class MarioResult {
      * @return the number of destroyed bricks by large or fire mario
      */
     public int getNumDestroyedBricks() {
-        int bricks = 0;
-        for (MarioEvent e : this.gameEvents) {
-            if (e.getEventType() == EventType.BUMP.getValue() &&
-                    e.getEventParam() == MarioForwardModel.OBS_BRICK && e.getMarioState() > 0) {
-                bricks += 1;
-            }
-        }
-        return bricks;
+        return this.getCounters().getNumDestroyedBricks();
     }
 }
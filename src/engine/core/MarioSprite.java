@@ -9,14 +9,16 @@ public abstract class MarioSprite {
     //    public static SpriteContext spriteContext;
     public SpriteType type = SpriteType.UNDEF;
 
-    public String initialCode;
+    public int initialCode;
     public float x, y, xa, ya;
     public int width, height, facing;
     public boolean alive;
     public MarioWorld world;
+    //set while the sprite waits in the world removed list until the end of the tick
+    boolean pendingRemoval;
 
     public MarioSprite(float x, float y, SpriteType type) {
-        this.initialCode = "";
+        this.initialCode = -1;
         this.x = x;
         this.y = y;
         this.xa = 0;
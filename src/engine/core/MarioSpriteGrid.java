@@ -0,0 +1,90 @@
+package engine.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Broad phase for sprite collisions. Buckets the sprites list by tile column so
+ * a collision check only visits the sprites in the columns next to a position.
+ * Every sprite collision in the engine needs the horizontal distance to be
+ * less than 16 pixels, so only the column of the position and its two
+ * neighbors need to be checked.
+ */
+class MarioSpriteGrid {
+    private int minColumn;
+    private int numColumns;
+    private int[] columnStart = new int[16];
+    private int[] cursor = new int[16];
+    private int[] entries = new int[16];
+    private int[] result = new int[16];
+
+    private static int getColumn(float x) {
+        return (int) Math.floor(x / 16);
+    }
+
+    /**
+     * Rebuild the buckets from the current sprite positions. Inside each bucket
+     * the sprites keep the same order as the list.
+     *
+     * @param sprites the sprites list of the world
+     */
+    void build(ArrayList<MarioSprite> sprites) {
+        int size = sprites.size();
+        if (size == 0) {
+            this.numColumns = 0;
+            return;
+        }
+        int min = Integer.MAX_VALUE;
+        int max = Integer.MIN_VALUE;
+        for (int i = 0; i < size; i++) {
+            int column = getColumn(sprites.get(i).x);
+            min = Math.min(min, column);
+            max = Math.max(max, column);
+        }
+        this.minColumn = min;
+        this.numColumns = max - min + 1;
+        if (this.columnStart.length < this.numColumns + 1) {
+            this.columnStart = new int[this.numColumns + 1];
+            this.cursor = new int[this.numColumns + 1];
+        }
+        if (this.entries.length < size) {
+            this.entries = new int[size];
+            this.result = new int[size];
+        }
+        Arrays.fill(this.columnStart, 0, this.numColumns + 1, 0);
+        for (int i = 0; i < size; i++) {
+            this.columnStart[getColumn(sprites.get(i).x) - min + 1] += 1;
+        }
+        for (int c = 0; c < this.numColumns; c++) {
+            this.columnStart[c + 1] += this.columnStart[c];
+        }
+        System.arraycopy(this.columnStart, 0, this.cursor, 0, this.numColumns);
+        for (int i = 0; i < size; i++) {
+            int c = getColumn(sprites.get(i).x) - min;
+            this.entries[this.cursor[c]++] = i;
+        }
+    }
+
+    /**
+     * Find all the sprites that are close enough to a position to collide with it.
+     * The indices are written into getResult() sorted by their order in the list.
+     *
+     * @param x the horizontal position to check around
+     * @return the number of indices written in getResult()
+     */
+    int query(float x) {
+        int count = 0;
+        int center = getColumn(x) - this.minColumn;
+        for (int c = Math.max(0, center - 1); c <= Math.min(this.numColumns - 1, center + 1); c++) {
+            int length = this.columnStart[c + 1] - this.columnStart[c];
+            System.arraycopy(this.entries, this.columnStart[c], this.result, count, length);
+            count += length;
+        }
+        Arrays.sort(this.result, 0, count);
+        return count;
+    }
+
+    int[] getResult() {
+        return this.result;
+    }
+}
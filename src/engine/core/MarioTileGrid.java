@@ -0,0 +1,134 @@
+package engine.core;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A column chunked int grid with copy on write semantics. Clones share all
+ * their chunks with the original and only copy a chunk the first time one of
+ * them writes into it, so cloning costs O(number of chunks) instead of
+ * O(width * height).
+ */
+class MarioTileGrid {
+    /**
+     * number of columns in each chunk is 1 &lt;&lt; CHUNK_SHIFT
+     */
+    static final int CHUNK_SHIFT = 4;
+    static final int CHUNK_MASK = (1 << CHUNK_SHIFT) - 1;
+
+    final int width;
+    final int height;
+
+    private int[][] chunks;
+    private boolean[] shared;
+
+    MarioTileGrid(int width, int height, int value) {
+        this.width = width;
+        this.height = height;
+        int numChunks = (width + CHUNK_MASK) >> CHUNK_SHIFT;
+        this.chunks = new int[numChunks][(CHUNK_MASK + 1) * height];
+        this.shared = new boolean[numChunks];
+        if (value != 0) {
+            for (int[] chunk : this.chunks) {
+                Arrays.fill(chunk, value);
+            }
+        }
+    }
+
+    private MarioTileGrid(MarioTileGrid other) {
+        this.width = other.width;
+        this.height = other.height;
+        this.chunks = other.chunks.clone();
+        this.shared = new boolean[this.chunks.length];
+        Arrays.fill(this.shared, true);
+    }
+
+    /**
+     * Create a grid that shares every chunk with this one. After the call both
+     * grids treat all chunks as read only until they write to them.
+     *
+     * @return a grid with the same values as this one
+     */
+    public MarioTileGrid clone() {
+        Arrays.fill(this.shared, true);
+        return new MarioTileGrid(this);
+    }
+
+    /**
+     * Make another grid with the same dimensions share every chunk with this one,
+     * reusing its arrays instead of allocating a new grid
+     *
+     * @param grid the grid that will be overwritten with the values of this one
+     */
+    void copyTo(MarioTileGrid grid) {
+        Arrays.fill(this.shared, true);
+        System.arraycopy(this.chunks, 0, grid.chunks, 0, this.chunks.length);
+        Arrays.fill(grid.shared, true);
+    }
+
+    /**
+     * Rough heap size a clone of this grid keeps alive on its own: its chunk arrays
+     * and one chunk of its own, which is what a clone usually pins once the original
+     * writes to the chunk it shares
+     *
+     * @return the estimate in bytes
+     */
+    long estimateCloneBytes() {
+        return 64 + this.chunks.length * 9L + 16 + ((CHUNK_MASK + 1) * this.height * 4L);
+    }
+
+    boolean hasSameSize(MarioTileGrid grid) {
+        return grid != null && grid.width == this.width && grid.height == this.height;
+    }
+
+    /**
+     * Fill the grid with tiles stored one byte per tile, column after column
+     *
+     * @param buffer the tiles, read from its position
+     */
+    void read(ByteBuffer buffer) {
+        for (int c = 0; c < this.chunks.length; c++) {
+            int[] chunk = this.chunks[c];
+            int count = Math.min(CHUNK_MASK + 1, this.width - (c << CHUNK_SHIFT)) * this.height;
+            for (int i = 0; i < count; i++) {
+                chunk[i] = buffer.get() & 0xFF;
+            }
+        }
+    }
+
+    /**
+     * Write the tiles one byte per tile, column after column
+     *
+     * @param buffer the buffer to write to, it needs width * height bytes left
+     */
+    void write(ByteBuffer buffer) {
+        for (int x = 0; x < this.width; x++) {
+            for (int y = 0; y < this.height; y++) {
+                int value = this.get(x, y);
+                if (value < 0 || value > 255) {
+                    throw new IllegalStateException("Tile " + value + " at " + x + "," + y + " doesn't fit in a byte");
+                }
+                buffer.put((byte) value);
+            }
+        }
+    }
+
+    int get(int x, int y) {
+        return this.chunks[x >> CHUNK_SHIFT][(x & CHUNK_MASK) * this.height + y];
+    }
+
+    void set(int x, int y, int value) {
+        int c = x >> CHUNK_SHIFT;
+        int i = (x & CHUNK_MASK) * this.height + y;
+        int[] chunk = this.chunks[c];
+        if (chunk[i] == value) {
+            return;
+        }
+        if (this.shared[c]) {
+            chunk = chunk.clone();
+            this.chunks[c] = chunk;
+            this.shared[c] = false;
+        }
+        chunk[i] = value;
+    }
+}
@@ -2,7 +2,12 @@ package engine.core;
 
 import java.awt.Graphics;
 import java.awt.GraphicsConfiguration;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 
 import engine.effects.*;
 import engine.graphics.MarioBackground;
@@ -23,12 +28,18 @@ public class MarioWorld {
     public MarioLevel level;
     public boolean visuals;
     public int currentTick;
+    //furthest x position mario reached and the tick it was first reached
+    public float maxMarioX;
+    public int maxMarioXTick;
     //Status
     public int coins, lives;
     public ArrayList<MarioEvent> lastFrameEvents;
+    //running statistics over every event added to the world
+    public MarioEventCounters eventCounters;
 
     private MarioEvent[] killEvents;
     private ArrayList<MarioSprite> sprites;
+    private ArrayList<MarioSprite> nextSprites;
     private ArrayList<Shell> shellsToCheck;
     private ArrayList<Fireball> fireballsToCheck;
     private ArrayList<MarioSprite> addedSprites;
@@ -36,18 +47,30 @@ public class MarioWorld {
 
     private ArrayList<MarioEffect> effects;
 
+    //spawn ids of the level enemies that have a sprite in the sprites list
+    private BitSet liveSpawns;
+    private MarioSpriteGrid spriteGrid;
+    private int[] observationBuffer;
+    //the camera window covered by the last enemy spawn scan
+    private int lastScanTick = -1;
+    private int lastScanMinX, lastScanMaxX, lastScanMinY, lastScanMaxY;
+
     private MarioBackground[] backgrounds = new MarioBackground[2];
 
     public MarioWorld(MarioEvent[] killEvents) {
         this.pauseTimer = 0;
         this.gameStatus = GameStatus.RUNNING;
         this.sprites = new ArrayList<>();
+        this.nextSprites = new ArrayList<>();
         this.shellsToCheck = new ArrayList<>();
         this.fireballsToCheck = new ArrayList<>();
         this.addedSprites = new ArrayList<>();
         this.removedSprites = new ArrayList<>();
         this.effects = new ArrayList<>();
         this.lastFrameEvents = new ArrayList<>();
+        this.eventCounters = new MarioEventCounters();
+        this.liveSpawns = new BitSet();
+        this.spriteGrid = new MarioSpriteGrid();
         this.killEvents = killEvents;
     }
 
@@ -88,11 +111,41 @@ public class MarioWorld {
     public void initializeLevel(String level, int timer) {
         this.currentTimer = timer;
         this.level = new MarioLevel(level, this.visuals);
+        this.initializeMario();
+    }
+
+    /**
+     * Start a level compiled by MarioLevel.toBinary
+     *
+     * @param level the compiled level, read from its position
+     * @param timer the time of the game in milliseconds
+     */
+    public void initializeLevel(ByteBuffer level, int timer) {
+        this.currentTimer = timer;
+        this.level = new MarioLevel(level, this.visuals);
+        this.initializeMario();
+    }
 
+    /**
+     * Start a level file compiled by MarioLevel.toBinary, the file is memory mapped
+     *
+     * @param level the compiled level file
+     * @param timer the time of the game in milliseconds
+     * @throws IOException if the file can't be read
+     */
+    public void initializeLevel(Path level, int timer) throws IOException {
+        this.currentTimer = timer;
+        this.level = MarioLevel.load(level, this.visuals);
+        this.initializeMario();
+    }
+
+    private void initializeMario() {
         this.mario = new Mario(this.visuals, this.level.marioTileX * 16, this.level.marioTileY * 16);
         this.mario.alive = true;
         this.mario.world = this;
         this.sprites.add(this.mario);
+        this.maxMarioX = this.mario.x;
+        this.maxMarioXTick = this.currentTick;
     }
 
     public ArrayList<MarioSprite> getEnemies() {
@@ -107,6 +160,18 @@ public class MarioWorld {
 
     public MarioWorld clone() {
         MarioWorld world = new MarioWorld(this.killEvents);
+        this.copyTo(world);
+        return world;
+    }
+
+    /**
+     * Copy the whole state of this world into another world object, reusing its
+     * containers instead of allocating a new world
+     *
+     * @param world the world that will be overwritten with this world state
+     */
+    public void copyTo(MarioWorld world) {
+        world.killEvents = this.killEvents;
         world.visuals = false;
         world.cameraX = this.cameraX;
         world.cameraY = this.cameraY;
@@ -115,7 +180,27 @@ public class MarioWorld {
         world.pauseTimer = this.pauseTimer;
         world.currentTimer = this.currentTimer;
         world.currentTick = this.currentTick;
-        world.level = this.level.clone();
+        world.maxMarioX = this.maxMarioX;
+        world.maxMarioXTick = this.maxMarioXTick;
+        world.lastScanTick = this.lastScanTick;
+        world.lastScanMinX = this.lastScanMinX;
+        world.lastScanMaxX = this.lastScanMaxX;
+        world.lastScanMinY = this.lastScanMinY;
+        world.lastScanMaxY = this.lastScanMaxY;
+        this.eventCounters.copyTo(world.eventCounters);
+        if (world.level == null) {
+            world.level = this.level.clone();
+        } else {
+            this.level.copyTo(world.level);
+        }
+        world.sprites.clear();
+        world.shellsToCheck.clear();
+        world.fireballsToCheck.clear();
+        world.addedSprites.clear();
+        world.removedSprites.clear();
+        world.effects.clear();
+        world.lastFrameEvents.clear();
+        world.mario = null;
         for (MarioSprite sprite : this.sprites) {
             MarioSprite cloneSprite = sprite.clone();
             cloneSprite.world = world;
@@ -127,10 +212,58 @@ public class MarioWorld {
         if (world.mario == null) {
             world.mario = (Mario) this.mario.clone();
         }
+        world.updateLiveSpawns();
         //stats
         world.coins = this.coins;
         world.lives = this.lives;
-        return world;
+    }
+
+    /**
+     * Rough heap size of a clone of this world: the world with its lists and counters,
+     * the level tiles it doesn't share, the sprites and the events of the last frame
+     *
+     * @return the estimate in bytes
+     */
+    long estimateCloneBytes() {
+        return 1024 + this.level.estimateCloneBytes() + this.sprites.size() * 192L + this.lastFrameEvents.size() * 48L;
+    }
+
+    /**
+     * Put the sprites added this tick in front of the sprites list and drop the removed
+     * ones in one pass. Same order as sprites.addAll(0, added) then sprites.removeAll(removed)
+     * without shifting the list or comparing every pair of sprites.
+     */
+    private void applySpriteChanges() {
+        this.nextSprites.clear();
+        for (MarioSprite sprite : this.addedSprites) {
+            if (!sprite.pendingRemoval) {
+                this.nextSprites.add(sprite);
+            }
+        }
+        for (MarioSprite sprite : this.sprites) {
+            if (!sprite.pendingRemoval) {
+                this.nextSprites.add(sprite);
+            }
+        }
+        for (MarioSprite sprite : this.removedSprites) {
+            sprite.pendingRemoval = false;
+        }
+        ArrayList<MarioSprite> oldSprites = this.sprites;
+        this.sprites = this.nextSprites;
+        this.nextSprites = oldSprites;
+        this.nextSprites.clear();
+        this.addedSprites.clear();
+        this.removedSprites.clear();
+        this.updateLiveSpawns();
+    }
+
+    private void updateLiveSpawns() {
+        this.liveSpawns.clear();
+        for (MarioSprite sprite : this.sprites) {
+            if (sprite.initialCode >= 0) {
+                this.liveSpawns.set(sprite.initialCode);
+            }
+        }
     }
 
     public void addEvent(EventType eventType, int eventParam) {
@@ -141,7 +274,9 @@ public class MarioWorld {
         if (this.mario.isFire) {
             marioState = 2;
         }
-        this.lastFrameEvents.add(new MarioEvent(eventType, eventParam, mario.x, mario.y, marioState, this.currentTick));
+        MarioEvent event = new MarioEvent(eventType, eventParam, mario.x, mario.y, marioState, this.currentTick);
+        this.lastFrameEvents.add(event);
+        this.eventCounters.add(event);
     }
 
     public void addEffect(MarioEffect effect) {
@@ -158,6 +293,7 @@ public class MarioWorld {
 
     public void removeSprite(MarioSprite sprite) {
         this.removedSprites.add(sprite);
+        sprite.pendingRemoval = true;
         sprite.alive = false;
         sprite.removed();
         sprite.world = null;
@@ -187,20 +323,54 @@ public class MarioWorld {
         this.mario.alive = false;
     }
 
-    public int[][] getSceneObservation(float centerX, float centerY, int detail) {
+    /**
+     * Copy a flat observation buffer into a 2D grid indexed as grid[x][y]
+     */
+    private static int[][] toObservationGrid(int[] buffer) {
         int[][] ret = new int[MarioGame.tileWidth][MarioGame.tileHeight];
+        for (int x = 0; x < ret.length; x++) {
+            System.arraycopy(buffer, x * MarioGame.tileHeight, ret[x], 0, MarioGame.tileHeight);
+        }
+        return ret;
+    }
+
+    private static int getBlockGeneralization(int[] table, int tile, int detail) {
+        if (tile >= 0 && tile < table.length) {
+            return table[tile];
+        }
+        return MarioForwardModel.getBlockValueGeneralization(tile, detail);
+    }
+
+    public int[][] getSceneObservation(float centerX, float centerY, int detail) {
+        int[] buffer = new int[MarioGame.tileWidth * MarioGame.tileHeight];
+        this.getSceneObservation(centerX, centerY, detail, buffer);
+        return toObservationGrid(buffer);
+    }
+
+    /**
+     * Fill a flat buffer with the tiles around a certain position. The grid cell
+     * (x, y) is written at index x * MarioGame.tileHeight + y.
+     *
+     * @param centerX the x position in pixels that the grid is centered around
+     * @param centerY the y position in pixels that the grid is centered around
+     * @param detail  the detail level of the scene: 0 all detail, 1 less detailed, 2 binary detail
+     * @param buffer  an array of at least MarioGame.tileWidth * MarioGame.tileHeight values
+     */
+    public void getSceneObservation(float centerX, float centerY, int detail, int[] buffer) {
+        int[] table = MarioForwardModel.getBlockGeneralizationTable(detail);
         int centerXInMap = (int) centerX / 16;
         int centerYInMap = (int) centerY / 16;
 
-        for (int y = centerYInMap - MarioGame.tileHeight / 2, obsY = 0; y < centerYInMap + MarioGame.tileHeight / 2; y++, obsY++) {
-            for (int x = centerXInMap - MarioGame.tileWidth / 2, obsX = 0; x < centerXInMap + MarioGame.tileWidth / 2; x++, obsX++) {
-                int currentX = x;
-                if (currentX < 0) {
-                    currentX = 0;
-                }
-                if (currentX > level.tileWidth - 1) {
-                    currentX = level.tileWidth - 1;
-                }
+        for (int x = centerXInMap - MarioGame.tileWidth / 2, obsX = 0; x < centerXInMap + MarioGame.tileWidth / 2; x++, obsX++) {
+            int currentX = x;
+            if (currentX < 0) {
+                currentX = 0;
+            }
+            if (currentX > level.tileWidth - 1) {
+                currentX = level.tileWidth - 1;
+            }
+            int index = obsX * MarioGame.tileHeight;
+            for (int y = centerYInMap - MarioGame.tileHeight / 2; y < centerYInMap + MarioGame.tileHeight / 2; y++, index++) {
                 int currentY = y;
                 if (currentY < 0) {
                     currentY = 0;
@@ -208,82 +378,119 @@ public class MarioWorld {
                 if (currentY > level.tileHeight - 1) {
                     currentY = level.tileHeight - 1;
                 }
-                ret[obsX][obsY] = MarioForwardModel.getBlockValueGeneralization(this.level.getBlock(currentX, currentY), detail);
+                buffer[index] = getBlockGeneralization(table, this.level.getBlock(currentX, currentY), detail);
             }
         }
-        return ret;
     }
 
     public int[][] getEnemiesObservation(float centerX, float centerY, int detail) {
-        int[][] ret = new int[MarioGame.tileWidth][MarioGame.tileHeight];
+        int[] buffer = new int[MarioGame.tileWidth * MarioGame.tileHeight];
+        this.getEnemiesObservation(centerX, centerY, detail, buffer);
+        return toObservationGrid(buffer);
+    }
+
+    /**
+     * Fill a flat buffer with the sprites around a certain position. The grid cell
+     * (x, y) is written at index x * MarioGame.tileHeight + y.
+     *
+     * @param centerX the x position in pixels that the grid is centered around
+     * @param centerY the y position in pixels that the grid is centered around
+     * @param detail  the detail level of the current enemies: 0 all details, 1 less detailed, 2 binary detail
+     * @param buffer  an array of at least MarioGame.tileWidth * MarioGame.tileHeight values
+     */
+    public void getEnemiesObservation(float centerX, float centerY, int detail, int[] buffer) {
+        Arrays.fill(buffer, 0, MarioGame.tileWidth * MarioGame.tileHeight, 0);
+        this.addSpritesObservation(centerX, centerY, detail, buffer, false);
+    }
+
+    private void addSpritesObservation(float centerX, float centerY, int detail, int[] buffer, boolean skipNone) {
+        int[] table = MarioForwardModel.getSpriteGeneralizationTable(detail);
         int centerXInMap = (int) centerX / 16;
         int centerYInMap = (int) centerY / 16;
 
-        for (int w = 0; w < ret.length; w++)
-            for (int h = 0; h < ret[0].length; h++)
-                ret[w][h] = 0;
-
         for (MarioSprite sprite : sprites) {
             if (sprite.type == SpriteType.MARIO)
                 continue;
-            if (sprite.getMapX() >= 0 &&
-                    sprite.getMapX() > centerXInMap - MarioGame.tileWidth / 2 &&
-                    sprite.getMapX() < centerXInMap + MarioGame.tileWidth / 2 &&
-                    sprite.getMapY() >= 0 &&
-                    sprite.getMapY() > centerYInMap - MarioGame.tileHeight / 2 &&
-                    sprite.getMapY() < centerYInMap + MarioGame.tileHeight / 2) {
-                int obsX = sprite.getMapX() - centerXInMap + MarioGame.tileWidth / 2;
-                int obsY = sprite.getMapY() - centerYInMap + MarioGame.tileHeight / 2;
-                ret[obsX][obsY] = MarioForwardModel.getSpriteTypeGeneralization(sprite.type, detail);
+            int mapX = sprite.getMapX();
+            int mapY = sprite.getMapY();
+            if (mapX >= 0 &&
+                    mapX > centerXInMap - MarioGame.tileWidth / 2 &&
+                    mapX < centerXInMap + MarioGame.tileWidth / 2 &&
+                    mapY >= 0 &&
+                    mapY > centerYInMap - MarioGame.tileHeight / 2 &&
+                    mapY < centerYInMap + MarioGame.tileHeight / 2) {
+                int obsX = mapX - centerXInMap + MarioGame.tileWidth / 2;
+                int obsY = mapY - centerYInMap + MarioGame.tileHeight / 2;
+                int value = table[sprite.type.ordinal()];
+                if (!skipNone || value != SpriteType.NONE.getValue()) {
+                    buffer[obsX * MarioGame.tileHeight + obsY] = value;
+                }
             }
         }
-        return ret;
     }
 
     public int[][] getMergedObservation(float centerX, float centerY, int sceneDetail, int enemiesDetail) {
-        int[][] ret = new int[MarioGame.tileWidth][MarioGame.tileHeight];
+        int[] buffer = new int[MarioGame.tileWidth * MarioGame.tileHeight];
+        this.getMergedObservation(centerX, centerY, sceneDetail, enemiesDetail, buffer);
+        return toObservationGrid(buffer);
+    }
+
+    /**
+     * Fill a flat buffer with the tiles and sprites around a certain position. The
+     * grid cell (x, y) is written at index x * MarioGame.tileHeight + y.
+     *
+     * @param centerX       the x position in pixels that the grid is centered around
+     * @param centerY       the y position in pixels that the grid is centered around
+     * @param sceneDetail   the detail level of the scene: 0 all detail, 1 less detailed, 2 binary detail
+     * @param enemiesDetail the detail level of the current enemies: 0 all details, 1 less detailed, 2 binary detail
+     * @param buffer        an array of at least MarioGame.tileWidth * MarioGame.tileHeight values
+     */
+    public void getMergedObservation(float centerX, float centerY, int sceneDetail, int enemiesDetail, int[] buffer) {
+        int[] table = MarioForwardModel.getBlockGeneralizationTable(sceneDetail);
         int centerXInMap = (int) centerX / 16;
         int centerYInMap = (int) centerY / 16;
 
-        for (int y = centerYInMap - MarioGame.tileHeight / 2, obsY = 0; y < centerYInMap + MarioGame.tileHeight / 2; y++, obsY++) {
-            for (int x = centerXInMap - MarioGame.tileWidth / 2, obsX = 0; x < centerXInMap + MarioGame.tileWidth / 2; x++, obsX++) {
-                int currentX = x;
-                if (currentX < 0) {
-                    currentX = 0;
-                }
-                if (currentX > level.tileWidth - 1) {
-                    currentX = level.tileWidth - 1;
-                }
-                int currentY = y;
-                if (currentY < 0) {
-                    currentY = 0;
-                }
-                if (currentY > level.tileHeight - 1) {
-                    currentY = level.tileHeight - 1;
-                }
-                ret[obsX][obsY] = MarioForwardModel.getBlockValueGeneralization(this.level.getBlock(x, y), sceneDetail);
+        for (int x = centerXInMap - MarioGame.tileWidth / 2, obsX = 0; x < centerXInMap + MarioGame.tileWidth / 2; x++, obsX++) {
+            int index = obsX * MarioGame.tileHeight;
+            for (int y = centerYInMap - MarioGame.tileHeight / 2; y < centerYInMap + MarioGame.tileHeight / 2; y++, index++) {
+                buffer[index] = getBlockGeneralization(table, this.level.getBlock(x, y), sceneDetail);
             }
         }
+        this.addSpritesObservation(centerX, centerY, enemiesDetail, buffer, true);
+    }
 
+    /**
+     * Fill a buffer with the type, x position and y position of each enemy
+     *
+     * @param buffer the array that is filled with 3 values for each enemy
+     * @return the number of enemies written, no more than buffer.length / 3
+     */
+    public int getEnemiesFloatPos(float[] buffer) {
+        int count = 0;
         for (MarioSprite sprite : sprites) {
-            if (sprite.type == SpriteType.MARIO)
-                continue;
-            if (sprite.getMapX() >= 0 &&
-                    sprite.getMapX() > centerXInMap - MarioGame.tileWidth / 2 &&
-                    sprite.getMapX() < centerXInMap + MarioGame.tileWidth / 2 &&
-                    sprite.getMapY() >= 0 &&
-                    sprite.getMapY() > centerYInMap - MarioGame.tileHeight / 2 &&
-                    sprite.getMapY() < centerYInMap + MarioGame.tileHeight / 2) {
-                int obsX = sprite.getMapX() - centerXInMap + MarioGame.tileWidth / 2;
-                int obsY = sprite.getMapY() - centerYInMap + MarioGame.tileHeight / 2;
-                int tmp = MarioForwardModel.getSpriteTypeGeneralization(sprite.type, enemiesDetail);
-                if (tmp != SpriteType.NONE.getValue()) {
-                    ret[obsX][obsY] = tmp;
-                }
+            if (3 * count + 2 >= buffer.length) {
+                break;
+            }
+            if (this.isEnemy(sprite)) {
+                buffer[3 * count] = sprite.type.getValue();
+                buffer[3 * count + 1] = sprite.x;
+                buffer[3 * count + 2] = sprite.y;
+                count += 1;
             }
         }
+        return count;
+    }
 
-        return ret;
+    /**
+     * Get a reusable flat observation buffer owned by this world
+     *
+     * @return an array of MarioGame.tileWidth * MarioGame.tileHeight values
+     */
+    int[] getObservationBuffer() {
+        if (this.observationBuffer == null) {
+            this.observationBuffer = new int[MarioGame.tileWidth * MarioGame.tileHeight];
+        }
+        return this.observationBuffer;
     }
 
     private boolean isEnemy(MarioSprite sprite) {
@@ -346,44 +553,48 @@ public class MarioWorld {
         }
         this.level.update((int) cameraX, (int) cameraY);
 
-        for (int x = (int) cameraX / 16 - 1; x <= (int) (cameraX + MarioGame.width) / 16 + 1; x++) {
-            for (int y = (int) cameraY / 16 - 1; y <= (int) (cameraY + MarioGame.height) / 16 + 1; y++) {
+        int minX = (int) cameraX / 16 - 1;
+        int maxX = (int) (cameraX + MarioGame.width) / 16 + 1;
+        int minY = (int) cameraY / 16 - 1;
+        int maxY = (int) (cameraY + MarioGame.height) / 16 + 1;
+        boolean scannedLastTick = this.lastScanTick == this.currentTick - 1;
+        for (int x = minX; x <= maxX; x++) {
+            //enemies only spawn when their tile enters the camera window, so skip tiles that were in it last tick
+            boolean oldColumn = scannedLastTick && x >= this.lastScanMinX && x <= this.lastScanMaxX;
+            //spawn lists are clamped to the level edges like getBlock but enemy templates outside the level don't exist
+            boolean insideLevel = x >= 0 && x < this.level.tileWidth;
+            int[] rows = this.level.getSpawnRows(x);
+            int[] ids = this.level.getSpawnIds(x);
+            for (int i = 0; i < rows.length; i++) {
+                int y = rows[i];
+                if (y < minY || y > maxY) {
+                    continue;
+                }
                 int dir = 0;
                 if (x * 16 + 8 > mario.x + 16)
                     dir = -1;
                 if (x * 16 + 8 < mario.x - 16)
                     dir = 1;
 
-                SpriteType type = level.getSpriteType(x, y);
-                if (type != SpriteType.NONE) {
-                    String spriteCode = level.getSpriteCode(x, y);
-                    boolean found = false;
-                    for (MarioSprite sprite : sprites) {
-                        if (sprite.initialCode.equals(spriteCode)) {
-                            found = true;
-                            break;
-                        }
+                if (ids[i] >= 0) {
+                    if (!insideLevel || (oldColumn && y >= this.lastScanMinY && y <= this.lastScanMaxY)) {
+                        continue;
                     }
-                    if (!found) {
-                        if (this.level.getLastSpawnTick(x, y) != this.currentTick - 1) {
-                            MarioSprite sprite = type.spawnSprite(this.visuals, x, y, dir);
-                            sprite.initialCode = spriteCode;
-                            this.addSprite(sprite);
-                        }
-                    }
-                    this.level.setLastSpawnTick(x, y, this.currentTick);
-                }
-
-                if (dir != 0) {
-                    ArrayList<TileFeature> features = TileFeature.getTileType(this.level.getBlock(x, y));
-                    if (features.contains(TileFeature.SPAWNER)) {
-                        if (this.currentTick % 100 == 0) {
-                            addSprite(new BulletBill(this.visuals, x * 16 + 8 + dir * 8, y * 16 + 15, dir));
-                        }
+                    if (!this.liveSpawns.get(ids[i])) {
+                        MarioSprite sprite = level.getSpriteType(x, y).spawnSprite(this.visuals, x, y, dir);
+                        sprite.initialCode = ids[i];
+                        this.addSprite(sprite);
                     }
+                } else if (dir != 0 && this.currentTick % 100 == 0) {
+                    addSprite(new BulletBill(this.visuals, x * 16 + 8 + dir * 8, y * 16 + 15, dir));
                 }
             }
         }
+        this.lastScanTick = this.currentTick;
+        this.lastScanMinX = minX;
+        this.lastScanMaxX = maxX;
+        this.lastScanMinY = minY;
+        this.lastScanMaxY = maxY;
 
         this.mario.actions = actions;
         for (MarioSprite sprite : sprites) {
@@ -392,7 +603,13 @@ public class MarioWorld {
             }
             sprite.update();
         }
-        for (MarioSprite sprite : sprites) {
+
+        //sprites don't move while checking collisions so the same broad phase serves all the checks below
+        this.spriteGrid.build(sprites);
+        int[] nearSprites = this.spriteGrid.getResult();
+        int numNear = this.spriteGrid.query(this.mario.x);
+        for (int i = 0; i < numNear; i++) {
+            MarioSprite sprite = sprites.get(nearSprites[i]);
             if (!sprite.alive) {
                 continue;
             }
@@ -400,7 +617,9 @@ public class MarioWorld {
         }
 
         for (Shell shell : shellsToCheck) {
-            for (MarioSprite sprite : sprites) {
+            numNear = this.spriteGrid.query(shell.x);
+            for (int i = 0; i < numNear; i++) {
+                MarioSprite sprite = sprites.get(nearSprites[i]);
                 if (sprite != shell && shell.alive && sprite.alive) {
                     if (sprite.shellCollideCheck(shell)) {
                         this.removeSprite(sprite);
@@ -411,7 +630,9 @@ public class MarioWorld {
         shellsToCheck.clear();
 
         for (Fireball fireball : fireballsToCheck) {
-            for (MarioSprite sprite : sprites) {
+            numNear = this.spriteGrid.query(fireball.x);
+            for (int i = 0; i < numNear; i++) {
+                MarioSprite sprite = sprites.get(nearSprites[i]);
                 if (sprite != fireball && fireball.alive && sprite.alive) {
                     if (sprite.fireballCollideCheck(fireball)) {
                         if (this.visuals) {
@@ -424,10 +645,14 @@ public class MarioWorld {
         }
         fireballsToCheck.clear();
 
-        sprites.addAll(0, addedSprites);
-        sprites.removeAll(removedSprites);
-        addedSprites.clear();
-        removedSprites.clear();
+        if (!addedSprites.isEmpty() || !removedSprites.isEmpty()) {
+            this.applySpriteChanges();
+        }
+
+        if (this.mario.x > this.maxMarioX) {
+            this.maxMarioX = this.mario.x;
+            this.maxMarioXTick = this.currentTick;
+        }
 
         //punishing forward model
         if (this.killEvents != null) {
@@ -441,21 +666,19 @@ public class MarioWorld {
 
     public void bump(int xTile, int yTile, boolean canBreakBricks) {
         int block = this.level.getBlock(xTile, yTile);
-        ArrayList<TileFeature> features = TileFeature.getTileType(block);
-
-        if (features.contains(TileFeature.BUMPABLE)) {
+        if (TileFeature.hasFeature(block, TileFeature.BUMPABLE)) {
             bumpInto(xTile, yTile - 1);
             this.addEvent(EventType.BUMP, MarioForwardModel.OBS_QUESTION_BLOCK);
             level.setBlock(xTile, yTile, 14);
             level.setShiftIndex(xTile, yTile, 4);
 
-            if (features.contains(TileFeature.SPECIAL)) {
+            if (TileFeature.hasFeature(block, TileFeature.SPECIAL)) {
                 if (!this.mario.isLarge) {
                     addSprite(new Mushroom(this.visuals, xTile * 16 + 9, yTile * 16 + 8));
                 } else {
                     addSprite(new FireFlower(this.visuals, xTile * 16 + 9, yTile * 16 + 8));
                 }
-            } else if (features.contains(TileFeature.LIFE)) {
+            } else if (TileFeature.hasFeature(block, TileFeature.LIFE)) {
                 addSprite(new LifeMushroom(this.visuals, xTile * 16 + 9, yTile * 16 + 8));
             } else {
                 mario.collectCoin();
@@ -465,7 +688,7 @@ public class MarioWorld {
             }
         }
 
-        if (features.contains(TileFeature.BREAKABLE)) {
+        if (TileFeature.hasFeature(block, TileFeature.BREAKABLE)) {
             bumpInto(xTile, yTile - 1);
             if (canBreakBricks) {
                 this.addEvent(EventType.BUMP, MarioForwardModel.OBS_BRICK);
@@ -486,7 +709,7 @@ public class MarioWorld {
 
     public void bumpInto(int xTile, int yTile) {
         int block = level.getBlock(xTile, yTile);
-        if (TileFeature.getTileType(block).contains(TileFeature.PICKABLE)) {
+        if (TileFeature.hasFeature(block, TileFeature.PICKABLE)) {
             this.addEvent(EventType.COLLECT, block);
             this.mario.collectCoin();
             level.setBlock(xTile, yTile, 0);
@@ -2,7 +2,6 @@ package engine.graphics;
 
 import java.awt.Graphics;
 import java.awt.Image;
-import java.util.ArrayList;
 
 import engine.core.MarioGame;
 import engine.helper.TileFeature;
@@ -42,8 +41,7 @@ public class MarioTilemap extends MarioGraphics {
                         this.moveShift[xTile][yTile] = 0;
                     }
                 }
-                ArrayList<TileFeature> features = TileFeature.getTileType(this.currentIndeces[xTile][yTile]);
-                if (features.contains(TileFeature.ANIMATED)) {
+                if (TileFeature.hasFeature(this.currentIndeces[xTile][yTile], TileFeature.ANIMATED)) {
                     if (this.animationIndex == 0) {
                         this.indexShift[xTile][yTile] = (this.indexShift[xTile][yTile] + 1) % 3;
                     }
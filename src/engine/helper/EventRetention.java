@@ -0,0 +1,12 @@
+package engine.helper;
+
+public enum EventRetention {
+    /**
+     * keep every game event and agent action in the result
+     */
+    FULL,
+    /**
+     * only keep the event counters, the result event lists stay empty
+     */
+    COUNTERS_ONLY
+}
@@ -14,6 +14,31 @@ public enum TileFeature {
     ANIMATED,
     SPAWNER;
 
+    private static final int[] TILE_FLAGS = new int[256];
+
+    static {
+        for (int i = 0; i < TILE_FLAGS.length; i++) {
+            for (TileFeature feature : getTileType(i)) {
+                TILE_FLAGS[i] |= feature.getMask();
+            }
+        }
+    }
+
+    public int getMask() {
+        return 1 << this.ordinal();
+    }
+
+    public static int getTileFlags(int index) {
+        if (index < 0 || index >= TILE_FLAGS.length) {
+            return 0;
+        }
+        return TILE_FLAGS[index];
+    }
+
+    public static boolean hasFeature(int index, TileFeature feature) {
+        return (getTileFlags(index) & feature.getMask()) != 0;
+    }
+
     public static ArrayList<TileFeature> getTileType(int index) {
         ArrayList<TileFeature> features = new ArrayList<>();
         switch (index) {
@@ -57,9 +57,12 @@ public class Mario extends MarioSprite {
         sprite.isDucking = isDucking;
         sprite.canShoot = canShoot;
         sprite.mayJump = mayJump;
-        sprite.actions = new boolean[this.actions.length];
-        for (int i = 0; i < this.actions.length; i++) {
-            sprite.actions[i] = this.actions[i];
+        //a world that has never been updated has no actions yet
+        if (this.actions != null) {
+            sprite.actions = new boolean[this.actions.length];
+            for (int i = 0; i < this.actions.length; i++) {
+                sprite.actions[i] = this.actions[i];
+            }
         }
         sprite.xJumpSpeed = xJumpSpeed;
         sprite.yJumpSpeed = yJumpSpeed;
@@ -161,7 +164,7 @@ public class Mario extends MarioSprite {
         boolean blocking = world.level.isBlocking(xTile, yTile, xa, ya);
         int block = world.level.getBlock(xTile, yTile);
 
-        if (TileFeature.getTileType(block).contains(TileFeature.PICKABLE)) {
+        if (TileFeature.hasFeature(block, TileFeature.PICKABLE)) {
             this.world.addEvent(EventType.COLLECT, block);
             this.collectCoin();
             world.level.setBlock(xTile, yTile, 0);
@@ -18,7 +18,7 @@ public class Shell extends MarioSprite {
 
     private MarioImage graphics;
 
-    public Shell(boolean visuals, float x, float y, int shellType, String spriteCode) {
+    public Shell(boolean visuals, float x, float y, int shellType, int spawnId) {
         super(x, y, SpriteType.SHELL);
 
         this.width = 4;
@@ -26,7 +26,7 @@ public class Shell extends MarioSprite {
         this.facing = 0;
         this.ya = -5;
         this.shellType = shellType;
-        this.initialCode = spriteCode;
+        this.initialCode = spawnId;
 
         if (visuals) {
             this.graphics = new MarioImage(Assets.enemies, shellType * 8 + 3);
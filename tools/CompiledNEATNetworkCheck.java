@@ -0,0 +1,280 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import agents.ea.CompiledNEATNetwork;
+import agents.ea.NeuroEAgent;
+import engine.core.MarioForwardModel;
+import engine.core.MarioWorld;
+import engine.helper.GameStatus;
+import org.encog.engine.network.activation.ActivationClippedLinear;
+import org.encog.engine.network.activation.ActivationFunction;
+import org.encog.engine.network.activation.ActivationSigmoid;
+import org.encog.engine.network.activation.ActivationSteepenedSigmoid;
+import org.encog.engine.network.activation.ActivationTANH;
+import org.encog.ml.data.MLData;
+import org.encog.ml.data.basic.BasicMLData;
+import org.encog.ml.ea.genome.Genome;
+import org.encog.neural.neat.NEATLink;
+import org.encog.neural.neat.NEATNetwork;
+import org.encog.neural.neat.NEATNeuronType;
+import org.encog.neural.neat.NEATPopulation;
+import org.encog.neural.neat.training.NEATGenome;
+import org.encog.neural.neat.training.NEATLinkGene;
+import org.encog.neural.neat.training.NEATNeuronGene;
+
+/**
+ * Checks that CompiledNEATNetwork computes exactly what NEATNetwork.compute does
+ * and measures both. It first builds random networks with hidden neurons and
+ * recurrent links, output to hidden links and loops included, with their links
+ * in the sorted order of the codec and shuffled, and compares the bits of the
+ * outputs for sparse inputs and inputs that are all zero. Then it adds hidden
+ * neurons and recurrent links to the random genomes of a NEAT population and
+ * compares the training score of NeuroEAgent on every training level with the
+ * score of the game loop before the compiled network, which calls Encog. The
+ * network inputs of those games are kept and computed again by both networks
+ * for the activations per second.
+ * Usage: CompiledNEATNetworkCheck [networks] [genomes] [seed] [level folder]
+ */
+public class CompiledNEATNetworkCheck {
+    private static final int TRAINING_LEVELS = 10;
+    private static final int GRID_INPUTS = 16 * 16;
+    private static final int KEPT_INPUTS = 5000;
+
+    private static ActivationFunction randomActivation(Random random) {
+        switch (random.nextInt(4)) {
+            case 0:
+                return new ActivationSteepenedSigmoid();
+            case 1:
+                return new ActivationSigmoid();
+            case 2:
+                return new ActivationTANH();
+            default:
+                return new ActivationClippedLinear();
+        }
+    }
+
+    // A network with random links from any neuron to any output or hidden neuron
+    private static List<NEATLink> randomLinks(Random random, int inputs, int neurons) {
+        List<NEATLink> links = new ArrayList<>();
+        int count = 1 + random.nextInt(4 * neurons);
+        for (int i = 0; i < count; i++) {
+            int from = random.nextInt(neurons);
+            int to = inputs + 1 + random.nextInt(neurons - inputs - 1);
+            links.add(new NEATLink(from, to, random.nextGaussian() * 2));
+        }
+        return links;
+    }
+
+    // Inputs where about half the values are zero, like the observation grid
+    private static double[] sparseInputs(Random random, int inputs) {
+        double[] values = new double[inputs];
+        for (int i = 0; i < inputs; i++) {
+            if (random.nextBoolean()) {
+                values[i] = random.nextInt(3) == 0 ? 1 : random.nextGaussian();
+            }
+        }
+        return values;
+    }
+
+    private static boolean sameBits(double[] expected, double[] actual) {
+        if (expected.length != actual.length) {
+            return false;
+        }
+        for (int i = 0; i < expected.length; i++) {
+            if (Double.doubleToLongBits(expected[i]) != Double.doubleToLongBits(actual[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Compare the outputs of random networks, returns the number of networks that differ
+    private static int checkRandomNetworks(Random random, int count) {
+        int failures = 0;
+        for (int n = 0; n < count; n++) {
+            int inputs = 1 + random.nextInt(30);
+            int outputs = 1 + random.nextInt(5);
+            int neurons = inputs + 1 + outputs + random.nextInt(11);
+            ActivationFunction[] functions = new ActivationFunction[neurons];
+            for (int i = 0; i < neurons; i++) {
+                functions[i] = randomActivation(random);
+            }
+            List<NEATLink> links = randomLinks(random, inputs, neurons);
+            int cycles = 1 + random.nextInt(6);
+            boolean same = true;
+            for (boolean sorted : new boolean[]{true, false}) {
+                if (sorted) {
+                    Collections.sort(links);
+                } else {
+                    Collections.shuffle(links, random);
+                }
+                NEATNetwork network = new NEATNetwork(inputs, outputs, links, functions);
+                network.setActivationCycles(cycles);
+                CompiledNEATNetwork compiled = new CompiledNEATNetwork(network);
+                for (int i = 0; i <= 50; i++) {
+                    double[] values = i == 50 ? new double[inputs] : sparseInputs(random, inputs);
+                    double[] expected = network.compute(new BasicMLData(values)).getData();
+                    if (!sameBits(expected, compiled.compute(values))) {
+                        System.out.println("Network " + n + (sorted ? " sorted" : " shuffled") + " differs on input " + i);
+                        same = false;
+                        break;
+                    }
+                }
+            }
+            if (!same) {
+                failures++;
+            }
+        }
+        return failures;
+    }
+
+    // Add hidden neurons and links between any of the neurons to a genome, so it has recurrent links
+    private static void addHiddenNeurons(Random random, NEATPopulation population, NEATGenome genome) {
+        List<NEATNeuronGene> neurons = genome.getNeuronsChromosome();
+        int hidden = 1 + random.nextInt(6);
+        for (int i = 0; i < hidden; i++) {
+            neurons.add(new NEATNeuronGene(NEATNeuronType.Hidden, new ActivationSteepenedSigmoid(),
+                    population.assignGeneID(), population.assignInnovationID()));
+        }
+        int firstTarget = genome.getInputCount() + 1;
+        int links = 2 + random.nextInt(20);
+        for (int i = 0; i < links; i++) {
+            NEATNeuronGene from = neurons.get(random.nextInt(neurons.size()));
+            NEATNeuronGene to = neurons.get(firstTarget + random.nextInt(neurons.size() - firstTarget));
+            genome.getLinksChromosome().add(new NEATLinkGene(from.getId(), to.getId(), true,
+                    population.assignInnovationID(), random.nextGaussian() * 2));
+        }
+    }
+
+    // The training game loop before the compiled network, it keeps some of the inputs for the timing
+    private static double encogScore(NEATNetwork network, String level, List<double[]> kept) {
+        MarioWorld world = new MarioWorld(null);
+        world.initializeLevel(level, 30 * 1000);
+        MarioForwardModel model = new MarioForwardModel(world);
+        for (int step = 0; step < 1000 && model.getGameStatus() == GameStatus.RUNNING; step++) {
+            double[] inputs = extractInputs(model);
+            if (kept.size() < KEPT_INPUTS) {
+                kept.add(inputs);
+            }
+            MLData output = network.compute(new BasicMLData(inputs));
+            boolean[] actions = new boolean[5];
+            for (int j = 0; j < actions.length; j++) {
+                actions[j] = output.getData(j) > 0.5;
+            }
+            model.advance(actions);
+        }
+        int game_win = model.getGameStatus() == GameStatus.WIN ? 2 : 0;
+        double fitness = 0.0;
+        fitness += model.getCompletionPercentage() * 4000.0;
+        fitness += (model.getRemainingTime() / 1000) * 10 * game_win;
+        fitness += model.getKillsTotal() * 1.5;
+        fitness += model.getNumCollectedMushrooms() * 1.5;
+        fitness += model.getNumCollectedCoins() * 1.25;
+        return fitness;
+    }
+
+    private static double[] extractInputs(MarioForwardModel model) {
+        int[][] grid = model.getMarioCompleteObservation();
+        double[] inputs = new double[grid.length * grid[0].length + 4];
+        int idx = 0;
+        for (int[] row : grid) {
+            for (int cell : row) {
+                inputs[idx++] = cell / 100.0;
+            }
+        }
+        inputs[idx++] = model.mayMarioJump() ? 1.0 : 0.0;
+        inputs[idx++] = model.isMarioOnGround() ? 1.0 : 0.0;
+        inputs[idx++] = model.getMarioFloatVelocity()[0] / 10.0;
+        inputs[idx++] = model.getMarioFloatVelocity()[1] / 10.0;
+        return inputs;
+    }
+
+    // Activations per second of computing every kept input with every network, the best of a few rounds
+    private static double[] timeActivations(List<NEATNetwork> networks, List<double[]> inputs) {
+        List<CompiledNEATNetwork> compiled = new ArrayList<>();
+        List<MLData> data = new ArrayList<>();
+        for (NEATNetwork network : networks) {
+            compiled.add(new CompiledNEATNetwork(network));
+        }
+        for (double[] values : inputs) {
+            data.add(new BasicMLData(values));
+        }
+        double activations = (double) networks.size() * inputs.size();
+        double bestEncog = 0;
+        double bestCompiled = 0;
+        double sink = 0;
+        for (int round = 0; round < 5; round++) {
+            long start = System.nanoTime();
+            for (NEATNetwork network : networks) {
+                for (MLData values : data) {
+                    sink += network.compute(values).getData(0);
+                }
+            }
+            bestEncog = Math.max(bestEncog, activations / ((System.nanoTime() - start) / 1e9));
+            start = System.nanoTime();
+            for (CompiledNEATNetwork network : compiled) {
+                for (double[] values : inputs) {
+                    sink += network.compute(values)[0];
+                }
+            }
+            bestCompiled = Math.max(bestCompiled, activations / ((System.nanoTime() - start) / 1e9));
+        }
+        if (sink == 42) {
+            System.out.println();
+        }
+        return new double[]{bestEncog, bestCompiled};
+    }
+
+    public static void main(String[] args) throws IOException {
+        int networkCount = args.length > 0 ? Integer.parseInt(args[0]) : 300;
+        int genomeCount = args.length > 1 ? Integer.parseInt(args[1]) : 60;
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 1;
+        Path folder = Paths.get(args.length > 3 ? args[3] : "levels/original");
+        Random random = new Random(seed);
+
+        int failures = checkRandomNetworks(random, networkCount);
+        System.out.println("Random networks: " + (networkCount - failures) + " of " + networkCount +
+                " compute the same bits, sorted and shuffled");
+
+        String[] levels = new String[TRAINING_LEVELS];
+        for (int i = 0; i < levels.length; i++) {
+            levels[i] = new String(Files.readAllBytes(folder.resolve("lvl-" + (i + 1) + ".txt")));
+        }
+        NEATPopulation population = new NEATPopulation(GRID_INPUTS + 4, 5, genomeCount);
+        population.setInitialConnectionDensity(0.5);
+        population.reset();
+        List<NEATNetwork> networks = new ArrayList<>();
+        List<double[]> kept = new ArrayList<>();
+        int scoreFailures = 0;
+        for (Genome genome : population.flatten()) {
+            addHiddenNeurons(random, population, (NEATGenome) genome);
+            NEATNetwork network = (NEATNetwork) population.getCODEC().decode(genome);
+            networks.add(network);
+            CompiledNEATNetwork compiled = new CompiledNEATNetwork(network);
+            for (int i = 0; i < levels.length; i++) {
+                double expected = encogScore(network, levels[i], kept);
+                double actual = NeuroEAgent.evaluateLevel(compiled, levels[i]);
+                if (Double.doubleToLongBits(expected) != Double.doubleToLongBits(actual)) {
+                    System.out.println("Genome " + networks.size() + " on level " + (i + 1) + ": Encog " + expected +
+                            ", compiled " + actual);
+                    scoreFailures++;
+                }
+            }
+        }
+        System.out.println("Training scores: " + (networks.size() * levels.length - scoreFailures) + " of " +
+                networks.size() * levels.length + " games score the same");
+
+        double[] rates = timeActivations(networks, kept);
+        System.out.println(String.format("Activations of %d genomes on %d game inputs: Encog %.0f/s, compiled %.0f/s",
+                networks.size(), kept.size(), rates[0], rates[1]));
+        if (failures + scoreFailures > 0) {
+            System.exit(1);
+        }
+    }
+}
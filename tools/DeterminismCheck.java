@@ -0,0 +1,163 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import engine.core.MarioAgent;
+import engine.core.MarioForwardModel;
+import engine.core.MarioGame;
+import engine.core.MarioResult;
+import engine.core.MarioTimer;
+import engine.helper.GameStatus;
+
+/**
+ * Plays fixed action scripts on every level of a folder and compares the statistics
+ * of each game with values recorded on the baseline engine, so engine changes that
+ * should keep the simulation bit-identical can be checked. There are three scripts:
+ * seeded random actions, seeded random actions that start as large mario, and a
+ * greedy agent that picks its actions by cloning and advancing the forward model.
+ * Record mode writes the statistics instead of comparing them. The scripts only use
+ * the public game API, so the file can be recorded on an older tree.
+ * Usage: DeterminismCheck [record] [level folder] [expected file]
+ */
+public class DeterminismCheck {
+    private static final boolean[][] CHOICES = new boolean[][]{
+            {false, true, false, true, false},
+            {false, true, false, true, true},
+            {false, true, false, false, true},
+            {false, false, false, false, true},
+            {true, false, false, true, false},
+            {false, true, true, false, false},
+    };
+
+    // Plays the choices in random runs of a few ticks from a seeded generator
+    private static class ScriptAgent implements MarioAgent {
+        private Random random;
+        private boolean[] current;
+        private int left = 0;
+
+        ScriptAgent(long seed) {
+            this.random = new Random(seed);
+        }
+
+        @Override
+        public void initialize(MarioForwardModel model, MarioTimer timer) {
+        }
+
+        @Override
+        public boolean[] getActions(MarioForwardModel model, MarioTimer timer) {
+            if (this.left == 0) {
+                this.current = CHOICES[this.random.nextInt(CHOICES.length)];
+                this.left = 1 + this.random.nextInt(12);
+            }
+            this.left--;
+            return this.current.clone();
+        }
+
+        @Override
+        public String getAgentName() {
+            return "ScriptAgent";
+        }
+    }
+
+    // Tries every choice for a few ticks on a clone of the model and keeps the one that gets furthest right without dying
+    private static class GreedyAgent implements MarioAgent {
+        @Override
+        public void initialize(MarioForwardModel model, MarioTimer timer) {
+        }
+
+        @Override
+        public boolean[] getActions(MarioForwardModel model, MarioTimer timer) {
+            int best = 0;
+            float bestX = Float.NEGATIVE_INFINITY;
+            for (int c = 0; c < CHOICES.length; c++) {
+                MarioForwardModel future = model.clone();
+                for (int tick = 0; tick < 4; tick++) {
+                    future.advance(CHOICES[c]);
+                }
+                float x = future.getMarioFloatPos()[0];
+                if (future.getGameStatus() == GameStatus.LOSE) {
+                    x -= 10000;
+                } else if (future.getMarioMode() < model.getMarioMode()) {
+                    x -= 1000;
+                }
+                if (x > bestX) {
+                    bestX = x;
+                    best = c;
+                }
+            }
+            return CHOICES[best].clone();
+        }
+
+        @Override
+        public String getAgentName() {
+            return "GreedyAgent";
+        }
+    }
+
+    private static String describe(MarioResult result) {
+        return result.getGameStatus() + " " + result.getCompletionPercentage() + " " + result.getRemainingTime() + " " +
+                result.getMarioMode() + " " + result.getCurrentLives() + " " + result.getCurrentCoins() + " " +
+                result.getKillsTotal() + " " + result.getKillsByStomp() + " " + result.getKillsByFire() + " " +
+                result.getKillsByShell() + " " + result.getKillsByFall() + " " + result.getMarioNumHurts() + " " +
+                result.getNumCollectedMushrooms() + " " + result.getNumCollectedFireflower() + " " +
+                result.getNumCollectedTileCoins() + " " + result.getNumDestroyedBricks() + " " +
+                result.getNumBumpQuestionBlock() + " " + result.getNumBumpBrick() + " " + result.getNumJumps() + " " +
+                result.getMaxXJump() + " " + result.getMaxJumpAirTime() + " " + result.getGameEvents().size() + " " +
+                result.getAgentEvents().size();
+    }
+
+    private static List<String> play(List<Path> levels) throws IOException {
+        MarioGame game = new MarioGame();
+        List<String> lines = new ArrayList<>();
+        for (Path path : levels) {
+            String level = new String(Files.readAllBytes(path));
+            String name = path.getFileName().toString();
+            long seed = name.hashCode();
+            lines.add(name + " script " + describe(game.runGame(new ScriptAgent(seed), level, 20, 0)));
+            lines.add(name + " large " + describe(game.runGame(new ScriptAgent(seed + 1), level, 20, 1)));
+            lines.add(name + " greedy " + describe(game.runGame(new GreedyAgent(), level, 20, 0)));
+        }
+        return lines;
+    }
+
+    public static void main(String[] args) throws IOException {
+        int arg = 0;
+        boolean record = args.length > 0 && args[0].equals("record");
+        if (record) {
+            arg++;
+        }
+        Path folder = Paths.get(args.length > arg ? args[arg] : "levels/original");
+        Path expectedFile = Paths.get(args.length > arg + 1 ? args[arg + 1] : "tools/determinism_original.txt");
+        List<Path> levels = new ArrayList<>();
+        for (int i = 1; Files.exists(folder.resolve("lvl-" + i + ".txt")); i++) {
+            levels.add(folder.resolve("lvl-" + i + ".txt"));
+        }
+        List<String> lines = play(levels);
+        if (record) {
+            Files.write(expectedFile, lines, StandardCharsets.UTF_8);
+            System.out.println("Recorded " + lines.size() + " games in " + expectedFile);
+            return;
+        }
+
+        List<String> expected = Files.readAllLines(expectedFile, StandardCharsets.UTF_8);
+        int failures = 0;
+        for (int i = 0; i < Math.max(lines.size(), expected.size()); i++) {
+            String actual = i < lines.size() ? lines.get(i) : "(missing)";
+            String wanted = i < expected.size() ? expected.get(i) : "(missing)";
+            if (!actual.equals(wanted)) {
+                System.out.println("Mismatch\n  expected: " + wanted + "\n  actual:   " + actual);
+                failures++;
+            }
+        }
+        System.out.println(failures == 0 ? "All " + lines.size() + " games match " + expectedFile :
+                failures + " of " + expected.size() + " games differ from " + expectedFile);
+        if (failures > 0) {
+            System.exit(1);
+        }
+    }
+}
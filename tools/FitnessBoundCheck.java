@@ -0,0 +1,90 @@
+package agents.ea;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import engine.core.MarioAgent;
+import engine.core.MarioForwardModel;
+import engine.core.MarioGame;
+import engine.core.MarioResult;
+import engine.core.MarioTimer;
+import engine.helper.EventRetention;
+import engine.helper.GameStatus;
+
+/**
+ * Checks that the fitness bound pruning of the Agent never stops a winning game.
+ * It records the actions of the robinBaumgarten agent on every level of a folder,
+ * plays the recordings that win with ChromosomeEvaluator, and plays them again with
+ * their own fitness as the threshold, which only the fitness bound can stop. The
+ * check is in the package of the evaluator, so it is compiled to agents/ea and run
+ * as agents.ea.FitnessBoundCheck.
+ * Usage: FitnessBoundCheck [level folder] [levels=15]
+ */
+public class FitnessBoundCheck {
+    // Plays another agent and keeps its actions
+    private static class RecordingAgent implements MarioAgent {
+        private MarioAgent agent;
+        private ActionSequence actions = new ActionSequence(ChromosomeEvaluator.GAME_TIMER * 1000 / 30 + 1);
+        private int ticks;
+
+        RecordingAgent(MarioAgent agent) {
+            this.agent = agent;
+        }
+
+        @Override
+        public void initialize(MarioForwardModel model, MarioTimer timer) {
+            this.agent.initialize(model, timer);
+        }
+
+        @Override
+        public boolean[] getActions(MarioForwardModel model, MarioTimer timer) {
+            boolean[] choice = this.agent.getActions(model, timer);
+            for (int a = 0; a < choice.length; a++) {
+                this.actions.set(this.ticks, a, choice[a]);
+            }
+            this.ticks++;
+            return choice;
+        }
+
+        @Override
+        public String getAgentName() {
+            return "Recording" + this.agent.getAgentName();
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        Path folder = Paths.get(args.length > 0 ? args[0] : "levels/original");
+        int levels = args.length > 1 ? Integer.parseInt(args[1]) : 15;
+        int wins = 0;
+        int failures = 0;
+        for (int i = 1; i <= levels; i++) {
+            String level = new String(Files.readAllBytes(folder.resolve("lvl-" + i + ".txt")));
+            RecordingAgent recorder = new RecordingAgent(new agents.robinBaumgarten.Agent());
+            MarioGame game = new MarioGame();
+            game.setEventRetention(EventRetention.COUNTERS_ONLY);
+            game.runGame(recorder, level, ChromosomeEvaluator.GAME_TIMER, 0);
+
+            ChromosomeEvaluator evaluator = new ChromosomeEvaluator(level, 0, ChromosomeEvaluator.CHECKPOINT_MEMORY);
+            EvaluationFarm.ChromosomeResult full = evaluator.evaluate(recorder.actions, 0, Double.NEGATIVE_INFINITY);
+            if (full.getEntry().getGameStatus() != GameStatus.WIN) {
+                System.out.println("lvl-" + i + ": the recording doesn't win, skipped");
+                continue;
+            }
+            wins++;
+            double fitness = full.getEntry().getFitness();
+            EvaluationFarm.ChromosomeResult pruned = evaluator.evaluate(recorder.actions, 0, fitness);
+            if (pruned.getPolicy() == ChromosomeEvaluator.STOP_FITNESS_BOUND ||
+                    pruned.getEntry().getGameStatus() != GameStatus.WIN || pruned.getEntry().getFitness() != fitness) {
+                System.out.println("lvl-" + i + ": the win with fitness " + fitness + " is pruned to " +
+                        pruned.getEntry().getFitness() + " after " + pruned.getSteps() + " ticks");
+                failures++;
+            }
+        }
+        System.out.println((wins - failures) + " of " + wins + " winning recordings are kept by the fitness bound");
+        if (wins == 0 || failures > 0) {
+            System.exit(1);
+        }
+    }
+}
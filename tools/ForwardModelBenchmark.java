@@ -0,0 +1,106 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Random;
+
+import engine.core.MarioForwardModel;
+import engine.core.MarioWorld;
+import engine.helper.GameStatus;
+
+/**
+ * Compares the two ways to roll back a forward model: clone() makes a new model
+ * every time, snapshot and restore reuse one StateBuffer and the model itself.
+ * The level is played for some ticks first so the world has sprites. Before the
+ * timing it checks that a restored model advances exactly like a clone of the
+ * same state, then it times each copy and one advance for scale.
+ * Usage: ForwardModelBenchmark [level] [warm up ticks] [iterations]
+ */
+public class ForwardModelBenchmark {
+    private static final boolean[] RUN_RIGHT = new boolean[]{false, true, false, true, false};
+    private static final boolean[] RUN_JUMP = new boolean[]{false, true, false, true, true};
+
+    // Advance a model with seeded random actions and describe where it ends up
+    private static String play(MarioForwardModel model, long seed, int ticks) {
+        Random random = new Random(seed);
+        boolean[] actions = new boolean[5];
+        for (int i = 0; i < ticks && model.getGameStatus() == GameStatus.RUNNING; i++) {
+            for (int a = 0; a < actions.length; a++) {
+                actions[a] = random.nextBoolean();
+            }
+            model.advance(actions);
+        }
+        return model.getGameStatus() + " " + Arrays.toString(model.getMarioFloatPos()) + " " +
+                model.getKillsTotal() + " " + model.getNumCollectedCoins() + " " + model.getRemainingTime();
+    }
+
+    public static void main(String[] args) throws IOException {
+        String level = new String(Files.readAllBytes(Paths.get(args.length > 0 ? args[0] : "levels/original/lvl-1.txt")));
+        int warmUpTicks = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 1000000;
+
+        MarioWorld world = new MarioWorld(null);
+        world.visuals = false;
+        world.initializeLevel(level, 20 * 1000);
+        MarioForwardModel model = new MarioForwardModel(world);
+        // run right and jump every other 10 ticks, that gets far into the first levels
+        for (int i = 0; i < warmUpTicks && model.getGameStatus() == GameStatus.RUNNING; i++) {
+            model.advance((i / 10) % 2 == 0 ? RUN_JUMP : RUN_RIGHT);
+        }
+        if (model.getGameStatus() != GameStatus.RUNNING) {
+            throw new IllegalStateException("The game ended during the warm up ticks, use fewer of them");
+        }
+
+        MarioForwardModel.StateBuffer buffer = new MarioForwardModel.StateBuffer();
+        model.snapshot(buffer);
+        MarioForwardModel replayed = model.clone();
+        for (long seed = 0; seed < 100; seed++) {
+            String expected = play(model.clone(), seed, 200);
+            replayed.restore(buffer);
+            String actual = play(replayed, seed, 200);
+            if (!expected.equals(actual)) {
+                throw new IllegalStateException("Restore differs from clone for seed " + seed + ": " + expected + " / " + actual);
+            }
+        }
+
+        long sink = 0;
+        for (int round = 0; round < 2; round++) {
+            // the first round only warms up the JIT
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                sink += model.clone().getRemainingTime();
+            }
+            double cloneNanos = (System.nanoTime() - start) / (double) iterations;
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                replayed.restore(buffer);
+                sink += replayed.getRemainingTime();
+            }
+            double restoreNanos = (System.nanoTime() - start) / (double) iterations;
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                model.snapshot(buffer);
+            }
+            double snapshotNanos = (System.nanoTime() - start) / (double) iterations;
+            // one restore for every 10 advances, so the advances dominate the time
+            int restores = Math.max(1, iterations / 100);
+            start = System.nanoTime();
+            for (int i = 0; i < restores; i++) {
+                replayed.restore(buffer);
+                for (int tick = 0; tick < 10; tick++) {
+                    replayed.advance(RUN_RIGHT);
+                }
+            }
+            double advanceNanos = ((System.nanoTime() - start) / (double) restores - restoreNanos) / 10;
+            if (round == 1) {
+                System.out.println(String.format("%d enemies after %d ticks, %d iterations", world.getEnemies().size(),
+                        warmUpTicks, iterations));
+                System.out.println(String.format("clone %.1f ns, snapshot %.1f ns, restore %.1f ns, advance %.1f ns",
+                        cloneNanos, snapshotNanos, restoreNanos, advanceNanos));
+            }
+        }
+        if (sink == 42) {
+            System.out.println();
+        }
+    }
+}
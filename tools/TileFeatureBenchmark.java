@@ -0,0 +1,126 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Random;
+
+import engine.core.MarioAgent;
+import engine.core.MarioForwardModel;
+import engine.core.MarioGame;
+import engine.core.MarioResult;
+import engine.core.MarioTimer;
+import engine.helper.TileFeature;
+
+/**
+ * Measures the tile feature lookups that the engine does on every collision check.
+ * It first compares the old lookup, which builds a feature list with getTileType
+ * for every check, against the precomputed flag table, then plays headless games
+ * with a seeded random agent and reports the game ticks per second. The games
+ * only use the public game API, so playGames can be run on an older tree to get
+ * the ticks per second before the flag table.
+ * Usage: TileFeatureBenchmark [level] [games] [seed]
+ */
+public class TileFeatureBenchmark {
+    // Plays random actions from a seeded generator, mostly running and jumping to the right
+    private static class RandomAgent implements MarioAgent {
+        private Random random;
+
+        RandomAgent(long seed) {
+            this.random = new Random(seed);
+        }
+
+        @Override
+        public void initialize(MarioForwardModel model, MarioTimer timer) {
+        }
+
+        @Override
+        public boolean[] getActions(MarioForwardModel model, MarioTimer timer) {
+            boolean[] actions = new boolean[5];
+            actions[0] = this.random.nextInt(8) == 0;
+            actions[1] = !actions[0] && this.random.nextInt(4) != 0;
+            actions[3] = this.random.nextBoolean();
+            actions[4] = this.random.nextInt(3) == 0;
+            return actions;
+        }
+
+        @Override
+        public String getAgentName() {
+            return "RandomAgent";
+        }
+    }
+
+    // Same checks as isBlocking, with a feature list for every tile
+    private static int listLookups(int[] tiles) {
+        int blocking = 0;
+        for (int tile : tiles) {
+            if (TileFeature.getTileType(tile).contains(TileFeature.BLOCK_ALL) ||
+                    TileFeature.getTileType(tile).contains(TileFeature.BLOCK_LOWER)) {
+                blocking++;
+            }
+        }
+        return blocking;
+    }
+
+    private static int tableLookups(int[] tiles) {
+        int mask = TileFeature.BLOCK_ALL.getMask() | TileFeature.BLOCK_LOWER.getMask();
+        int blocking = 0;
+        for (int tile : tiles) {
+            if ((TileFeature.getTileFlags(tile) & mask) != 0) {
+                blocking++;
+            }
+        }
+        return blocking;
+    }
+
+    private static void benchmarkLookups(Random random) {
+        int[] tiles = new int[1 << 16];
+        for (int i = 0; i < tiles.length; i++) {
+            tiles[i] = random.nextInt(56);
+        }
+        if (listLookups(tiles) != tableLookups(tiles)) {
+            throw new IllegalStateException("The flag table doesn't match getTileType");
+        }
+        // warm up both before timing them
+        for (int i = 0; i < 200; i++) {
+            listLookups(tiles);
+            tableLookups(tiles);
+        }
+        int rounds = 500;
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            listLookups(tiles);
+        }
+        double listNanos = (System.nanoTime() - start) / (double) rounds / tiles.length;
+        start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            tableLookups(tiles);
+        }
+        double tableNanos = (System.nanoTime() - start) / (double) rounds / tiles.length;
+        System.out.println(String.format("Feature lookup: getTileType %.2f ns, flag table %.2f ns", listNanos, tableNanos));
+    }
+
+    private static long playGames(String level, int games, long seed) {
+        MarioGame game = new MarioGame();
+        long ticks = 0;
+        for (int i = 0; i < games; i++) {
+            MarioResult result = game.runGame(new RandomAgent(seed + i), level, 20, 0);
+            ticks += result.getAgentEvents().size();
+        }
+        return ticks;
+    }
+
+    public static void main(String[] args) throws IOException {
+        String level = new String(Files.readAllBytes(Paths.get(args.length > 0 ? args[0] : "levels/original/lvl-1.txt")));
+        int games = args.length > 1 ? Integer.parseInt(args[1]) : 300;
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 42;
+
+        benchmarkLookups(new Random(seed));
+
+        // the first pass only warms up the JIT
+        playGames(level, Math.max(1, games / 3), seed);
+        long start = System.nanoTime();
+        long ticks = playGames(level, games, seed);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.println(String.format("Headless games: %d games, %d ticks in %.2f s, %.0f ticks/sec",
+                games, ticks, seconds, ticks / seconds));
+    }
+}